@@ -25,6 +25,9 @@ import android.text.format.DateUtils;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.net.HostAndPort;
+import de.schildbach.wallet.exchangerate.ExchangeRateProvider;
+import de.schildbach.wallet.exchangerate.ExchangeRateProviderState;
+import de.schildbach.wallet.exchangerate.ExchangeRatesRefreshScheduler;
 import de.schildbach.wallet.util.Formats;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.MonetaryFormat;
@@ -48,6 +51,7 @@ public class Configuration {
     public static final String PREFS_KEY_BTC_PRECISION = "btc_precision";
     public static final String PREFS_KEY_OWN_NAME = "own_name";
     public static final String PREFS_KEY_SEND_COINS_AUTOCLOSE = "send_coins_autoclose";
+    public static final String PREFS_KEY_SPENDING_KEY_SESSION = "spending_key_session";
     public static final String PREFS_KEY_EXCHANGE_CURRENCY = "exchange_currency";
     public static final String PREFS_KEY_SYNC_MODE = "sync_mode";
     public static final String PREFS_KEY_TRUSTED_PEERS = "trusted_peer";
@@ -60,6 +64,7 @@ public class Configuration {
     public static final String PREFS_KEY_REMIND_BALANCE_TIME = "remind_balance_time";
     public static final String PREFS_KEY_DISCLAIMER = "disclaimer";
     public static final String PREFS_KEY_BLUETOOTH_ADDRESS = "bluetooth_address";
+    public static final String PREFS_KEY_CONSOLIDATION_FEE_CEILING = "consolidation_fee_ceiling";
 
     private static final String PREFS_KEY_LAST_VERSION = "last_version";
     private static final String PREFS_KEY_LAST_USED = "last_used";
@@ -68,14 +73,22 @@ public class Configuration {
     private static final String PREFS_KEY_CHANGE_LOG_VERSION = "change_log_version";
     private static final String PREFS_KEY_REMIND_BACKUP = "remind_backup";
     private static final String PREFS_KEY_BATTERY_OPTIMIZATION_DIALOG_TIME = "battery_optimization_dialog_time";
+    private static final String PREFS_KEY_CONSOLIDATION_DIALOG_TIME = "consolidation_dialog_time";
     private static final String PREFS_KEY_LAST_BACKUP = "last_backup";
     private static final String PREFS_KEY_LAST_RESTORE = "last_restore";
     private static final String PREFS_KEY_LAST_ENCRYPT_KEYS = "last_encrypt_keys";
+    private static final String PREFS_KEY_SCRYPT_ITERATIONS = "scrypt_iterations";
+    private static final String PREFS_KEY_SCRYPT_LATENCY = "scrypt_latency_ms";
     private static final String PREFS_KEY_LAST_BLOCKCHAIN_RESET = "last_blockchain_reset";
     private static final String PREFS_KEY_LAST_BLUETOOTH_ADDRESS = "last_bluetooth_address";
+    private static final String PREFS_KEY_EXCHANGE_RATES_LAST_FETCHED = "exchange_rates_last_fetched";
+    private static final String PREFS_KEY_EXCHANGE_RATES_LAST_ATTEMPT = "exchange_rates_last_attempt";
+    private static final String PREFS_KEY_EXCHANGE_RATES_FAILURES = "exchange_rates_failures";
+    private static final String PREFS_KEY_EXCHANGE_RATES_PROVIDER_PREFIX = "exchange_rates_provider_";
 
     private static final int PREFS_DEFAULT_BTC_SHIFT = 3;
     private static final int PREFS_DEFAULT_BTC_PRECISION = 4;
+    private static final long PREFS_DEFAULT_CONSOLIDATION_FEE_CEILING = 2; // sat/vB
 
     private static final Logger log = LoggerFactory.getLogger(Configuration.class);
 
@@ -144,6 +157,18 @@ public class Configuration {
         return prefs.getBoolean(PREFS_KEY_SEND_COINS_AUTOCLOSE, true);
     }
 
+    /**
+     * @return how long a derived spending key may be remembered, or 0 if it must not be remembered at all
+     */
+    public long getSpendingKeySessionMs() {
+        final String seconds = prefs.getString(PREFS_KEY_SPENDING_KEY_SESSION, "0");
+        try {
+            return Long.parseLong(seconds) * DateUtils.SECOND_IN_MILLIS;
+        } catch (final NumberFormatException x) {
+            return 0;
+        }
+    }
+
     public SyncMode getSyncMode() {
         return SyncMode.valueOf(prefs.getString(PREFS_KEY_SYNC_MODE, SyncMode.CONNECTION_FILTER.name()));
     }
@@ -207,6 +232,36 @@ public class Configuration {
         prefs.edit().remove(PREFS_KEY_BATTERY_OPTIMIZATION_DIALOG_TIME).apply();
     }
 
+    /**
+     * @return highest fee rate per kB at which consolidating small coins is proposed
+     */
+    public Coin getConsolidationFeeCeiling() {
+        final String ceiling = prefs.getString(PREFS_KEY_CONSOLIDATION_FEE_CEILING, null);
+        long satPerVbyte = PREFS_DEFAULT_CONSOLIDATION_FEE_CEILING;
+        if (!Strings.isNullOrEmpty(ceiling)) {
+            try {
+                satPerVbyte = Long.parseLong(ceiling.trim());
+            } catch (final NumberFormatException x) {
+                log.info("cannot parse consolidation fee ceiling: {}", ceiling);
+            }
+        }
+        return Coin.valueOf(satPerVbyte * 1000);
+    }
+
+    private long getConsolidationDialogTime() {
+        return prefs.getLong(PREFS_KEY_CONSOLIDATION_DIALOG_TIME, 0);
+    }
+
+    public boolean isTimeForConsolidationDialog() {
+        final long now = System.currentTimeMillis();
+        return now >= getConsolidationDialogTime();
+    }
+
+    public void setConsolidationDialogTimeIn(final long durationMs) {
+        final long now = System.currentTimeMillis();
+        prefs.edit().putLong(PREFS_KEY_CONSOLIDATION_DIALOG_TIME, now + durationMs).apply();
+    }
+
     private long getRemindBalanceTime() {
         return prefs.getLong(PREFS_KEY_REMIND_BALANCE_TIME, 0);
     }
@@ -258,6 +313,53 @@ public class Configuration {
         prefs.edit().putLong(PREFS_KEY_LAST_ENCRYPT_KEYS, System.currentTimeMillis()).apply();
     }
 
+    /**
+     * @return scrypt iterations as calibrated for this device, or 0 if not calibrated yet
+     */
+    public int getScryptIterations() {
+        return prefs.getInt(PREFS_KEY_SCRYPT_ITERATIONS, 0);
+    }
+
+    /**
+     * @return measured time for deriving the spending key using the calibrated scrypt iterations
+     */
+    public long getScryptLatencyMs() {
+        return prefs.getLong(PREFS_KEY_SCRYPT_LATENCY, 0);
+    }
+
+    public void setScryptCalibration(final int iterations, final long latencyMs) {
+        prefs.edit().putInt(PREFS_KEY_SCRYPT_ITERATIONS, iterations).putLong(PREFS_KEY_SCRYPT_LATENCY, latencyMs)
+                .apply();
+    }
+
+    public ExchangeRatesRefreshScheduler getExchangeRatesRefreshScheduler() {
+        return new ExchangeRatesRefreshScheduler(prefs.getLong(PREFS_KEY_EXCHANGE_RATES_LAST_FETCHED, 0),
+                prefs.getLong(PREFS_KEY_EXCHANGE_RATES_LAST_ATTEMPT, 0),
+                prefs.getInt(PREFS_KEY_EXCHANGE_RATES_FAILURES, 0));
+    }
+
+    public void setExchangeRatesRefreshScheduler(final ExchangeRatesRefreshScheduler scheduler) {
+        prefs.edit().putLong(PREFS_KEY_EXCHANGE_RATES_LAST_FETCHED, scheduler.lastFetched())
+                .putLong(PREFS_KEY_EXCHANGE_RATES_LAST_ATTEMPT, scheduler.lastAttempt())
+                .putInt(PREFS_KEY_EXCHANGE_RATES_FAILURES, scheduler.failures()).apply();
+    }
+
+    public ExchangeRateProviderState getExchangeRateProviderState(final ExchangeRateProvider provider) {
+        final String prefix = exchangeRateProviderPrefix(provider);
+        return new ExchangeRateProviderState(provider, prefs.getString(prefix + "etag", null),
+                prefs.getString(prefix + "last_modified", null));
+    }
+
+    public void setExchangeRateProviderState(final ExchangeRateProviderState state) {
+        final String prefix = exchangeRateProviderPrefix(state.provider);
+        prefs.edit().putString(prefix + "etag", state.eTag())
+                .putString(prefix + "last_modified", state.lastModified()).apply();
+    }
+
+    private static String exchangeRateProviderPrefix(final ExchangeRateProvider provider) {
+        return PREFS_KEY_EXCHANGE_RATES_PROVIDER_PREFIX + provider.source().toLowerCase(Locale.US) + '_';
+    }
+
     public long getLastBlockchainResetTime() {
         return prefs.getLong(PREFS_KEY_LAST_BLOCKCHAIN_RESET, 0);
     }
@@ -88,6 +88,10 @@ public final class Constants {
         /** Filename of the manual wallet backup. */
         public static final String EXTERNAL_WALLET_BACKUP = "bitcoin-wallet-backup" + FILENAME_NETWORK_SUFFIX;
 
+        /** Filename of the address book labels export, in BIP329 format. */
+        public static final String EXTERNAL_ADDRESS_BOOK_LABELS = "bitcoin-wallet-labels" + FILENAME_NETWORK_SUFFIX
+                + ".jsonl";
+
         /** Filename of the block store for storing the chain. */
         public static final String BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
 
@@ -103,6 +107,13 @@ public final class Constants {
         /** Filename of the dynamic fees file. */
         public static final String FEES_FILENAME = "fees" + FILENAME_NETWORK_SUFFIX + ".txt";
 
+        /** Filename of the locally estimated fees. */
+        public static final String LOCAL_FEES_FILENAME = "local-fees" + FILENAME_NETWORK_SUFFIX;
+
+        /** Filename of the health records of Electrum servers. */
+        public static final String ELECTRUM_SERVER_HEALTH_FILENAME = "electrum-server-health"
+                + FILENAME_NETWORK_SUFFIX;
+
         /** Name of the asset containing Electrum servers. */
         public static final String ELECTRUM_SERVERS_ASSET = "electrum-servers.txt";
     }
@@ -119,6 +130,9 @@ public final class Constants {
     /** MIME type used for transmitting wallet backups. */
     public static final String MIMETYPE_WALLET_BACKUP = "application/x-bitcoin-wallet-backup";
 
+    /** MIME type used for exporting address book labels in BIP329 format, which is JSON Lines. */
+    public static final String MIMETYPE_ADDRESS_BOOK_LABELS = "application/jsonl";
+
     /** Number of confirmations until a transaction is fully confirmed. */
     public static final int MAX_NUM_CONFIRMATIONS = 7;
 
@@ -206,6 +220,9 @@ public final class Constants {
     public static final int SCRYPT_ITERATIONS_TARGET = 65536;
     public static final int SCRYPT_ITERATIONS_TARGET_LOWRAM = 32768;
 
+    /** Desired time for deriving the spending PIN, used for calibrating scrypt iterations to the device */
+    public static final long SCRYPT_TARGET_LATENCY_MS = 1000;
+
     /** Default ports for Electrum servers */
     public static final int ELECTRUM_SERVER_DEFAULT_PORT_TCP = NETWORK_PARAMETERS.getId()
             .equals(NetworkParameters.ID_MAINNET) ? 50001 : 51001;
@@ -23,6 +23,10 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.media.AudioAttributes;
@@ -33,6 +37,7 @@ import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.MutableLiveData;
 import com.google.common.base.Splitter;
@@ -45,8 +50,10 @@ import com.google.common.util.concurrent.SettableFuture;
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainState;
 import de.schildbach.wallet.ui.Event;
+import de.schildbach.wallet.ui.send.SpendingKeySession;
 import de.schildbach.wallet.util.Bluetooth;
 import de.schildbach.wallet.util.CrashReporter;
+import de.schildbach.wallet.util.ScryptCalibration;
 import de.schildbach.wallet.util.Toast;
 import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.core.VersionMessage;
@@ -67,6 +74,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author Andreas Schildbach
@@ -77,6 +85,7 @@ public class WalletApplication extends Application {
     private File walletFile;
     private WalletFiles walletFiles;
     private Configuration config;
+    private SpendingKeySession spendingKeySession;
 
     public final MutableLiveData<BlockchainState> blockchainState = new MutableLiveData<>();
     public final MutableLiveData<Integer> peerState = new MutableLiveData<>();
@@ -128,14 +137,35 @@ public class WalletApplication extends Application {
         cleanupFiles();
 
         initNotificationManager();
+
+        registerReceiver(screenOffReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF));
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        spendingKeySession().clear();
     }
 
+    private final BroadcastReceiver screenOffReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            spendingKeySession().clear();
+        }
+    };
+
     public synchronized Configuration getConfiguration() {
         if (config == null)
             config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this), getResources());
         return config;
     }
 
+    public synchronized SpendingKeySession spendingKeySession() {
+        if (spendingKeySession == null)
+            spendingKeySession = new SpendingKeySession(getConfiguration());
+        return spendingKeySession;
+    }
+
     @WorkerThread
     public Wallet getWallet() {
         final Stopwatch watch = Stopwatch.createStarted();
@@ -252,6 +282,7 @@ public class WalletApplication extends Application {
     }
 
     public void replaceWallet(final Wallet newWallet) {
+        spendingKeySession().clear();
         newWallet.cleanup();
         if (newWallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE) && !newWallet.isEncrypted())
             newWallet.upgradeToDeterministic(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE, null);
@@ -343,10 +374,45 @@ public class WalletApplication extends Application {
     }
 
     public int scryptIterationsTarget() {
+        final int calibrated = getConfiguration().getScryptIterations();
+        if (calibrated > 0)
+            return Math.max(Math.min(calibrated, maxScryptIterations()), Constants.SCRYPT_ITERATIONS_TARGET_LOWRAM);
         return activityManager.getMemoryClass() <= 128 || Build.SUPPORTED_64_BIT_ABIS.length == 0
                 ? Constants.SCRYPT_ITERATIONS_TARGET_LOWRAM : Constants.SCRYPT_ITERATIONS_TARGET;
     }
 
+    private int maxScryptIterations() {
+        if (Build.SUPPORTED_64_BIT_ABIS.length == 0)
+            return Constants.SCRYPT_ITERATIONS_TARGET_LOWRAM;
+        // scrypt needs 1 kB per iteration; don't use more than a quarter of the heap
+        return Math.max(Integer.highestOneBit(activityManager.getMemoryClass() * 1024 / 4),
+                Constants.SCRYPT_ITERATIONS_TARGET_LOWRAM);
+    }
+
+    /**
+     * Times scrypt on this device and records the result, so that {@link #scryptIterationsTarget()} follows it.
+     * Takes a few seconds.
+     */
+    @WorkerThread
+    public ScryptCalibration.Result calibrateScrypt() {
+        return calibrateScrypt(() -> false);
+    }
+
+    /**
+     * Like {@link #calibrateScrypt()}, but gives up early once cancelled. Nothing is recorded then.
+     *
+     * @return the result, or {@code null} if cancelled
+     */
+    @WorkerThread
+    @Nullable
+    public ScryptCalibration.Result calibrateScrypt(final BooleanSupplier cancelled) {
+        final ScryptCalibration.Result result = ScryptCalibration.calibrate(Constants.SCRYPT_ITERATIONS_TARGET_LOWRAM,
+                maxScryptIterations(), Constants.SCRYPT_TARGET_LATENCY_MS, cancelled);
+        if (result != null)
+            getConfiguration().setScryptCalibration(result.iterations, result.latencyMs);
+        return result;
+    }
+
     public boolean fullSyncCapable() {
         return activityManager.getMemoryClass() >= 128;
     }
@@ -17,12 +17,16 @@
 
 package de.schildbach.wallet.addressbook;
 
+import android.database.Cursor;
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Upsert;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -31,20 +35,63 @@ import java.util.Set;
  */
 @Dao
 public interface AddressBookDao {
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    // not a REPLACE, so the triggers keeping the full-text index in sync see an update
+    @Upsert
     void insertOrUpdate(AddressBookEntry addressBookEntry);
 
+    @Upsert
+    void insertOrUpdate(List<AddressBookEntry> addressBookEntries);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertOrIgnore(List<AddressBookEntry> addressBookEntries);
+
+    /**
+     * Stores a batch of entries in a single transaction. Returns the number of entries stored, which is less than
+     * the size of the batch if existing labels are kept.
+     */
+    @Transaction
+    default int importBatch(final List<AddressBookEntry> addressBookEntries, final Bip329.ConflictPolicy policy) {
+        if (policy == Bip329.ConflictPolicy.OVERWRITE) {
+            insertOrUpdate(addressBookEntries);
+            return addressBookEntries.size();
+        }
+        int numInserted = 0;
+        for (final long rowId : insertOrIgnore(addressBookEntries))
+            if (rowId != -1)
+                numInserted++;
+        return numInserted;
+    }
+
     @Query("DELETE FROM address_book WHERE address = :address")
     void delete(String address);
 
     @Query("SELECT label FROM address_book WHERE address = :address")
     String resolveLabel(String address);
 
-    @Query("SELECT * FROM address_book WHERE address LIKE '%' || :constraint || '%' OR label LIKE '%' || :constraint || '%' ORDER BY label COLLATE LOCALIZED ASC")
-    List<AddressBookEntry> get(String constraint);
+    /**
+     * Finds entries with words in their address or label starting with the words of the given constraint. Entries
+     * whose label starts with the constraint come first, then those with a word of the label starting with it.
+     */
+    default List<AddressBookEntry> search(final String constraint, final int limit) {
+        final String matchQuery = AddressBookFtsEntry.matchQuery(constraint);
+        if (matchQuery == null)
+            return Collections.emptyList();
+        return findByMatchQuery(matchQuery, constraint, limit);
+    }
+
+    @Query("SELECT address_book.* FROM address_book "
+            + "JOIN address_book_fts ON address_book.rowid = address_book_fts.docid "
+            + "WHERE address_book_fts MATCH :matchQuery ORDER BY CASE "
+            + "WHEN address_book.label LIKE :constraint || '%' THEN 0 "
+            + "WHEN address_book.label LIKE '% ' || :constraint || '%' THEN 1 ELSE 2 END, "
+            + "address_book.label COLLATE LOCALIZED ASC LIMIT :limit")
+    List<AddressBookEntry> findByMatchQuery(String matchQuery, String constraint, int limit);
+
+    @Query("SELECT * FROM address_book")
+    List<AddressBookEntry> loadAll();
 
-    @Query("SELECT * FROM address_book ORDER BY label COLLATE LOCALIZED ASC")
-    LiveData<List<AddressBookEntry>> getAll();
+    @Query("SELECT * FROM address_book ORDER BY address")
+    Cursor cursorAll();
 
     @Query("SELECT * FROM address_book WHERE address NOT IN (:except) ORDER BY label COLLATE LOCALIZED ASC")
     LiveData<List<AddressBookEntry>> getAllExcept(Set<String> except);
@@ -27,7 +27,7 @@ import androidx.sqlite.db.SupportSQLiteDatabase;
 /**
  * @author Andreas Schildbach
  */
-@Database(entities = { AddressBookEntry.class }, version = 2, exportSchema = false)
+@Database(entities = { AddressBookEntry.class, AddressBookFtsEntry.class }, version = 3, exportSchema = false)
 public abstract class AddressBookDatabase extends RoomDatabase {
     public abstract AddressBookDao addressBookDao();
 
@@ -39,7 +39,7 @@ public abstract class AddressBookDatabase extends RoomDatabase {
             synchronized (AddressBookDatabase.class) {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(), AddressBookDatabase.class, DATABASE_NAME)
-                            .addMigrations(MIGRATION_1_2).allowMainThreadQueries().build();
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3).allowMainThreadQueries().build();
                 }
             }
         }
@@ -57,4 +57,26 @@ public abstract class AddressBookDatabase extends RoomDatabase {
             database.execSQL("ALTER TABLE address_book_new RENAME TO address_book");
         }
     };
+
+    private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `address_book_fts` USING FTS4(`address` TEXT, "
+                    + "`label` TEXT, tokenize=unicode61, content=`address_book`)");
+            // same triggers as Room creates for new databases
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_address_book_fts_BEFORE_UPDATE "
+                    + "BEFORE UPDATE ON `address_book` BEGIN DELETE FROM `address_book_fts` "
+                    + "WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_address_book_fts_BEFORE_DELETE "
+                    + "BEFORE DELETE ON `address_book` BEGIN DELETE FROM `address_book_fts` "
+                    + "WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_address_book_fts_AFTER_UPDATE "
+                    + "AFTER UPDATE ON `address_book` BEGIN INSERT INTO `address_book_fts`(`docid`, `address`, "
+                    + "`label`) VALUES (NEW.`rowid`, NEW.`address`, NEW.`label`); END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_address_book_fts_AFTER_INSERT "
+                    + "AFTER INSERT ON `address_book` BEGIN INSERT INTO `address_book_fts`(`docid`, `address`, "
+                    + "`label`) VALUES (NEW.`rowid`, NEW.`address`, NEW.`label`); END");
+            database.execSQL("INSERT INTO address_book_fts(address_book_fts) VALUES ('rebuild')");
+        }
+    };
 }
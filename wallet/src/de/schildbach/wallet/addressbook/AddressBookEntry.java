@@ -22,10 +22,6 @@ import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * @author Andreas Schildbach
  */
@@ -53,13 +49,4 @@ public class AddressBookEntry {
     public String getLabel() {
         return label;
     }
-
-    public static Map<String, AddressBookEntry> asMap(final List<AddressBookEntry> entries) {
-        if (entries == null)
-            return null;
-        final Map<String, AddressBookEntry> addressBook = new HashMap<>();
-        for (final AddressBookEntry entry : entries)
-            addressBook.put(entry.getAddress(), entry);
-        return addressBook;
-    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.addressbook;
+
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+import java.util.Locale;
+
+/**
+ * Full-text index over addresses and labels of the address book. Room keeps it in sync with
+ * {@link AddressBookEntry} using triggers.
+ *
+ * @author Andreas Schildbach
+ */
+@Fts4(contentEntity = AddressBookEntry.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = AddressBookFtsEntry.TABLE_NAME)
+public class AddressBookFtsEntry {
+    public static final String TABLE_NAME = "address_book_fts";
+
+    @ColumnInfo(name = "address")
+    private String address;
+
+    @ColumnInfo(name = "label")
+    private String label;
+
+    public AddressBookFtsEntry(final String address, final String label) {
+        this.address = address;
+        this.label = label;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Turns user input into a full-text query that matches entries containing words starting with each of the
+     * words of the input.
+     *
+     * @return the query, or {@code null} if the input doesn't contain any words
+     */
+    @Nullable
+    public static String matchQuery(final String constraint) {
+        final StringBuilder query = new StringBuilder();
+        // only letters and digits, so the input can't inject query syntax
+        for (final String word : constraint.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty())
+                continue;
+            if (query.length() > 0)
+                query.append(' ');
+            query.append(word).append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+}
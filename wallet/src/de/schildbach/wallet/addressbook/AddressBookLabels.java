@@ -0,0 +1,64 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.addressbook;
+
+import androidx.annotation.Nullable;
+import org.bitcoinj.core.Address;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the labels in the address book, for resolving labels of many addresses cheaply, e.g. while
+ * building lists.
+ *
+ * @author Andreas Schildbach
+ */
+public final class AddressBookLabels {
+    public static final AddressBookLabels EMPTY = new AddressBookLabels(Collections.emptyMap());
+
+    private final Map<String, String> labels;
+
+    private AddressBookLabels(final Map<String, String> labels) {
+        this.labels = labels;
+    }
+
+    public static AddressBookLabels of(final List<AddressBookEntry> entries) {
+        final Map<String, String> labels = new HashMap<>(entries.size());
+        for (final AddressBookEntry entry : entries)
+            if (entry.getLabel() != null)
+                labels.put(entry.getAddress(), entry.getLabel());
+        return new AddressBookLabels(Collections.unmodifiableMap(labels));
+    }
+
+    @Nullable
+    public String resolveLabel(final Address address) {
+        return labels.get(address.toString());
+    }
+
+    @Nullable
+    public String resolveLabel(final String address) {
+        return labels.get(address);
+    }
+
+    public int size() {
+        return labels.size();
+    }
+}
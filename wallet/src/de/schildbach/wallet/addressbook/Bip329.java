@@ -0,0 +1,204 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.addressbook;
+
+import android.database.Cursor;
+import androidx.annotation.Nullable;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.NetworkParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reads and writes address labels in the BIP329 format: one JSON object per line. Only labels of type {@code addr}
+ * are relevant to the address book; all other lines are skipped. Both directions stream, so the size of a label file
+ * is not limited by memory.
+ *
+ * @author Andreas Schildbach
+ */
+public final class Bip329 {
+    public enum ConflictPolicy {
+        /** Labels of addresses that are already in the address book are left alone. */
+        KEEP_EXISTING,
+        /** Labels of addresses that are already in the address book are replaced. */
+        OVERWRITE
+    }
+
+    public interface ProgressListener {
+        void onProgress(Result progress);
+    }
+
+    public static final class Result {
+        public final int numImported;
+        public final int numExisting;
+        public final int numSkipped;
+
+        public Result(final int numImported, final int numExisting, final int numSkipped) {
+            this.numImported = numImported;
+            this.numExisting = numExisting;
+            this.numSkipped = numSkipped;
+        }
+
+        @Override
+        public String toString() {
+            return numImported + " imported, " + numExisting + " existing, " + numSkipped + " skipped";
+        }
+    }
+
+    public static final String TYPE_ADDRESS = "addr";
+    public static final int BATCH_SIZE = 500;
+
+    private static final JsonReader.Options NAMES = JsonReader.Options.of("type", "ref", "label");
+    private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+    private static final Logger log = LoggerFactory.getLogger(Bip329.class);
+
+    /**
+     * Reads labels line by line and hands them to the given sink in batches of {@link #BATCH_SIZE}. The sink returns
+     * how many of the batch it actually stored, and is expected to store each batch in a single transaction. After
+     * each batch, the listener is told about the progress so far.
+     */
+    public static Result importLabels(final BufferedSource source, final NetworkParameters network,
+            final ToIntFunction<List<AddressBookEntry>> sink, @Nullable final ProgressListener listener)
+            throws IOException {
+        final List<AddressBookEntry> batch = new ArrayList<>(BATCH_SIZE);
+        int numImported = 0, numExisting = 0, numSkipped = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && line.startsWith(BYTE_ORDER_MARK))
+                line = line.substring(BYTE_ORDER_MARK.length());
+            if (line.trim().isEmpty())
+                continue;
+
+            final AddressBookEntry entry = parseLine(line, network);
+            if (entry == null) {
+                numSkipped++;
+                continue;
+            }
+            batch.add(entry);
+            if (batch.size() == BATCH_SIZE) {
+                final int numStored = sink.applyAsInt(batch);
+                numImported += numStored;
+                numExisting += batch.size() - numStored;
+                batch.clear();
+                if (listener != null)
+                    listener.onProgress(new Result(numImported, numExisting, numSkipped));
+            }
+        }
+        if (!batch.isEmpty()) {
+            final int numStored = sink.applyAsInt(batch);
+            numImported += numStored;
+            numExisting += batch.size() - numStored;
+        }
+        final Result result = new Result(numImported, numExisting, numSkipped);
+        if (listener != null)
+            listener.onProgress(result);
+        log.info("imported {} lines of labels: {}", lineNumber, result);
+        return result;
+    }
+
+    /**
+     * Parses a single line. Returns {@code null} if the line is malformed, not of type {@code addr}, carries no label
+     * or refers to an address of a different network.
+     */
+    @Nullable
+    static AddressBookEntry parseLine(final String line, final NetworkParameters network) {
+        String type = null, ref = null, label = null;
+        try {
+            final JsonReader reader = JsonReader.of(new Buffer().writeUtf8(line));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final int index = reader.selectName(NAMES);
+                if (index == -1) {
+                    reader.skipName();
+                    reader.skipValue();
+                } else if (reader.peek() != JsonReader.Token.STRING) {
+                    reader.skipValue();
+                } else if (index == 0) {
+                    type = reader.nextString();
+                } else if (index == 1) {
+                    ref = reader.nextString();
+                } else {
+                    label = reader.nextString();
+                }
+            }
+            reader.endObject();
+        } catch (final IOException | JsonDataException x) {
+            return null;
+        }
+
+        if (!TYPE_ADDRESS.equals(type) || ref == null || label == null)
+            return null;
+        label = label.trim();
+        if (label.isEmpty())
+            return null;
+        try {
+            final Address address = Address.fromString(network, ref.trim());
+            return new AddressBookEntry(address.toString(), label);
+        } catch (final AddressFormatException x) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes all entries of the given cursor, which must contain the address book columns. The cursor is consumed
+     * row by row, so only the current row is in memory. Returns the number of lines written.
+     */
+    public static int exportLabels(final Cursor cursor, final BufferedSink sink) throws IOException {
+        final int addressIndex = cursor.getColumnIndexOrThrow("address");
+        final int labelIndex = cursor.getColumnIndexOrThrow("label");
+        int numExported = 0;
+        while (cursor.moveToNext()) {
+            final String label = cursor.getString(labelIndex);
+            if (label != null) {
+                writeLine(sink, cursor.getString(addressIndex), label);
+                numExported++;
+            }
+        }
+        sink.flush();
+        log.info("exported {} labels", numExported);
+        return numExported;
+    }
+
+    static void writeLine(final BufferedSink sink, final String address, final String label) throws IOException {
+        final Buffer line = new Buffer();
+        try (final JsonWriter writer = JsonWriter.of(line)) {
+            writer.beginObject();
+            writer.name("type").value(TYPE_ADDRESS);
+            writer.name("ref").value(address);
+            writer.name("label").value(label);
+            writer.endObject();
+        }
+        sink.writeAll(line);
+        sink.writeByte('\n');
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import android.os.AsyncTask;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.addressbook.AddressBookDao;
+import de.schildbach.wallet.addressbook.AddressBookDatabase;
+import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.addressbook.AddressBookLabels;
+
+import java.util.Set;
+
+/**
+ * Application-wide snapshot of the address book labels. It is shared by all lists that show labels, and replaced
+ * as a whole whenever the address book changes.
+ *
+ * @author Andreas Schildbach
+ */
+public class AddressBookLabelsLiveData extends LiveData<AddressBookLabels> {
+    private static AddressBookLabelsLiveData INSTANCE;
+
+    private final AddressBookDao dao;
+    private final InvalidationTracker invalidationTracker;
+
+    private final InvalidationTracker.Observer invalidationObserver =
+            new InvalidationTracker.Observer(AddressBookEntry.TABLE_NAME) {
+        @Override
+        public void onInvalidated(@NonNull final Set<String> tables) {
+            load();
+        }
+    };
+
+    public synchronized static AddressBookLabelsLiveData get(final WalletApplication application) {
+        if (INSTANCE == null)
+            INSTANCE = new AddressBookLabelsLiveData(application);
+        return INSTANCE;
+    }
+
+    private AddressBookLabelsLiveData(final WalletApplication application) {
+        final AddressBookDatabase db = AddressBookDatabase.getDatabase(application);
+        this.dao = db.addressBookDao();
+        this.invalidationTracker = db.getInvalidationTracker();
+    }
+
+    @Override
+    protected void onActive() {
+        invalidationTracker.addObserver(invalidationObserver);
+        load();
+    }
+
+    @Override
+    protected void onInactive() {
+        invalidationTracker.removeObserver(invalidationObserver);
+    }
+
+    private void load() {
+        AsyncTask.execute(() -> postValue(AddressBookLabels.of(dao.loadAll())));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import androidx.annotation.Nullable;
+import de.schildbach.wallet.Constants;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+/**
+ * @author Andreas Schildbach
+ */
+public final class ElectrumServer {
+    public enum Type {
+        TCP, TLS
+    }
+
+    public final InetSocketAddress socketAddress;
+    public final Type type;
+    @Nullable
+    public final String certificateFingerprint;
+
+    public ElectrumServer(final String type, final String host, final @Nullable String port,
+            final @Nullable String certificateFingerprint) {
+        this.type = Type.valueOf(type.toUpperCase());
+        if (port != null)
+            this.socketAddress = InetSocketAddress.createUnresolved(host, Integer.parseInt(port));
+        else if ("tcp".equalsIgnoreCase(type))
+            this.socketAddress = InetSocketAddress.createUnresolved(host,
+                    Constants.ELECTRUM_SERVER_DEFAULT_PORT_TCP);
+        else if ("tls".equalsIgnoreCase(type))
+            this.socketAddress = InetSocketAddress.createUnresolved(host,
+                    Constants.ELECTRUM_SERVER_DEFAULT_PORT_TLS);
+        else
+            throw new IllegalStateException("Cannot handle: " + type);
+        this.certificateFingerprint = certificateFingerprint != null ?
+                certificateFingerprint.toLowerCase(Locale.US) : null;
+    }
+
+    @Override
+    public String toString() {
+        return type.name().toLowerCase(Locale.US) + ':' + socketAddress.getHostString() + ':'
+                + socketAddress.getPort();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import android.content.res.AssetManager;
+import android.text.format.DateUtils;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.util.Assets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the list of Electrum servers, along with how well each of them performed in the past: connect latency, TLS
+ * handshake time, error rate and whether it was caught lying. Servers are handed out fastest and most reliable
+ * first. Servers that failed repeatedly, or lied, sit out for a while. The health data is persisted across app
+ * restarts.
+ *
+ * @author Andreas Schildbach
+ */
+public class ElectrumServerRegistry {
+    private static ElectrumServerRegistry INSTANCE;
+
+    private static final int SIT_OUT_AFTER_FAILURES = 3;
+    private static final long SIT_OUT_MIN_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long SIT_OUT_MAX_MS = DateUtils.DAY_IN_MILLIS;
+    private static final long SIT_OUT_LIE_MS = DateUtils.DAY_IN_MILLIS;
+    private static final long UNKNOWN_LATENCY_MS = 1000;
+    private static final double EWMA_ALPHA = 0.3;
+    private static final int FILE_VERSION = 1;
+
+    @Nullable
+    private final AssetManager assets;
+    @Nullable
+    private List<ElectrumServer> servers;
+    private final Map<String, Health> health = new HashMap<>();
+    @Nullable
+    private final File file;
+    private boolean loaded = false;
+
+    private static final Logger log = LoggerFactory.getLogger(ElectrumServerRegistry.class);
+
+    public synchronized static ElectrumServerRegistry get(final WalletApplication application) {
+        if (INSTANCE == null)
+            INSTANCE = new ElectrumServerRegistry(application.getAssets(), null,
+                    new File(application.getFilesDir(), Constants.Files.ELECTRUM_SERVER_HEALTH_FILENAME));
+        return INSTANCE;
+    }
+
+    public ElectrumServerRegistry(final List<ElectrumServer> servers, @Nullable final File file) {
+        this(null, servers, file);
+    }
+
+    private ElectrumServerRegistry(@Nullable final AssetManager assets, @Nullable final List<ElectrumServer> servers,
+            @Nullable final File file) {
+        this.assets = assets;
+        this.servers = servers != null ? Collections.unmodifiableList(new ArrayList<>(servers)) : null;
+        this.file = file;
+    }
+
+    /**
+     * Loads servers and their health lazily, as this involves I/O.
+     */
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        if (servers == null)
+            servers = Collections.unmodifiableList(loadElectrumServers(assets));
+        if (file != null && file.exists())
+            load(file);
+        loaded = true;
+    }
+
+    static final class Health {
+        double connectMs = -1;
+        double handshakeMs = -1;
+        double errorRate = 0;
+        int consecutiveFailures = 0;
+        int lies = 0;
+        long sitOutUntil = 0;
+
+        double expectedLatencyMs() {
+            final double latency = (connectMs >= 0 ? connectMs : UNKNOWN_LATENCY_MS)
+                    + (handshakeMs >= 0 ? handshakeMs : 0);
+            return latency * (1 + 4 * errorRate);
+        }
+    }
+
+    /**
+     * @return servers to query, best first. Servers that sit out are left out, unless that would leave less than
+     *         half of all servers.
+     */
+    @WorkerThread
+    public List<ElectrumServer> serversToQuery() {
+        return serversToQuery(System.currentTimeMillis());
+    }
+
+    @WorkerThread
+    synchronized List<ElectrumServer> serversToQuery(final long now) {
+        ensureLoaded();
+        final List<ElectrumServer> ranked = new ArrayList<>(servers);
+        Collections.sort(ranked, Comparator.comparingDouble(server -> health(server).expectedLatencyMs()));
+        final List<ElectrumServer> eligible = new ArrayList<>(ranked.size());
+        for (final ElectrumServer server : ranked)
+            if (health(server).sitOutUntil <= now)
+                eligible.add(server);
+        if (eligible.size() < (servers.size() + 1) / 2) {
+            log.info("only {} of {} servers eligible, asking all of them", eligible.size(), servers.size());
+            return ranked;
+        }
+        return eligible;
+    }
+
+    /**
+     * @return number of configured servers, including those that sit out
+     */
+    @WorkerThread
+    public synchronized int numServers() {
+        ensureLoaded();
+        return servers.size();
+    }
+
+    public synchronized void recordConnect(final ElectrumServer server, final long connectMs,
+            final long handshakeMs) {
+        ensureLoaded();
+        final Health health = health(server);
+        health.connectMs = ewma(health.connectMs, connectMs);
+        if (handshakeMs >= 0)
+            health.handshakeMs = ewma(health.handshakeMs, handshakeMs);
+    }
+
+    public synchronized void recordSuccess(final ElectrumServer server) {
+        ensureLoaded();
+        final Health health = health(server);
+        health.errorRate = ewma(health.errorRate, 0);
+        health.consecutiveFailures = 0;
+    }
+
+    public void recordFailure(final ElectrumServer server) {
+        recordFailure(server, System.currentTimeMillis());
+    }
+
+    synchronized void recordFailure(final ElectrumServer server, final long now) {
+        ensureLoaded();
+        final Health health = health(server);
+        health.errorRate = ewma(health.errorRate, 1);
+        health.consecutiveFailures++;
+        if (health.consecutiveFailures >= SIT_OUT_AFTER_FAILURES) {
+            // back off exponentially while it keeps failing
+            final int exponent = Math.min(health.consecutiveFailures - SIT_OUT_AFTER_FAILURES, 16);
+            final long sitOutMs = Math.min(SIT_OUT_MIN_MS << exponent, SIT_OUT_MAX_MS);
+            sitOut(server, health, now, sitOutMs);
+        }
+    }
+
+    /**
+     * Records that the server returned data that does not match the transactions it refers to.
+     */
+    public void recordLie(final ElectrumServer server) {
+        recordLie(server, System.currentTimeMillis());
+    }
+
+    synchronized void recordLie(final ElectrumServer server, final long now) {
+        ensureLoaded();
+        final Health health = health(server);
+        health.lies++;
+        sitOut(server, health, now, SIT_OUT_LIE_MS);
+    }
+
+    private void sitOut(final ElectrumServer server, final Health health, final long now, final long durationMs) {
+        if (now + durationMs > health.sitOutUntil) {
+            health.sitOutUntil = now + durationMs;
+            log.info("{} sits out for {} min", server, durationMs / DateUtils.MINUTE_IN_MILLIS);
+        }
+    }
+
+    private Health health(final ElectrumServer server) {
+        final String key = server.toString();
+        Health health = this.health.get(key);
+        if (health == null) {
+            health = new Health();
+            this.health.put(key, health);
+        }
+        return health;
+    }
+
+    private static double ewma(final double average, final double sample) {
+        return average < 0 ? sample : average + EWMA_ALPHA * (sample - average);
+    }
+
+    @WorkerThread
+    public void save() {
+        if (file != null)
+            save(file);
+    }
+
+    private synchronized void save(final File file) {
+        if (!loaded)
+            return;
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream os = new DataOutputStream(new FileOutputStream(tempFile))) {
+            os.writeInt(FILE_VERSION);
+            os.writeInt(health.size());
+            for (final Map.Entry<String, Health> entry : health.entrySet()) {
+                final Health health = entry.getValue();
+                os.writeUTF(entry.getKey());
+                os.writeDouble(health.connectMs);
+                os.writeDouble(health.handshakeMs);
+                os.writeDouble(health.errorRate);
+                os.writeInt(health.consecutiveFailures);
+                os.writeInt(health.lies);
+                os.writeLong(health.sitOutUntil);
+            }
+        } catch (final IOException x) {
+            log.warn("problem saving server health to " + file, x);
+            return;
+        }
+        if (!tempFile.renameTo(file))
+            log.warn("cannot rename {} to {}", tempFile, file);
+    }
+
+    private synchronized void load(final File file) {
+        try (final DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+            if (is.readInt() != FILE_VERSION)
+                return;
+            final int size = is.readInt();
+            for (int i = 0; i < size; i++) {
+                final String key = is.readUTF();
+                final Health health = new Health();
+                health.connectMs = is.readDouble();
+                health.handshakeMs = is.readDouble();
+                health.errorRate = is.readDouble();
+                health.consecutiveFailures = is.readInt();
+                health.lies = is.readInt();
+                health.sitOutUntil = is.readLong();
+                this.health.put(key, health);
+            }
+        } catch (final IOException x) {
+            log.warn("problem loading server health from " + file + ", starting from scratch", x);
+            health.clear();
+        }
+    }
+
+    private static List<ElectrumServer> loadElectrumServers(final AssetManager assets) {
+        final Splitter splitter = Splitter.on(':').trimResults();
+        final List<ElectrumServer> servers = new ArrayList<>();
+        String line = null;
+        try (final InputStream is = Assets.open(assets, Constants.Files.ELECTRUM_SERVERS_ASSET);
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            while (true) {
+                line = reader.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+
+                final Iterator<String> i = splitter.split(line).iterator();
+                final String type = i.next();
+                final String host = i.next();
+                final String port = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
+                final String fingerprint = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
+                servers.add(new ElectrumServer(type, host, port, fingerprint));
+            }
+        } catch (final Exception x) {
+            throw new RuntimeException("Error while parsing: '" + line + "'", x);
+        }
+        return servers;
+    }
+}
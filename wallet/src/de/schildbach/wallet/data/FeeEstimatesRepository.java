@@ -0,0 +1,355 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import android.content.pm.PackageInfo;
+import android.content.res.AssetManager;
+import android.text.format.DateUtils;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.service.LocalFeeEstimator;
+import de.schildbach.wallet.ui.send.FeeCategory;
+import okhttp3.Call;
+import okhttp3.ConnectionSpec;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide holder of fee estimates. Keeps one parsed snapshot in memory, which is handed out immediately
+ * to any observer, and revalidates it against the dynamic fees URL in the background whenever it is older than
+ * {@link #TTL_MS}. Observers never wait on the network.
+ *
+ * <p>If the dynamic fees URL could not be reached for longer than {@link #TTL_MS}, the estimates of the
+ * {@link LocalFeeEstimator} are used instead, which are derived from wallet transactions and the feefilters of
+ * peers.</p>
+ *
+ * @author Andreas Schildbach
+ */
+public class FeeEstimatesRepository {
+    private static FeeEstimatesRepository INSTANCE;
+
+    private static final long TTL_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long RETRY_MS = DateUtils.MINUTE_IN_MILLIS;
+    private static final Logger log = LoggerFactory.getLogger(FeeEstimatesRepository.class);
+
+    private final HttpUrl dynamicFeesUrl;
+    private final String userAgent;
+    private final AssetManager assets;
+    private final File dynamicFeesFile;
+    private final File tempFile;
+    private final LocalFeeEstimator localFeeEstimator;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ContextPropagatingThreadFactory("fee estimates"));
+    private final CopyOnWriteArrayList<OnFeesChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final AtomicLong lastFetched = new AtomicLong(0);
+    private final AtomicLong lastAttempt = new AtomicLong(0);
+    @Nullable
+    private ScheduledFuture<?> scheduledRefresh;
+    @Nullable
+    private Map<FeeCategory, Coin> staticFees;
+    @Nullable
+    private volatile Map<FeeCategory, Coin> fees;
+    private volatile boolean usingLocalEstimates = false;
+
+    public synchronized static FeeEstimatesRepository get(final WalletApplication application) {
+        if (INSTANCE == null)
+            INSTANCE = new FeeEstimatesRepository(application);
+        return INSTANCE;
+    }
+
+    private FeeEstimatesRepository(final WalletApplication application) {
+        final PackageInfo packageInfo = application.packageInfo();
+        final int versionNameSplit = packageInfo.versionName.indexOf('-');
+        this.dynamicFeesUrl = HttpUrl.parse(Constants.DYNAMIC_FEES_URL
+                + (versionNameSplit >= 0 ? packageInfo.versionName.substring(versionNameSplit) : ""));
+        this.userAgent = WalletApplication.httpUserAgent(packageInfo.versionName);
+        this.assets = application.getAssets();
+        this.dynamicFeesFile = new File(application.getFilesDir(), Constants.Files.FEES_ASSET);
+        this.tempFile = new File(application.getCacheDir(), Constants.Files.FEES_ASSET + ".temp");
+        this.localFeeEstimator = new LocalFeeEstimator(new File(application.getFilesDir(),
+                Constants.Files.LOCAL_FEES_FILENAME));
+    }
+
+    public LocalFeeEstimator localFeeEstimator() {
+        return localFeeEstimator;
+    }
+
+    /**
+     * @return the current snapshot of fee estimates, or {@code null} if none has been loaded yet
+     */
+    @Nullable
+    public Map<FeeCategory, Coin> getFees() {
+        return fees;
+    }
+
+    /**
+     * @return true if the current snapshot is based on the estimates of the {@link LocalFeeEstimator}
+     */
+    public boolean isUsingLocalEstimates() {
+        return usingLocalEstimates;
+    }
+
+    public interface OnFeesChangedListener {
+        void onFeesChanged(Map<FeeCategory, Coin> fees);
+    }
+
+    public synchronized void addOnFeesChangedListener(final OnFeesChangedListener listener) {
+        listeners.add(listener);
+        if (scheduledRefresh == null)
+            scheduledRefresh = executor.scheduleWithFixedDelay(this::refresh, 0, TTL_MS, TimeUnit.MILLISECONDS);
+        else
+            maybeRefresh();
+    }
+
+    public synchronized void removeOnFeesChangedListener(final OnFeesChangedListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty() && scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+    }
+
+    /**
+     * Triggers a background revalidation if the current snapshot is missing or older than {@link #TTL_MS}.
+     * Returns immediately.
+     */
+    public void maybeRefresh() {
+        if (fees == null || isFetchDue(System.currentTimeMillis()))
+            executor.execute(this::refresh);
+    }
+
+    /**
+     * A fetch is due once the last successful fetch is older than {@link #TTL_MS}. After a failed attempt, it is
+     * retried no sooner than {@link #RETRY_MS}.
+     */
+    private boolean isFetchDue(final long now) {
+        return now - lastFetched.get() > TTL_MS && now - lastAttempt.get() > RETRY_MS;
+    }
+
+    @WorkerThread
+    private void refresh() {
+        if (!refreshing.compareAndSet(false, true))
+            return;
+        try {
+            // serve what we have on disk right away, then revalidate
+            if (fees == null)
+                publish(loadFees());
+            final long now = System.currentTimeMillis();
+            if (!isFetchDue(now))
+                return;
+            lastAttempt.set(now);
+            if (fetchDynamicFees(dynamicFeesUrl, tempFile, dynamicFeesFile, userAgent))
+                lastFetched.set(now);
+            else
+                scheduleRetry();
+            publish(loadFees());
+        } catch (final RuntimeException x) {
+            log.warn("problem refreshing fee estimates", x);
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private synchronized void scheduleRetry() {
+        if (scheduledRefresh != null)
+            executor.schedule(this::refresh, RETRY_MS + 1, TimeUnit.MILLISECONDS);
+    }
+
+    private void publish(final Map<FeeCategory, Coin> newFees) {
+        if (newFees.equals(fees))
+            return;
+        fees = newFees;
+        for (final OnFeesChangedListener listener : listeners)
+            listener.onFeesChanged(newFees);
+    }
+
+    @WorkerThread
+    private Map<FeeCategory, Coin> loadFees() {
+        try {
+            if (staticFees == null)
+                staticFees = parseFees(assets.open(Constants.Files.FEES_ASSET));
+            // before the first attempt of this process, the last fetched file is as good as it gets
+            final boolean remoteFresh = lastAttempt.get() <= lastFetched.get()
+                    || System.currentTimeMillis() - lastFetched.get() <= TTL_MS;
+            final Map<FeeCategory, Coin> localFees = remoteFresh ? null : localFeeEstimator.estimate();
+            usingLocalEstimates = localFees != null;
+            final Map<FeeCategory, Coin> dynamicFees;
+            if (localFees != null) {
+                dynamicFees = new EnumMap<>(FeeCategory.class);
+                dynamicFees.putAll(localFees);
+                log.info("Dynamic fees could not be fetched recently, using local estimates: {}", localFees);
+                // fill in gaps from the last fetched file, if any
+                if (dynamicFeesFile.exists())
+                    for (final Map.Entry<FeeCategory, Coin> entry : parseFees(
+                            new FileInputStream(dynamicFeesFile)).entrySet())
+                        if (!dynamicFees.containsKey(entry.getKey()))
+                            dynamicFees.put(entry.getKey(), entry.getValue());
+            } else if (dynamicFeesFile.exists()) {
+                dynamicFees = parseFees(new FileInputStream(dynamicFeesFile));
+            } else {
+                return Collections.unmodifiableMap(new EnumMap<>(staticFees));
+            }
+
+            // Check dynamic fees for sanity, based on the hardcoded fees.
+            // The bounds are as follows (h is the respective hardcoded fee):
+            // ECONOMIC: h/16 to h*16
+            // NORMAL: h/16 to h*16
+            // PRIORITY: h/16 to h*16
+            for (final FeeCategory category : FeeCategory.values()) {
+                final Coin staticFee = staticFees.get(category);
+                final Coin dynamicFee = dynamicFees.get(category);
+                if (dynamicFee == null) {
+                    dynamicFees.put(category, staticFee);
+                    log.warn("Dynamic fee category missing, using static: category {}, {}/kB", category,
+                            staticFee.toFriendlyString());
+                    continue;
+                }
+                final Coin upperBound = staticFee.shiftLeft(4);
+                if (dynamicFee.isGreaterThan(upperBound)) {
+                    dynamicFees.put(category, upperBound);
+                    log.warn("Down-adjusting dynamic fee: category {} from {}/kB to {}/kB", category,
+                            dynamicFee.toFriendlyString(), upperBound.toFriendlyString());
+                    continue;
+                }
+                final Coin lowerBound = staticFee.shiftRight(4);
+                if (dynamicFee.isLessThan(lowerBound)) {
+                    dynamicFees.put(category, lowerBound);
+                    log.warn("Up-adjusting dynamic fee: category {} from {}/kB to {}/kB", category,
+                            dynamicFee.toFriendlyString(), lowerBound.toFriendlyString());
+                }
+            }
+            return Collections.unmodifiableMap(dynamicFees);
+        } catch (final IOException x) {
+            // Should not happen
+            throw new RuntimeException(x);
+        }
+    }
+
+    private static Map<FeeCategory, Coin> parseFees(final InputStream is) throws IOException {
+        final Map<FeeCategory, Coin> dynamicFees = new EnumMap<>(FeeCategory.class);
+        String line = null;
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII))) {
+            while (true) {
+                line = reader.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+
+                final String[] fields = line.split("=");
+                try {
+                    final FeeCategory category = FeeCategory.valueOf(fields[0]);
+                    final Coin rate = Coin.valueOf(Long.parseLong(fields[1]));
+                    dynamicFees.put(category, rate);
+                } catch (IllegalArgumentException x) {
+                    log.warn("Cannot parse line, ignoring: '" + line + "'", x);
+                }
+            }
+        } catch (final Exception x) {
+            throw new RuntimeException("Error while parsing: '" + line + "'", x);
+        } finally {
+            is.close();
+        }
+        return dynamicFees;
+    }
+
+    private static boolean fetchDynamicFees(final HttpUrl url, final File tempFile, final File targetFile,
+            final String userAgent) {
+        final Stopwatch watch = Stopwatch.createStarted();
+
+        final Request.Builder request = new Request.Builder();
+        request.url(url);
+        final Headers.Builder headers = new Headers.Builder();
+        headers.add("User-Agent", userAgent);
+        if (targetFile.exists())
+            headers.add("If-Modified-Since", new Date(targetFile.lastModified()));
+        request.headers(headers.build());
+
+        final OkHttpClient.Builder httpClientBuilder = Constants.HTTP_CLIENT.newBuilder();
+        httpClientBuilder.connectionSpecs(Collections.singletonList(ConnectionSpec.RESTRICTED_TLS));
+        httpClientBuilder.connectTimeout(5, TimeUnit.SECONDS);
+        httpClientBuilder.writeTimeout(5, TimeUnit.SECONDS);
+        httpClientBuilder.readTimeout(5, TimeUnit.SECONDS);
+        final OkHttpClient httpClient = httpClientBuilder.build();
+        final Call call = httpClient.newCall(request.build());
+        try {
+            final Response response = call.execute();
+            final int status = response.code();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                log.info("Dynamic fees not modified at {}, took {}", url, watch);
+                return true;
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                final ResponseBody body = response.body();
+                final FileOutputStream os = new FileOutputStream(tempFile);
+                ByteStreams.copy(body.byteStream(), os);
+                os.close();
+                final Date lastModified = response.headers().getDate("Last-Modified");
+                if (lastModified != null)
+                    tempFile.setLastModified(lastModified.getTime());
+                body.close();
+                if (!tempFile.renameTo(targetFile))
+                    throw new IllegalStateException("Cannot rename " + tempFile + " to " + targetFile);
+                watch.stop();
+                log.info("Dynamic fees fetched from {}, took {}", url, watch);
+                return true;
+            } else {
+                log.warn("HTTP status {} {} when fetching dynamic fees from {}", response.code(), response.message(),
+                        url);
+            }
+        } catch (final Exception x) {
+            log.warn("Problem when fetching dynamic fees rates from " + url, x);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptPattern;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.DeterministicUpgradeRequiresPassword;
+import org.bitcoinj.wallet.KeyTimeCoinSelector;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.KeyChainEventListener;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of whether wallet maintenance (key rotation, or the deterministic upgrade that comes with it) is
+ * recommended. The status is cached and only re-evaluated after a change that can affect it: coins received or
+ * sent, a reorganize, keys added, or a change of the key rotation time or encryption. Plain wallet changes, which
+ * happen all the time during sync, only cost a comparison.
+ *
+ * @author Andreas Schildbach
+ */
+public class WalletMaintenanceIndex implements WalletChangeEventListener, WalletCoinsReceivedEventListener,
+        WalletCoinsSentEventListener, WalletReorganizeEventListener, KeyChainEventListener {
+    private static WalletMaintenanceIndex INSTANCE;
+
+    private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+    @Nullable
+    private Wallet wallet;
+    @Nullable
+    private volatile Boolean maintenanceRecommended;
+    private final AtomicInteger generation = new AtomicInteger();
+    // what the cached status was evaluated from
+    @Nullable
+    private volatile Date evaluatedKeyRotationTime;
+    private volatile boolean evaluatedEncrypted;
+    private volatile boolean awaitingConfirmation;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletMaintenanceIndex.class);
+
+    public synchronized static WalletMaintenanceIndex get() {
+        if (INSTANCE == null)
+            INSTANCE = new WalletMaintenanceIndex();
+        return INSTANCE;
+    }
+
+    /**
+     * Starts tracking the given wallet. Any previously tracked wallet is released.
+     */
+    public synchronized void attach(final Wallet wallet) {
+        if (wallet == this.wallet)
+            return;
+        if (this.wallet != null) {
+            this.wallet.removeKeyChainEventListener(this);
+            this.wallet.removeReorganizeEventListener(this);
+            this.wallet.removeCoinsSentEventListener(this);
+            this.wallet.removeCoinsReceivedEventListener(this);
+            this.wallet.removeChangeEventListener(this);
+        }
+        this.wallet = wallet;
+        this.generation.incrementAndGet();
+        this.maintenanceRecommended = null;
+        wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+        wallet.addKeyChainEventListener(Threading.SAME_THREAD, this);
+    }
+
+    /**
+     * @return the cached status, or {@code null} if it needs to be (re-)evaluated using {@link #update()}
+     */
+    @Nullable
+    public Boolean isMaintenanceRecommended() {
+        return maintenanceRecommended;
+    }
+
+    @WorkerThread
+    public boolean update() {
+        final Boolean cached = maintenanceRecommended;
+        if (cached != null)
+            return cached;
+        final Wallet wallet;
+        final int generation;
+        synchronized (this) {
+            wallet = this.wallet;
+            generation = this.generation.get();
+        }
+        if (wallet == null)
+            return false;
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        final boolean encrypted = wallet.isEncrypted();
+        final Status status = evaluate(wallet);
+        synchronized (this) {
+            // don't cache if the wallet changed in the meantime
+            if (generation == this.generation.get()) {
+                maintenanceRecommended = status.recommended;
+                evaluatedKeyRotationTime = keyRotationTime;
+                evaluatedEncrypted = encrypted;
+                awaitingConfirmation = status.awaitingConfirmation;
+            }
+        }
+        log.info("maintenance {}recommended, took {}", status.recommended ? "" : "not ", watch);
+        return status.recommended;
+    }
+
+    public void addOnChangedListener(final Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnChangedListener(final Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onWalletChanged(final Wallet wallet) {
+        // Cheap checks only, this is called for every block during sync. Confidence changes are relevant only if
+        // outputs on rotating keys are waiting for their confirmation.
+        if (awaitingConfirmation || !Objects.equals(wallet.getKeyRotationTime(), evaluatedKeyRotationTime)
+                || wallet.isEncrypted() != evaluatedEncrypted)
+            invalidate();
+    }
+
+    @Override
+    public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+            final Coin newBalance) {
+        invalidateIfRotating(wallet);
+    }
+
+    @Override
+    public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+            final Coin newBalance) {
+        invalidateIfRotating(wallet);
+    }
+
+    @Override
+    public void onReorganize(final Wallet wallet) {
+        invalidateIfRotating(wallet);
+    }
+
+    @Override
+    public void onKeysAdded(final List<ECKey> keys) {
+        invalidate();
+    }
+
+    private void invalidateIfRotating(final Wallet wallet) {
+        // without a key rotation time, no coins need to move
+        if (wallet.getKeyRotationTime() != null || evaluatedKeyRotationTime != null)
+            invalidate();
+    }
+
+    private void invalidate() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            if (maintenanceRecommended == null)
+                return;
+            maintenanceRecommended = null;
+        }
+        for (final Runnable listener : listeners)
+            listener.run();
+    }
+
+    static final class Status {
+        final boolean recommended;
+        final boolean awaitingConfirmation;
+
+        Status(final boolean recommended, final boolean awaitingConfirmation) {
+            this.recommended = recommended;
+            this.awaitingConfirmation = awaitingConfirmation;
+        }
+    }
+
+    /**
+     * Follows the decisions of {@link Wallet#doMaintenance}, without building any transactions:
+     *
+     * <ul>
+     * <li>If all active key chains are rotating, an unencrypted wallet is upgraded silently, while an encrypted
+     * wallet needs the password for that, so maintenance is recommended.</li>
+     * <li>Confirmed outputs on rotating keys would be moved, just like {@link KeyTimeCoinSelector} selects them, but
+     * only if their value minus the fee of the rekey transaction is more than dust.</li>
+     * </ul>
+     */
+    static Status evaluate(final Wallet wallet) {
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        if (keyRotationTime == null)
+            return new Status(false, false);
+        final long keyRotationTimeSecs = keyRotationTime.getTime() / 1000;
+
+        boolean allChainsRotating = true;
+        for (final DeterministicKeyChain chain : wallet.getActiveKeyChains()) {
+            if (chain.getEarliestKeyCreationTime() >= keyRotationTimeSecs) {
+                allChainsRotating = false;
+                break;
+            }
+        }
+        if (allChainsRotating) {
+            if (wallet.isEncrypted())
+                return new Status(true, false);
+            try {
+                // silent upgrade, as doMaintenance() would do it anyway
+                wallet.doMaintenance(null, false);
+            } catch (final DeterministicUpgradeRequiresPassword x) {
+                return new Status(true, false);
+            }
+        }
+
+        boolean awaitingConfirmation = false;
+        Coin value = Coin.ZERO;
+        int vsize = REKEY_TX_OVERHEAD_VBYTES;
+        int numInputs = 0;
+        for (final TransactionOutput output : wallet.calculateAllSpendCandidates(true, false)) {
+            final Script script = output.getScriptPubKey();
+            final ECKey key = findKey(wallet, script);
+            if (key == null || key.getCreationTimeSeconds() >= keyRotationTimeSecs)
+                continue;
+            if (output.getParentTransaction().getConfidence().getConfidenceType() != ConfidenceType.BUILDING) {
+                awaitingConfirmation = true;
+                continue;
+            }
+            value = value.add(output.getValue());
+            vsize += inputVsize(script);
+            if (++numInputs >= KeyTimeCoinSelector.MAX_SIMULTANEOUS_INPUTS)
+                break;
+        }
+        return new Status(numInputs > 0 && isWorthRekeying(value, vsize), awaitingConfirmation);
+    }
+
+    // version, locktime, input and output counts, plus one output
+    private static final int REKEY_TX_OVERHEAD_VBYTES = 10 + 31;
+
+    private static int inputVsize(final Script script) {
+        if (ScriptPattern.isP2WPKH(script))
+            return 68;
+        else if (ScriptPattern.isP2PK(script))
+            return 114;
+        else
+            return 148;
+    }
+
+    /**
+     * Mirrors how the rekey transaction is adjusted for its fee: the fee is taken from its only output, which must
+     * not become dust.
+     */
+    static boolean isWorthRekeying(final Coin value, final int vsize) {
+        Coin fee = Transaction.DEFAULT_TX_FEE.multiply(vsize).divide(1000);
+        if (fee.isLessThan(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE))
+            fee = Transaction.REFERENCE_DEFAULT_MIN_TX_FEE;
+        return !value.subtract(fee).isLessThan(Transaction.MIN_NONDUST_OUTPUT);
+    }
+
+    @Nullable
+    private static ECKey findKey(final Wallet wallet, final Script script) {
+        if (ScriptPattern.isP2PKH(script))
+            return wallet.findKeyFromPubKeyHash(ScriptPattern.extractHashFromP2PKH(script), Script.ScriptType.P2PKH);
+        else if (ScriptPattern.isP2WPKH(script))
+            return wallet.findKeyFromPubKeyHash(ScriptPattern.extractHashFromP2WH(script), Script.ScriptType.P2WPKH);
+        else if (ScriptPattern.isP2PK(script))
+            return wallet.findKeyFromPubKey(ScriptPattern.extractKeyFromP2PK(script));
+        else
+            return null;
+    }
+}
@@ -17,9 +17,7 @@
 
 package de.schildbach.wallet.exchangerate;
 
-import com.squareup.moshi.Json;
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
+import com.squareup.moshi.JsonReader;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okio.BufferedSource;
@@ -29,72 +27,96 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.function.Consumer;
 
 /**
+ * Parses the CoinGecko exchange rates by streaming through the JSON. Entries other than fiat rates are skipped
+ * without being materialized.
+ *
  * @author Andreas Schildbach
  */
-public final class CoinGecko {
+public final class CoinGecko implements ExchangeRateProvider {
     private static final HttpUrl URL = HttpUrl.parse("https://api.coingecko.com/api/v3/exchange_rates");
     private static final MediaType MEDIA_TYPE = MediaType.get("application/json");
     private static final String SOURCE = "CoinGecko.com";
 
-    private static final Logger log = LoggerFactory.getLogger(CoinGecko.class);
-
-    private final Moshi moshi;
+    private static final JsonReader.Options RESPONSE_NAMES = JsonReader.Options.of("rates");
+    private static final JsonReader.Options RATE_NAMES = JsonReader.Options.of("value", "type");
+    private static final JsonReader.Options TYPE_FIAT = JsonReader.Options.of("fiat");
 
-    public CoinGecko(final Moshi moshi) {
-        this.moshi = moshi;
-    }
+    private static final Logger log = LoggerFactory.getLogger(CoinGecko.class);
 
+    @Override
     public MediaType mediaType() {
         return MEDIA_TYPE;
     }
 
+    @Override
     public HttpUrl url() {
         return URL;
     }
 
-    public List<ExchangeRateEntry> parse(final BufferedSource jsonSource) throws IOException {
-        final JsonAdapter<Response> jsonAdapter = moshi.adapter(Response.class);
-        final Response jsonResponse = jsonAdapter.fromJson(jsonSource);
-        final List<ExchangeRateEntry> result = new ArrayList<>(jsonResponse.rates.size());
-        for (Map.Entry<String, ExchangeRateJson> entry : jsonResponse.rates.entrySet()) {
-            final String symbol = entry.getKey().toUpperCase(Locale.US);
-            final ExchangeRateJson exchangeRate = entry.getValue();
-            if (exchangeRate.type == Type.FIAT) {
-                try {
-                    final Fiat rate = Fiat.parseFiatInexact(symbol, exchangeRate.value);
-                    if (rate.signum() > 0)
-                        result.add(new ExchangeRateEntry(SOURCE, new ExchangeRate(rate)));
-                } catch (final ArithmeticException x) {
-                    log.warn("problem parsing {} exchange rate from {}: {}", symbol, URL, x.getMessage());
-                }
-            }
-        }
-        return result;
+    @Override
+    public String source() {
+        return SOURCE;
     }
 
-    private enum Type {
-        @Json(name = "crypto")
-        CRYPTO,
-        @Json(name = "fiat")
-        FIAT,
-        @Json(name = "commodity")
-        COMMODITY
+    @Override
+    public void parse(final BufferedSource jsonSource, final Consumer<ExchangeRateEntry> consumer)
+            throws IOException {
+        final JsonReader reader = JsonReader.of(jsonSource);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.selectName(RESPONSE_NAMES) == 0) {
+                reader.beginObject();
+                while (reader.hasNext())
+                    parseRate(reader, reader.nextName(), consumer);
+                reader.endObject();
+            } else {
+                reader.skipName();
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
     }
 
-    private static class Response {
-        public Map<String, ExchangeRateJson> rates;
-    }
+    private void parseRate(final JsonReader reader, final String name, final Consumer<ExchangeRateEntry> consumer)
+            throws IOException {
+        String value = null;
+        boolean fiat = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final int index = reader.selectName(RATE_NAMES);
+            if (index == 0) {
+                value = reader.nextString();
+            } else if (index == 1 && reader.selectString(TYPE_FIAT) == 0) {
+                fiat = true;
+            } else if (index == 1) {
+                // not fiat, so skip the rest of the entry
+                reader.skipValue();
+                while (reader.hasNext()) {
+                    reader.skipName();
+                    reader.skipValue();
+                }
+                reader.endObject();
+                return;
+            } else {
+                reader.skipName();
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-    private static class ExchangeRateJson {
-        public String name;
-        public String unit;
-        public String value;
-        public Type type;
+        if (fiat && value != null) {
+            final String symbol = name.toUpperCase(Locale.US);
+            try {
+                final Fiat rate = Fiat.parseFiatInexact(symbol, value);
+                if (rate.signum() > 0)
+                    consumer.accept(new ExchangeRateEntry(SOURCE, new ExchangeRate(rate)));
+            } catch (final ArithmeticException x) {
+                log.warn("problem parsing {} exchange rate from {}: {}", symbol, URL, x.getMessage());
+            }
+        }
     }
 }
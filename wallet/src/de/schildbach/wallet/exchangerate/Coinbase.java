@@ -0,0 +1,111 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import com.squareup.moshi.JsonReader;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okio.BufferedSource;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Parses the Coinbase exchange rates by streaming through the JSON. Coinbase mixes fiat, crypto and commodity
+ * rates, so only currencies known to {@link Currency} that have minor units are kept.
+ *
+ * @author Andreas Schildbach
+ */
+public final class Coinbase implements ExchangeRateProvider {
+    private static final HttpUrl URL = HttpUrl.parse("https://api.coinbase.com/v2/exchange-rates?currency=BTC");
+    private static final MediaType MEDIA_TYPE = MediaType.get("application/json");
+    private static final String SOURCE = "Coinbase.com";
+
+    private static final JsonReader.Options RESPONSE_NAMES = JsonReader.Options.of("data");
+    private static final JsonReader.Options DATA_NAMES = JsonReader.Options.of("rates");
+
+    private static final Logger log = LoggerFactory.getLogger(Coinbase.class);
+
+    @Override
+    public MediaType mediaType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public HttpUrl url() {
+        return URL;
+    }
+
+    @Override
+    public String source() {
+        return SOURCE;
+    }
+
+    @Override
+    public void parse(final BufferedSource jsonSource, final Consumer<ExchangeRateEntry> consumer)
+            throws IOException {
+        final JsonReader reader = JsonReader.of(jsonSource);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.selectName(RESPONSE_NAMES) == 0) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.selectName(DATA_NAMES) == 0) {
+                        reader.beginObject();
+                        while (reader.hasNext())
+                            parseRate(reader.nextName(), reader.nextString(), consumer);
+                        reader.endObject();
+                    } else {
+                        reader.skipName();
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipName();
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void parseRate(final String name, final String value, final Consumer<ExchangeRateEntry> consumer) {
+        final String symbol = name.toUpperCase(Locale.US);
+        try {
+            // commodities like gold don't have minor units
+            if (Currency.getInstance(symbol).getDefaultFractionDigits() < 0)
+                return;
+        } catch (final IllegalArgumentException x) {
+            // not fiat
+            return;
+        }
+        try {
+            final Fiat rate = Fiat.parseFiatInexact(symbol, value);
+            if (rate.signum() > 0)
+                consumer.accept(new ExchangeRateEntry(SOURCE, new ExchangeRate(rate)));
+        } catch (final IllegalArgumentException | ArithmeticException x) {
+            log.warn("problem parsing {} exchange rate from {}: {}", symbol, URL, x.getMessage());
+        }
+    }
+}
@@ -22,8 +22,15 @@ import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Andreas Schildbach
@@ -33,12 +40,42 @@ public interface ExchangeRateDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertOrUpdate(ExchangeRateEntry exchangeRateEntry);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrUpdate(List<ExchangeRateEntry> exchangeRateEntries);
+
+    /**
+     * Inserts or updates all given entries in one transaction, so observers are invalidated at most once. Entries
+     * whose rate didn't change are skipped, so observers aren't invalidated at all if nothing changed. There is
+     * at most one entry per currency, regardless of its source.
+     */
+    @Transaction
+    default void insertOrUpdateAll(final List<ExchangeRateEntry> exchangeRateEntries) {
+        final Set<String> currencyCodes = new HashSet<>();
+        for (final ExchangeRateEntry entry : exchangeRateEntries)
+            currencyCodes.add(entry.getCurrencyCode());
+        final Map<String, ExchangeRateEntry> existing = new HashMap<>();
+        for (final ExchangeRateEntry entry : findByCurrencyCodes(currencyCodes))
+            existing.put(entry.getCurrencyCode(), entry);
+
+        final List<ExchangeRateEntry> changedEntries = new ArrayList<>(exchangeRateEntries.size());
+        for (final ExchangeRateEntry entry : exchangeRateEntries) {
+            final ExchangeRateEntry existingEntry = existing.get(entry.getCurrencyCode());
+            if (existingEntry == null)
+                changedEntries.add(entry);
+            else if (!existingEntry.hasSameRate(entry))
+                // reuse the id, so the existing entry is replaced even if the source changed
+                changedEntries.add(new ExchangeRateEntry(existingEntry.getId(), entry.getSource(),
+                        entry.getCurrencyCode(), entry.getRateTimeStamp(), entry.getRateCoin(), entry.getRateFiat()));
+        }
+        if (!changedEntries.isEmpty())
+            insertOrUpdate(changedEntries);
+    }
+
     @Query("SELECT * FROM exchange_rates ORDER BY currency_code COLLATE LOCALIZED ASC")
     LiveData<List<ExchangeRateEntry>> findAll();
 
-    @Query("SELECT * FROM exchange_rates WHERE currency_code LIKE '%' || :constraint || '%' ORDER BY currency_code " +
-            "COLLATE LOCALIZED ASC")
-    LiveData<List<ExchangeRateEntry>> findByConstraint(String constraint);
+    @Query("SELECT * FROM exchange_rates WHERE currency_code IN (:currencyCodes)")
+    List<ExchangeRateEntry> findByCurrencyCodes(Collection<String> currencyCodes);
 
     @Query("SELECT * FROM exchange_rates WHERE currency_code = :currencyCode")
     ExchangeRateEntry findByCurrencyCode(String currencyCode);
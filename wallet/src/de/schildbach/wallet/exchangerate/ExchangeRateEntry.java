@@ -121,6 +121,13 @@ public final class ExchangeRateEntry {
         return new ExchangeRate(coin(), fiat());
     }
 
+    /**
+     * @return true if both entries are for the same currency, with the same rate
+     */
+    public boolean hasSameRate(final ExchangeRateEntry other) {
+        return currencyCode.equals(other.currencyCode) && rateCoin == other.rateCoin && rateFiat == other.rateFiat;
+    }
+
     @Override
     public String toString() {
         final StringBuilder builder = new StringBuilder();
@@ -0,0 +1,150 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import android.text.format.DateUtils;
+import androidx.annotation.Nullable;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory snapshot of the exchange rate history of one currency, for looking up the rate at a given time
+ * without any I/O.
+ *
+ * <p>
+ * The history is kept in buckets: one per minute for the last day, one per hour for the last month, and one per
+ * day beyond that. Each bucket holds the last rate seen within it.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRateHistory {
+    public static final long MINUTE_MS = DateUtils.MINUTE_IN_MILLIS;
+    public static final long HOUR_MS = DateUtils.HOUR_IN_MILLIS;
+    public static final long DAY_MS = DateUtils.DAY_IN_MILLIS;
+    /** How long minute buckets are kept before they're merged into hour buckets. */
+    public static final long MINUTE_TIER_MS = DAY_MS;
+    /** How long hour buckets are kept before they're merged into day buckets. */
+    public static final long HOUR_TIER_MS = 30 * DAY_MS;
+    /** Rates are considered valid for at least this long, as they are only refreshed now and then. */
+    private static final long MIN_TOLERANCE_MS = HOUR_MS;
+
+    private final String currencyCode;
+    private final long[] times;
+    private final long[] resolutions;
+    private final long[] rateCoins;
+    private final long[] rateFiats;
+
+    /**
+     * @param entries
+     *            history of the given currency, ordered by time
+     */
+    public ExchangeRateHistory(final String currencyCode, final List<ExchangeRateHistoryEntry> entries) {
+        this.currencyCode = currencyCode;
+        final int size = entries.size();
+        this.times = new long[size];
+        this.resolutions = new long[size];
+        this.rateCoins = new long[size];
+        this.rateFiats = new long[size];
+        for (int i = 0; i < size; i++) {
+            final ExchangeRateHistoryEntry entry = entries.get(i);
+            times[i] = entry.getTime();
+            resolutions[i] = entry.getResolution();
+            rateCoins[i] = entry.getRateCoin();
+            rateFiats[i] = entry.getRateFiat();
+        }
+    }
+
+    public String currencyCode() {
+        return currencyCode;
+    }
+
+    public boolean isEmpty() {
+        return times.length == 0;
+    }
+
+    /**
+     * Looks up the rate of the bucket nearest to the given time, using binary search.
+     *
+     * @return the rate, or {@code null} if there is no bucket close enough
+     */
+    @Nullable
+    public ExchangeRate nearest(final long time) {
+        if (times.length == 0)
+            return null;
+        final int search = Arrays.binarySearch(times, time);
+        final int index;
+        if (search >= 0) {
+            index = search;
+        } else {
+            final int after = -search - 1;
+            final int before = after - 1;
+            if (before < 0)
+                index = after;
+            else if (after >= times.length)
+                index = before;
+            else
+                index = distance(before, time) <= distance(after, time) ? before : after;
+        }
+        if (distance(index, time) > Math.max(resolutions[index], MIN_TOLERANCE_MS))
+            return null;
+        return new ExchangeRate(Coin.valueOf(rateCoins[index]), Fiat.valueOf(currencyCode, rateFiats[index]));
+    }
+
+    /** Distance of the given time to the span covered by the bucket at the given index. */
+    private long distance(final int index, final long time) {
+        final long start = times[index];
+        final long end = start + resolutions[index];
+        if (time < start)
+            return start - time;
+        else if (time >= end)
+            return time - end + 1;
+        else
+            return 0;
+    }
+
+    /**
+     * Merges entries into buckets of the given resolution, keeping the last rate of each bucket.
+     */
+    static List<ExchangeRateHistoryEntry> downsample(final List<ExchangeRateHistoryEntry> entries,
+            final long resolution) {
+        final Map<String, ExchangeRateHistoryEntry> lastPerBucket = new LinkedHashMap<>();
+        for (final ExchangeRateHistoryEntry entry : entries) {
+            final long bucket = floor(entry.getTime(), resolution);
+            final String key = entry.getCurrencyCode() + '@' + bucket;
+            final ExchangeRateHistoryEntry last = lastPerBucket.get(key);
+            if (last == null || entry.getTime() > last.getTime())
+                lastPerBucket.put(key, entry);
+        }
+        final List<ExchangeRateHistoryEntry> downsampled = new ArrayList<>(lastPerBucket.size());
+        for (final ExchangeRateHistoryEntry entry : lastPerBucket.values())
+            downsampled.add(new ExchangeRateHistoryEntry(entry.getCurrencyCode(),
+                    floor(entry.getTime(), resolution), resolution, entry.getRateCoin(), entry.getRateFiat()));
+        return downsampled;
+    }
+
+    static long floor(final long time, final long resolution) {
+        return Math.floorDiv(time, resolution) * resolution;
+    }
+}
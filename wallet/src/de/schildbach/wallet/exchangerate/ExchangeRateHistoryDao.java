@@ -0,0 +1,75 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Andreas Schildbach
+ */
+@Dao
+public interface ExchangeRateHistoryDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplace(List<ExchangeRateHistoryEntry> entries);
+
+    @Query("SELECT * FROM exchange_rate_history WHERE currency_code = :currencyCode ORDER BY time ASC")
+    List<ExchangeRateHistoryEntry> findByCurrencyCode(String currencyCode);
+
+    @Query("SELECT * FROM exchange_rate_history WHERE resolution = :resolution AND time < :before")
+    List<ExchangeRateHistoryEntry> findByResolutionBefore(long resolution, long before);
+
+    @Query("DELETE FROM exchange_rate_history WHERE resolution = :resolution AND time < :before")
+    void deleteByResolutionBefore(long resolution, long before);
+
+    /**
+     * Records the given rates into the finest buckets, then downsamples buckets that have aged.
+     */
+    @Transaction
+    default void record(final List<ExchangeRateEntry> exchangeRates, final long now) {
+        final long time = ExchangeRateHistory.floor(now, ExchangeRateHistory.MINUTE_MS);
+        final List<ExchangeRateHistoryEntry> entries = new ArrayList<>(exchangeRates.size());
+        for (final ExchangeRateEntry exchangeRate : exchangeRates)
+            entries.add(new ExchangeRateHistoryEntry(exchangeRate.getCurrencyCode(), time,
+                    ExchangeRateHistory.MINUTE_MS, exchangeRate.getRateCoin(), exchangeRate.getRateFiat()));
+        insertOrReplace(entries);
+
+        downsample(ExchangeRateHistory.MINUTE_MS, ExchangeRateHistory.HOUR_MS,
+                ExchangeRateHistory.floor(now - ExchangeRateHistory.MINUTE_TIER_MS, ExchangeRateHistory.HOUR_MS));
+        downsample(ExchangeRateHistory.HOUR_MS, ExchangeRateHistory.DAY_MS,
+                ExchangeRateHistory.floor(now - ExchangeRateHistory.HOUR_TIER_MS, ExchangeRateHistory.DAY_MS));
+    }
+
+    /**
+     * Merges buckets of one resolution that start before the given cutoff into coarser buckets. The cutoff must be
+     * aligned to the coarser resolution, so coarser buckets are always merged in one go.
+     */
+    default void downsample(final long fromResolution, final long toResolution, final long cutoff) {
+        final List<ExchangeRateHistoryEntry> entries = findByResolutionBefore(fromResolution, cutoff);
+        if (entries.isEmpty())
+            return;
+        deleteByResolutionBefore(fromResolution, cutoff);
+        insertOrReplace(ExchangeRateHistory.downsample(entries, toResolution));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+
+/**
+ * One bucket of the exchange rate history, holding the last rate seen within that bucket.
+ *
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = ExchangeRateHistoryEntry.TABLE_NAME, primaryKeys = { "currency_code", "time" },
+        indices = { @Index(value = { "resolution", "time" }) })
+public final class ExchangeRateHistoryEntry {
+    public static final String TABLE_NAME = "exchange_rate_history";
+
+    @NonNull
+    @ColumnInfo(name = "currency_code")
+    private String currencyCode;
+
+    /** start of the bucket */
+    @ColumnInfo(name = "time")
+    private long time;
+
+    /** size of the bucket */
+    @ColumnInfo(name = "resolution")
+    private long resolution;
+
+    @ColumnInfo(name = "rate_coin")
+    private long rateCoin;
+
+    @ColumnInfo(name = "rate_fiat")
+    private long rateFiat;
+
+    public ExchangeRateHistoryEntry(@NonNull final String currencyCode, final long time, final long resolution,
+            final long rateCoin, final long rateFiat) {
+        this.currencyCode = currencyCode;
+        this.time = time;
+        this.resolution = resolution;
+        this.rateCoin = rateCoin;
+        this.rateFiat = rateFiat;
+    }
+
+    @NonNull
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public long getRateCoin() {
+        return rateCoin;
+    }
+
+    public long getRateFiat() {
+        return rateFiat;
+    }
+
+    @NonNull
+    public ExchangeRate exchangeRate() {
+        return new ExchangeRate(Coin.valueOf(rateCoin), Fiat.valueOf(currencyCode, rateFiat));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '[' + currencyCode + '@' + time + '/' + resolution + ']';
+    }
+}
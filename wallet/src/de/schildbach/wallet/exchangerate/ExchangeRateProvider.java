@@ -0,0 +1,54 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A source of fiat exchange rates, fetched via HTTP.
+ *
+ * @author Andreas Schildbach
+ */
+public interface ExchangeRateProvider {
+    MediaType mediaType();
+
+    HttpUrl url();
+
+    /**
+     * @return name of the provider, for attribution
+     */
+    String source();
+
+    /**
+     * Emits fiat exchange rates to the given consumer, as they are read.
+     */
+    void parse(BufferedSource jsonSource, Consumer<ExchangeRateEntry> consumer) throws IOException;
+
+    default List<ExchangeRateEntry> parse(final BufferedSource jsonSource) throws IOException {
+        final List<ExchangeRateEntry> result = new ArrayList<>();
+        parse(jsonSource, result::add);
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Andreas Schildbach
+ */
+@Dao
+public interface ExchangeRateProviderDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertOrReplace(List<ExchangeRateProviderEntry> entries);
+
+    @Query("SELECT * FROM exchange_rates_by_provider WHERE source = :source")
+    List<ExchangeRateProviderEntry> findBySource(String source);
+
+    @Query("DELETE FROM exchange_rates_by_provider WHERE source = :source")
+    void deleteBySource(String source);
+
+    /**
+     * Replaces all rates of the given provider in one transaction.
+     */
+    @Transaction
+    default void replace(final String source, final List<ExchangeRateEntry> exchangeRates) {
+        final List<ExchangeRateProviderEntry> entries = new ArrayList<>(exchangeRates.size());
+        for (final ExchangeRateEntry exchangeRate : exchangeRates)
+            entries.add(new ExchangeRateProviderEntry(exchangeRate));
+        deleteBySource(source);
+        insertOrReplace(entries);
+    }
+
+    /**
+     * @return the rates last received from the given provider, which is empty if there are none
+     */
+    default List<ExchangeRateEntry> findRatesBySource(final String source) {
+        final List<ExchangeRateProviderEntry> entries = findBySource(source);
+        final List<ExchangeRateEntry> exchangeRates = new ArrayList<>(entries.size());
+        for (final ExchangeRateProviderEntry entry : entries)
+            exchangeRates.add(entry.exchangeRateEntry());
+        return exchangeRates;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+
+/**
+ * The rate of one currency as last received from one provider. Unlike {@link ExchangeRateEntry}, which holds the
+ * combined rate, there is one entry per provider, so a provider answering {@code 304 Not Modified} can contribute
+ * its rates again.
+ *
+ * @author Andreas Schildbach
+ */
+@Entity(tableName = ExchangeRateProviderEntry.TABLE_NAME, primaryKeys = { "source", "currency_code" })
+public final class ExchangeRateProviderEntry {
+    public static final String TABLE_NAME = "exchange_rates_by_provider";
+
+    @NonNull
+    @ColumnInfo(name = "source")
+    private String source;
+
+    @NonNull
+    @ColumnInfo(name = "currency_code")
+    private String currencyCode;
+
+    @ColumnInfo(name = "rate_coin")
+    private long rateCoin;
+
+    @ColumnInfo(name = "rate_fiat")
+    private long rateFiat;
+
+    public ExchangeRateProviderEntry(@NonNull final String source, @NonNull final String currencyCode,
+            final long rateCoin, final long rateFiat) {
+        this.source = source;
+        this.currencyCode = currencyCode;
+        this.rateCoin = rateCoin;
+        this.rateFiat = rateFiat;
+    }
+
+    public ExchangeRateProviderEntry(@NonNull final ExchangeRateEntry exchangeRateEntry) {
+        this(exchangeRateEntry.getSource(), exchangeRateEntry.getCurrencyCode(), exchangeRateEntry.getRateCoin(),
+                exchangeRateEntry.getRateFiat());
+    }
+
+    @NonNull
+    public String getSource() {
+        return source;
+    }
+
+    @NonNull
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public long getRateCoin() {
+        return rateCoin;
+    }
+
+    public long getRateFiat() {
+        return rateFiat;
+    }
+
+    @NonNull
+    public ExchangeRateEntry exchangeRateEntry() {
+        return new ExchangeRateEntry(source, new ExchangeRate(Coin.valueOf(rateCoin),
+                Fiat.valueOf(currencyCode, rateFiat)));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '[' + source + ':' + currencyCode + ']';
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import androidx.annotation.Nullable;
+import okhttp3.Headers;
+
+import java.util.Locale;
+
+/**
+ * Per-provider state: the validators of the last response, so refreshes can be conditional requests, and statistics
+ * on latency and errors. The provider's rates themselves are stored in the database, see
+ * {@link ExchangeRateProviderDao}, and the validators in the preferences, see
+ * {@link de.schildbach.wallet.Configuration#setExchangeRateProviderState(ExchangeRateProviderState)}. Statistics are
+ * only kept in memory.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRateProviderState {
+    /** Weight of the latest request in the average latency. */
+    private static final double LATENCY_WEIGHT = 0.25;
+
+    public final ExchangeRateProvider provider;
+
+    @Nullable
+    private String eTag;
+    @Nullable
+    private String lastModified;
+    private int numRequests = 0;
+    private int numFailures = 0;
+    private double averageLatencyMs = 0;
+
+    public ExchangeRateProviderState(final ExchangeRateProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Restores persisted validators.
+     */
+    public ExchangeRateProviderState(final ExchangeRateProvider provider, @Nullable final String eTag,
+            @Nullable final String lastModified) {
+        this.provider = provider;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Adds {@code If-None-Match} and {@code If-Modified-Since} headers, if validators are known.
+     */
+    public synchronized void addConditionalHeaders(final Headers.Builder headers) {
+        if (eTag != null)
+            headers.add("If-None-Match", eTag);
+        if (lastModified != null)
+            headers.add("If-Modified-Since", lastModified);
+    }
+
+    /**
+     * Call after new rates have been received and stored.
+     */
+    public synchronized void onModified(final long latencyMs, @Nullable final String eTag,
+            @Nullable final String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        recordLatency(latencyMs);
+    }
+
+    /**
+     * Call after the provider confirmed its rates are still current.
+     */
+    public synchronized void onNotModified(final long latencyMs) {
+        recordLatency(latencyMs);
+    }
+
+    /**
+     * Forgets the validators, e.g. because the rates they refer to are lost. The next request is unconditional.
+     */
+    public synchronized void clearValidators() {
+        this.eTag = null;
+        this.lastModified = null;
+    }
+
+    public synchronized void onFailure(final long latencyMs) {
+        numFailures++;
+        recordLatency(latencyMs);
+    }
+
+    private void recordLatency(final long latencyMs) {
+        averageLatencyMs = numRequests == 0 ? latencyMs :
+                averageLatencyMs + LATENCY_WEIGHT * (latencyMs - averageLatencyMs);
+        numRequests++;
+    }
+
+    public synchronized long averageLatencyMs() {
+        return Math.round(averageLatencyMs);
+    }
+
+    public synchronized double errorRate() {
+        return numRequests == 0 ? 0 : (double) numFailures / numRequests;
+    }
+
+    @Nullable
+    public synchronized String eTag() {
+        return eTag;
+    }
+
+    @Nullable
+    public synchronized String lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s[%d requests, avg %d ms, %.0f%% errors]", provider.source(),
+                numRequests, averageLatencyMs(), errorRate() * 100);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the rates of several providers into one rate per currency. The combined rate is the median of all rates
+ * that are not too far off the median of all rates, so a single provider with a broken rate cannot skew it. The
+ * providers that contributed are kept as the source of the combined rate.
+ *
+ * <p>
+ * Outliers can only be told apart with at least {@link #MIN_RATES_FOR_REJECTION} rates, so with fewer rates nothing
+ * is rejected: a currency of only one provider is taken as is, and of two providers their average is taken if they
+ * roughly agree. If two rates disagree, there is no telling which one is broken, so the rate of the preferred
+ * provider is taken rather than skipping the currency.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesAggregator {
+    /** Rates deviating more than this fraction from the median are considered outliers. */
+    static final double MAX_DEVIATION = 0.05;
+    /** Number of rates needed for telling outliers apart. */
+    static final int MIN_RATES_FOR_REJECTION = 3;
+
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRatesAggregator.class);
+
+    private ExchangeRatesAggregator() {
+    }
+
+    /**
+     * @param responses
+     *            rates of each provider that responded, in order of preference
+     */
+    public static List<ExchangeRateEntry> aggregate(final List<List<ExchangeRateEntry>> responses) {
+        final Map<String, List<ExchangeRateEntry>> byCurrencyCode = new LinkedHashMap<>();
+        for (final List<ExchangeRateEntry> response : responses)
+            for (final ExchangeRateEntry entry : response)
+                byCurrencyCode.computeIfAbsent(entry.getCurrencyCode(), c -> new ArrayList<>()).add(entry);
+
+        final List<ExchangeRateEntry> result = new ArrayList<>(byCurrencyCode.size());
+        for (final Map.Entry<String, List<ExchangeRateEntry>> currency : byCurrencyCode.entrySet()) {
+            result.add(aggregate(currency.getKey(), currency.getValue()));
+        }
+        return result;
+    }
+
+    private static ExchangeRateEntry aggregate(final String currencyCode, final List<ExchangeRateEntry> entries) {
+        if (entries.size() == 1)
+            return entries.get(0);
+
+        final long[] values = new long[entries.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = fiatPerCoin(entries.get(i));
+        final long median = median(values);
+
+        if (entries.size() < MIN_RATES_FOR_REJECTION) {
+            if (Math.abs(values[0] - median) > median * MAX_DEVIATION) {
+                log.info("providers disagree on {} rate, taking {} from {}", currencyCode, values[0],
+                        entries.get(0).getSource());
+                return entries.get(0);
+            }
+            return new ExchangeRateEntry(sources(entries), new ExchangeRate(Fiat.valueOf(currencyCode, median)));
+        }
+
+        final List<Long> inliers = new ArrayList<>(values.length);
+        final StringBuilder sources = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (Math.abs(values[i] - median) <= median * MAX_DEVIATION) {
+                inliers.add(values[i]);
+                if (sources.length() > 0)
+                    sources.append(", ");
+                sources.append(entries.get(i).getSource());
+            } else {
+                log.info("rejecting {} rate {} from {}, median is {}", currencyCode, values[i],
+                        entries.get(i).getSource(), median);
+            }
+        }
+        final long[] inlierValues = new long[inliers.size()];
+        for (int i = 0; i < inlierValues.length; i++)
+            inlierValues[i] = inliers.get(i);
+        final Fiat rate = Fiat.valueOf(currencyCode, median(inlierValues));
+        return new ExchangeRateEntry(sources.toString(), new ExchangeRate(rate));
+    }
+
+    private static String sources(final List<ExchangeRateEntry> entries) {
+        final StringBuilder sources = new StringBuilder();
+        for (final ExchangeRateEntry entry : entries) {
+            if (sources.length() > 0)
+                sources.append(", ");
+            sources.append(entry.getSource());
+        }
+        return sources.toString();
+    }
+
+    private static long fiatPerCoin(final ExchangeRateEntry entry) {
+        return entry.exchangeRate().coinToFiat(Coin.COIN).value;
+    }
+
+    static long median(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        final int middle = sorted.length / 2;
+        if (sorted.length % 2 == 1)
+            return sorted[middle];
+        // average without overflowing
+        return sorted[middle - 1] + (sorted[middle] - sorted[middle - 1]) / 2;
+    }
+}
@@ -21,11 +21,14 @@ import android.content.Context;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 /**
  * @author Andreas Schildbach
  */
-@Database(entities = { ExchangeRateEntry.class }, version = 1, exportSchema = false)
+@Database(entities = { ExchangeRateEntry.class, ExchangeRateHistoryEntry.class, ExchangeRateProviderEntry.class },
+        version = 3, exportSchema = false)
 public abstract class ExchangeRatesDatabase extends RoomDatabase {
     private static final String DATABASE_NAME = "exchange_rates";
     private static ExchangeRatesDatabase INSTANCE;
@@ -36,7 +39,7 @@ public abstract class ExchangeRatesDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(), ExchangeRatesDatabase.class,
                             DATABASE_NAME)
-                            .build();
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3).build();
                 }
             }
         }
@@ -44,4 +47,28 @@ public abstract class ExchangeRatesDatabase extends RoomDatabase {
     }
 
     public abstract ExchangeRateDao exchangeRateDao();
+
+    public abstract ExchangeRateHistoryDao exchangeRateHistoryDao();
+
+    public abstract ExchangeRateProviderDao exchangeRateProviderDao();
+
+    private static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS exchange_rate_history (currency_code TEXT NOT NULL, "
+                    + "time INTEGER NOT NULL, resolution INTEGER NOT NULL, rate_coin INTEGER NOT NULL, "
+                    + "rate_fiat INTEGER NOT NULL, PRIMARY KEY(currency_code, time))");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_exchange_rate_history_resolution_time "
+                    + "ON exchange_rate_history (resolution, time)");
+        }
+    };
+
+    private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS exchange_rates_by_provider (source TEXT NOT NULL, "
+                    + "currency_code TEXT NOT NULL, rate_coin INTEGER NOT NULL, rate_fiat INTEGER NOT NULL, "
+                    + "PRIMARY KEY(source, currency_code))");
+        }
+    };
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import androidx.annotation.Nullable;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Immutable snapshot of the exchange rates, indexed for searching by currency code and currency name. Matches on
+ * the start of the code or of a word of the name come first, followed by matches anywhere. Both are looked up in
+ * precomputed indices, so filtering doesn't need to scan all rates.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesIndex {
+    /** Substrings up to this length are indexed; longer queries are verified against the candidates of one. */
+    static final int MAX_GRAM = 3;
+    private static final int[] EMPTY = new int[0];
+
+    private final List<ExchangeRateEntry> entries;
+    private final String[] keys;
+    private final Map<String, int[]> prefixIndex;
+    private final Map<String, int[]> substringIndex;
+
+    /**
+     * @param names
+     *            returns the localized name of a currency code, or {@code null} if not known
+     */
+    public ExchangeRatesIndex(final List<ExchangeRateEntry> entries, final Function<String, String> names) {
+        final List<ExchangeRateEntry> sorted = new ArrayList<>(entries);
+        final Collator collator = Collator.getInstance();
+        Collections.sort(sorted, (e1, e2) -> collator.compare(e1.getCurrencyCode(), e2.getCurrencyCode()));
+        this.entries = Collections.unmodifiableList(sorted);
+
+        final int size = sorted.size();
+        this.keys = new String[size];
+        final Map<String, Set<Integer>> prefixes = new HashMap<>();
+        final Map<String, Set<Integer>> substrings = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String currencyCode = sorted.get(i).getCurrencyCode();
+            final String name = names.apply(currencyCode);
+            final String key = normalize(name != null ? currencyCode + ' ' + name : currencyCode);
+            keys[i] = key;
+            for (final String word : key.split("[^\\p{L}\\p{N}]+")) {
+                for (int end = 1; end <= word.length(); end++)
+                    prefixes.computeIfAbsent(word.substring(0, end), p -> new LinkedHashSet<>()).add(i);
+            }
+            for (int start = 0; start < key.length(); start++) {
+                for (int end = start + 1; end <= Math.min(start + MAX_GRAM, key.length()); end++)
+                    substrings.computeIfAbsent(key.substring(start, end), s -> new LinkedHashSet<>()).add(i);
+            }
+        }
+        this.prefixIndex = toPostings(prefixes);
+        this.substringIndex = toPostings(substrings);
+    }
+
+    /**
+     * Looks up localized currency names using {@link Currency}.
+     */
+    @Nullable
+    public static String currencyName(final String currencyCode) {
+        try {
+            return Currency.getInstance(currencyCode).getDisplayName();
+        } catch (final IllegalArgumentException x) {
+            return null;
+        }
+    }
+
+    public List<ExchangeRateEntry> all() {
+        return entries;
+    }
+
+    /**
+     * @return entries matching the given constraint, or all entries if the constraint is {@code null}
+     */
+    public List<ExchangeRateEntry> filter(@Nullable final String constraint) {
+        if (constraint == null)
+            return entries;
+        final String query = normalize(constraint.trim());
+        if (query.isEmpty())
+            return entries;
+
+        final int[] prefixMatches = prefixIndex.getOrDefault(query, EMPTY);
+        final List<ExchangeRateEntry> result = new ArrayList<>();
+        for (final int i : prefixMatches)
+            result.add(entries.get(i));
+        for (final int i : substringCandidates(query))
+            if (Arrays.binarySearch(prefixMatches, i) < 0 && keys[i].contains(query))
+                result.add(entries.get(i));
+        return result;
+    }
+
+    private int[] substringCandidates(final String query) {
+        if (query.length() <= MAX_GRAM)
+            return substringIndex.getOrDefault(query, EMPTY);
+        // the rarest gram of the query yields the fewest candidates to verify
+        int[] candidates = null;
+        for (int start = 0; start + MAX_GRAM <= query.length(); start++) {
+            final int[] postings = substringIndex.getOrDefault(query.substring(start, start + MAX_GRAM), EMPTY);
+            if (candidates == null || postings.length < candidates.length)
+                candidates = postings;
+        }
+        return candidates;
+    }
+
+    static String normalize(final String str) {
+        // strip diacritics, so e.g. "zloty" finds "złoty"
+        final String decomposed = Normalizer.normalize(str, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return decomposed.replace('ł', 'l').replace('Ł', 'L').toLowerCase(Locale.ROOT);
+    }
+
+    private static Map<String, int[]> toPostings(final Map<String, Set<Integer>> index) {
+        final Map<String, int[]> postings = new HashMap<>(index.size());
+        for (final Map.Entry<String, Set<Integer>> entry : index.entrySet()) {
+            final int[] positions = new int[entry.getValue().size()];
+            int i = 0;
+            for (final int position : entry.getValue())
+                positions[i++] = position;
+            postings.put(entry.getKey(), positions);
+        }
+        return postings;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import android.text.format.DateUtils;
+
+/**
+ * Decides when exchange rates are due for a refresh. Rates are refreshed at most every {@link #UPDATE_FREQ_MS},
+ * or every {@link #METERED_UPDATE_FREQ_MS} on metered networks. After failures, refreshes back off exponentially.
+ * All state is meant to be persisted, so a cold start doesn't cause a refresh if rates are still fresh. Times in the
+ * future, e.g. after the clock has been corrected, don't count.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesRefreshScheduler {
+    static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    static final long METERED_UPDATE_FREQ_MS = DateUtils.HOUR_IN_MILLIS;
+    static final long MIN_BACKOFF_MS = DateUtils.MINUTE_IN_MILLIS;
+    static final long MAX_BACKOFF_MS = 6 * DateUtils.HOUR_IN_MILLIS;
+
+    private long lastFetched;
+    private long lastAttempt;
+    private int failures;
+    private boolean inFlight = false;
+
+    public ExchangeRatesRefreshScheduler(final long lastFetched, final long lastAttempt, final int failures) {
+        this.lastFetched = lastFetched;
+        this.lastAttempt = lastAttempt;
+        this.failures = failures;
+    }
+
+    /**
+     * Starts a refresh if one is due and none is in flight. Every started refresh must be finished by calling
+     * {@link #onSuccess(long)} or {@link #onFailure()}.
+     *
+     * @return true if the refresh was started
+     */
+    public synchronized boolean tryStart(final long now, final boolean metered) {
+        if (inFlight || now < nextRefreshAt(now, metered))
+            return false;
+        inFlight = true;
+        lastAttempt = now;
+        return true;
+    }
+
+    /**
+     * @return time of the next refresh; in the past if a refresh is due
+     */
+    public synchronized long nextRefreshAt(final long now, final boolean metered) {
+        // rates fetched "in the future" are stale, as is a backoff that started there
+        final long updateFreqMs = metered ? METERED_UPDATE_FREQ_MS : UPDATE_FREQ_MS;
+        final long nextRefresh = lastFetched <= now ? lastFetched + updateFreqMs : now;
+        if (failures == 0 || lastAttempt > now)
+            return nextRefresh;
+        return Math.max(nextRefresh, lastAttempt + backoffMs());
+    }
+
+    synchronized long backoffMs() {
+        if (failures == 0)
+            return 0;
+        final int shift = Math.min(failures - 1, 30);
+        return Math.min(MIN_BACKOFF_MS << shift, MAX_BACKOFF_MS);
+    }
+
+    /**
+     * Call after rates have been received, or confirmed to be still current.
+     */
+    public synchronized void onSuccess(final long now) {
+        lastFetched = now;
+        failures = 0;
+        inFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        inFlight = false;
+    }
+
+    public synchronized long lastFetched() {
+        return lastFetched;
+    }
+
+    public synchronized long lastAttempt() {
+        return lastAttempt;
+    }
+
+    public synchronized int failures() {
+        return failures;
+    }
+}
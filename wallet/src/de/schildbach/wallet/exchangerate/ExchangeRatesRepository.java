@@ -17,10 +17,11 @@
 
 package de.schildbach.wallet.exchangerate;
 
-import android.text.format.DateUtils;
+import android.app.ActivityManager;
+import android.net.ConnectivityManager;
+import androidx.annotation.WorkerThread;
 import androidx.room.InvalidationTracker;
 import com.google.common.base.Stopwatch;
-import com.squareup.moshi.Moshi;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
@@ -35,8 +36,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Andreas Schildbach
@@ -44,7 +48,6 @@ import java.util.concurrent.atomic.AtomicLong;
 public class ExchangeRatesRepository {
     private static ExchangeRatesRepository INSTANCE;
 
-    private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
     private static final Logger log = LoggerFactory.getLogger(ExchangeRatesRepository.class);
 
     private final WalletApplication application;
@@ -52,7 +55,16 @@ public class ExchangeRatesRepository {
     private final String userAgent;
     private final ExchangeRatesDatabase db;
     private final ExchangeRateDao dao;
-    private final AtomicLong lastUpdated = new AtomicLong(0);
+    private final ExchangeRateHistoryDao historyDao;
+    private final ExchangeRateProviderDao providerDao;
+    private final ExchangeRatesRefreshScheduler scheduler;
+    private final List<ExchangeRateProviderState> providers = new ArrayList<>();
+
+    /**
+     * Fallback for when fewer than {@link #quorum()} providers respond: providers that haven't responded within this
+     * time are given up on, so one slow provider can't stall the refresh.
+     */
+    private static final long REFRESH_TIMEOUT_SECS = 15;
 
     public synchronized static ExchangeRatesRepository get(final WalletApplication application) {
         if (INSTANCE == null)
@@ -67,6 +79,12 @@ public class ExchangeRatesRepository {
 
         this.db = ExchangeRatesDatabase.getDatabase(application);
         this.dao = db.exchangeRateDao();
+        this.historyDao = db.exchangeRateHistoryDao();
+        this.providerDao = db.exchangeRateProviderDao();
+        this.scheduler = config.getExchangeRatesRefreshScheduler();
+        this.providers.add(config.getExchangeRateProviderState(new CoinGecko()));
+        this.providers.add(config.getExchangeRateProviderState(new BlockchainInfo()));
+        this.providers.add(config.getExchangeRateProviderState(new Coinbase()));
     }
 
     public ExchangeRateDao exchangeRateDao() {
@@ -74,55 +92,216 @@ public class ExchangeRatesRepository {
         return dao;
     }
 
+    /**
+     * Loads the rate history of the given currency, for looking up the rates at past times.
+     */
+    @WorkerThread
+    public ExchangeRateHistory exchangeRateHistory(final String currencyCode) {
+        return new ExchangeRateHistory(currencyCode, historyDao.findByCurrencyCode(currencyCode));
+    }
+
     public InvalidationTracker exchangeRateInvalidationTracker() {
         return db.getInvalidationTracker();
     }
 
     private void maybeRequestExchangeRates() {
-        if (!application.getConfiguration().isEnableExchangeRates())
+        if (!config.isEnableExchangeRates())
+            return;
+        // pause while in background
+        if (!isInForeground())
             return;
 
-        final Stopwatch watch = Stopwatch.createStarted();
         final long now = System.currentTimeMillis();
-
-        final long lastUpdated = this.lastUpdated.get();
-        if (lastUpdated != 0 && now - lastUpdated <= UPDATE_FREQ_MS)
+        final ConnectivityManager connectivityManager = application.getSystemService(ConnectivityManager.class);
+        if (!scheduler.tryStart(now, connectivityManager.isActiveNetworkMetered()))
             return;
 
-        final CoinGecko coinGecko = new CoinGecko(new Moshi.Builder().build());
-        final Request.Builder request = new Request.Builder();
-        request.url(coinGecko.url());
-        final Headers.Builder headers = new Headers.Builder();
-        headers.add("User-Agent", userAgent);
-        headers.add("Accept", coinGecko.mediaType().toString());
-        request.headers(headers.build());
-
         final OkHttpClient.Builder httpClientBuilder = Constants.HTTP_CLIENT.newBuilder();
         httpClientBuilder.connectionSpecs(Collections.singletonList(ConnectionSpec.RESTRICTED_TLS));
-        final Call call = httpClientBuilder.build().newCall(request.build());
-        call.enqueue(new Callback() {
-            @Override
-            public void onResponse(final Call call, final Response response) throws IOException {
-                try {
-                    if (response.isSuccessful()) {
-                        for (final ExchangeRateEntry exchangeRate : coinGecko.parse(response.body().source()))
-                            dao.insertOrUpdate(exchangeRate);
-                        ExchangeRatesRepository.this.lastUpdated.set(now);
-                        watch.stop();
-                        log.info("fetched exchange rates from {}, took {}", coinGecko.url(), watch);
-                    } else {
-                        log.warn("http status {} {} when fetching exchange rates from {}", response.code(),
-                                response.message(), coinGecko.url());
+        httpClientBuilder.callTimeout(REFRESH_TIMEOUT_SECS, TimeUnit.SECONDS);
+        final OkHttpClient httpClient = httpClientBuilder.build();
+        final Refresh refresh = new Refresh(now);
+        for (final ExchangeRateProviderState provider : providers) {
+            final Request.Builder request = new Request.Builder();
+            request.url(provider.provider.url());
+            final Headers.Builder headers = new Headers.Builder();
+            headers.add("User-Agent", userAgent);
+            headers.add("Accept", provider.provider.mediaType().toString());
+            provider.addConditionalHeaders(headers);
+            request.headers(headers.build());
+            refresh.calls.add(httpClient.newCall(request.build()));
+        }
+        for (int i = 0; i < providers.size(); i++)
+            refresh.calls.get(i).enqueue(new ProviderCallback(providers.get(i), i, refresh));
+    }
+
+    /**
+     * Number of responses a refresh waits for. Taking at least {@link ExchangeRatesAggregator#MIN_RATES_FOR_REJECTION}
+     * lets the aggregator tell a broken rate apart from the others.
+     */
+    private int quorum() {
+        return Math.min(ExchangeRatesAggregator.MIN_RATES_FOR_REJECTION, providers.size());
+    }
+
+    /**
+     * One refresh, fetching from all providers concurrently. It completes as soon as {@link #quorum()} providers
+     * responded, cancelling the remaining calls. If that many never respond, it completes with what it has once the
+     * other providers failed or timed out after {@link #REFRESH_TIMEOUT_SECS}.
+     */
+    private final class Refresh {
+        private final long now;
+        private final Stopwatch watch = Stopwatch.createStarted();
+        private final List<Call> calls = new ArrayList<>(providers.size());
+        // indexed like the providers, so responses stay in order of preference
+        private final List<List<ExchangeRateEntry>> responses = new ArrayList<>(
+                Collections.nCopies(providers.size(), null));
+        private final int quorum = quorum();
+        private int numResponses = 0;
+        private int numDone = 0;
+        private boolean completed = false;
+
+        private Refresh(final long now) {
+            this.now = now;
+        }
+
+        private void onResponse(final int index, final List<ExchangeRateEntry> rates) {
+            synchronized (this) {
+                if (completed)
+                    return;
+                responses.set(index, rates);
+                numResponses++;
+                numDone++;
+                if (numResponses < quorum && numDone < calls.size())
+                    return;
+                completed = true;
+            }
+            complete();
+        }
+
+        private void onFailure() {
+            synchronized (this) {
+                if (completed)
+                    return;
+                if (++numDone < calls.size())
+                    return;
+                completed = true;
+            }
+            complete();
+        }
+
+        private boolean isCompleted() {
+            synchronized (this) {
+                return completed;
+            }
+        }
+
+        private void complete() {
+            for (final Call call : calls)
+                call.cancel();
+            final List<List<ExchangeRateEntry>> responses = new ArrayList<>(providers.size());
+            final List<String> sources = new ArrayList<>(providers.size());
+            synchronized (this) {
+                for (int i = 0; i < providers.size(); i++) {
+                    final List<ExchangeRateEntry> response = this.responses.get(i);
+                    if (response != null) {
+                        responses.add(response);
+                        sources.add(providers.get(i).provider.source());
                     }
-                } catch (final Exception x) {
-                    log.warn("problem fetching exchange rates from " + coinGecko.url(), x);
                 }
             }
+            try {
+                if (!responses.isEmpty()) {
+                    final List<ExchangeRateEntry> exchangeRates = ExchangeRatesAggregator.aggregate(responses);
+                    dao.insertOrUpdateAll(exchangeRates);
+                    historyDao.record(exchangeRates, now);
+                    scheduler.onSuccess(now);
+                    watch.stop();
+                    log.info("combined {} exchange rates from {}, took {}", exchangeRates.size(), sources, watch);
+                } else {
+                    scheduler.onFailure();
+                    log.warn("no exchange rates from any provider, backing off {} ms", scheduler.backoffMs());
+                }
+            } catch (final Exception x) {
+                scheduler.onFailure();
+                log.warn("problem storing exchange rates", x);
+            } finally {
+                config.setExchangeRatesRefreshScheduler(scheduler);
+            }
+        }
+    }
+
+    private final class ProviderCallback implements Callback {
+        private final ExchangeRateProviderState state;
+        private final ExchangeRateProvider provider;
+        private final int index;
+        private final Refresh refresh;
+        private final long startedAt = System.currentTimeMillis();
+
+        private ProviderCallback(final ExchangeRateProviderState state, final int index, final Refresh refresh) {
+            this.state = state;
+            this.provider = state.provider;
+            this.index = index;
+            this.refresh = refresh;
+        }
 
-            @Override
-            public void onFailure(final Call call, final IOException x) {
-                log.warn("problem fetching exchange rates from " + coinGecko.url(), x);
+        @Override
+        public void onResponse(final Call call, final Response response) {
+            try {
+                final List<ExchangeRateEntry> rates;
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    rates = providerDao.findRatesBySource(provider.source());
+                    if (!rates.isEmpty()) {
+                        state.onNotModified(System.currentTimeMillis() - startedAt);
+                    } else {
+                        // validators without the rates they refer to are of no use
+                        state.clearValidators();
+                        config.setExchangeRateProviderState(state);
+                        throw new IOException("not modified, but no stored rates");
+                    }
+                } else if (response.isSuccessful()) {
+                    rates = provider.parse(response.body().source());
+                    // store the rates before their validators, so validators never refer to rates that are missing
+                    providerDao.replace(provider.source(), rates);
+                    state.onModified(System.currentTimeMillis() - startedAt, response.header("ETag"),
+                            response.header("Last-Modified"));
+                    config.setExchangeRateProviderState(state);
+                } else {
+                    state.onFailure(System.currentTimeMillis() - startedAt);
+                    log.warn("http status {} {} when fetching exchange rates from {}, {}", response.code(),
+                            response.message(), provider.url(), state);
+                    rates = null;
+                }
+                if (rates != null) {
+                    log.info("fetched {} exchange rates from {}, {}", rates.size(), provider.url(), state);
+                    refresh.onResponse(index, rates);
+                } else {
+                    refresh.onFailure();
+                }
+            } catch (final Exception x) {
+                failed(x);
+            } finally {
+                response.close();
             }
-        });
+        }
+
+        @Override
+        public void onFailure(final Call call, final IOException x) {
+            failed(x);
+        }
+
+        private void failed(final Exception x) {
+            // calls cancelled because the refresh already completed don't count against the provider
+            if (refresh.isCompleted())
+                return;
+            state.onFailure(System.currentTimeMillis() - startedAt);
+            log.warn("problem fetching exchange rates from " + provider.url() + ", " + state, x);
+            refresh.onFailure();
+        }
+    }
+
+    private static boolean isInForeground() {
+        final ActivityManager.RunningAppProcessInfo processInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(processInfo);
+        return processInfo.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
     }
 }
@@ -55,6 +55,7 @@ import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.WalletBalanceWidgetProvider;
 import de.schildbach.wallet.addressbook.AddressBookDao;
 import de.schildbach.wallet.addressbook.AddressBookDatabase;
+import de.schildbach.wallet.data.FeeEstimatesRepository;
 import de.schildbach.wallet.data.SelectedExchangeRateLiveData;
 import de.schildbach.wallet.data.WalletBalanceLiveData;
 import de.schildbach.wallet.data.WalletLiveData;
@@ -102,8 +103,10 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -124,6 +127,9 @@ public class BlockchainService extends LifecycleService {
     private Configuration config;
     private AddressBookDao addressBookDao;
     private WalletLiveData wallet;
+    private FeeEstimatesRepository feeEstimatesRepository;
+    private LocalFeeEstimator feeEstimator;
+    private final Set<Peer> feeFilterRecordedPeers = Collections.synchronizedSet(new HashSet<>());
 
     private BlockStore blockStore;
     private File blockChainFile;
@@ -150,6 +156,7 @@ public class BlockchainService extends LifecycleService {
 
     private static final int CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS = 144 * 2; // approx. 2 days
     private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final long FEE_FILTER_DELAY_MS = 10 * DateUtils.SECOND_IN_MILLIS;
 
     private static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName()
             + ".cancel_coins_received";
@@ -294,11 +301,15 @@ public class BlockchainService extends LifecycleService {
         @Override
         public void onPeerConnected(final Peer peer, final int peerCount) {
             postDelayedStopSelf(Constants.SERVICE_STOP_DELAY_AFTER_EVENT);
+            // peers announce their feefilter shortly after the handshake
+            backgroundHandler.postDelayed(() -> recordFeeFilter(peer), FEE_FILTER_DELAY_MS);
             changed(peerCount);
         }
 
         @Override
         public void onPeerDisconnected(final Peer peer, final int peerCount) {
+            recordFeeFilter(peer);
+            feeFilterRecordedPeers.remove(peer);
             changed(peerCount);
         }
 
@@ -313,6 +324,15 @@ public class BlockchainService extends LifecycleService {
         }
     }
 
+    /**
+     * Records the feefilter of a peer, at most once per connection.
+     */
+    private void recordFeeFilter(final Peer peer) {
+        final Coin feeFilter = peer.getFeeFilter();
+        if (feeFilter != null && feeFilterRecordedPeers.add(peer))
+            feeEstimator.recordFeeFilter(feeFilter);
+    }
+
     private final PeerDataEventListener blockchainDownloadListener = new BlockchainDownloadListener();
 
     private class BlockchainDownloadListener extends AbstractPeerDataEventListener implements Runnable {
@@ -514,6 +534,8 @@ public class BlockchainService extends LifecycleService {
         backgroundHandler = new Handler(backgroundThread.getLooper());
 
         addressBookDao = AddressBookDatabase.getDatabase(application).addressBookDao();
+        feeEstimatesRepository = FeeEstimatesRepository.get(application);
+        feeEstimator = feeEstimatesRepository.localFeeEstimator();
         blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
 
         config.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
@@ -597,6 +619,9 @@ public class BlockchainService extends LifecycleService {
             final Wallet wallet = BlockchainService.this.wallet.getValue();
             postDelayedStopSelf(Constants.SERVICE_STOP_DELAY_AFTER_TRANSACTION);
             final Coin amount = tx.getValue(wallet);
+            // our own sends that were priced by the local estimates must not feed back into them
+            if (!amount.isNegative() || !feeEstimatesRepository.isUsingLocalEstimates())
+                feeEstimator.recordTransaction(tx);
             if (amount.isPositive()) {
                 final Address address = WalletUtils.getWalletAddressOfReceived(tx, wallet);
                 final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
@@ -692,6 +717,8 @@ public class BlockchainService extends LifecycleService {
 
                 peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
                 peerGroup.removeConnectedEventListener(peerConnectivityListener);
+                for (final Peer peer : peerGroup.getConnectedPeers())
+                    recordFeeFilter(peer);
                 peerGroup.removeWallet(wallet);
                 log.info("stopping {} asynchronously", peerGroup);
                 peerGroup.stopAsync();
@@ -736,6 +763,8 @@ public class BlockchainService extends LifecycleService {
         if (peerGroup != null) {
             peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
             peerGroup.removeConnectedEventListener(peerConnectivityListener);
+            for (final Peer peer : peerGroup.getConnectedPeers())
+                recordFeeFilter(peer);
             peerGroup.removeWallet(wallet.getValue());
             peerGroup.stopAsync();
             log.info("stopping {} asynchronously", peerGroup);
@@ -757,6 +786,7 @@ public class BlockchainService extends LifecycleService {
         }
 
         application.autosaveWalletNow();
+        feeEstimator.save();
 
         if (resetBlockchainOnShutdown) {
             log.info("removing blockchain");
@@ -0,0 +1,246 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import androidx.annotation.Nullable;
+import de.schildbach.wallet.ui.send.FeeCategory;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates fee rates from what this node gets to see: fee rates of wallet transactions for which the fee is known,
+ * and the {@code feefilter} minimums announced by peers. As an SPV node doesn't know the values of spent outputs in
+ * general, the fee is only known if all inputs are connected to outputs of the wallet, which in practice means
+ * transactions sent from this wallet. Observations are kept in small histograms whose weights decay over time, so
+ * old network conditions fade out.
+ *
+ * @author Andreas Schildbach
+ */
+public class LocalFeeEstimator {
+    private static final long HALF_LIFE_MS = TimeUnit.HOURS.toMillis(12);
+    private static final double MIN_TRANSACTIONS_WEIGHT = 3.0;
+    private static final double MIN_FEE_FILTERS_WEIGHT = 1.0;
+    private static final int FILE_VERSION = 1;
+
+    private final Histogram transactions = new Histogram();
+    private final Histogram feeFilters = new Histogram();
+    @Nullable
+    private final File file;
+
+    private static final Logger log = LoggerFactory.getLogger(LocalFeeEstimator.class);
+
+    public LocalFeeEstimator(@Nullable final File file) {
+        this.file = file;
+        if (file != null && file.exists())
+            load(file);
+    }
+
+    /**
+     * Records the fee rate of a transaction, if its fee can be determined because all of its inputs are connected.
+     * Otherwise, the transaction is ignored.
+     */
+    public void recordTransaction(final Transaction tx) {
+        recordTransaction(tx, System.currentTimeMillis());
+    }
+
+    void recordTransaction(final Transaction tx, final long now) {
+        if (tx.isCoinBase())
+            return;
+        final Coin fee = tx.getFee();
+        if (fee == null || fee.signum() <= 0)
+            return;
+        final int vsize = tx.getVsize();
+        if (vsize <= 0)
+            return;
+        recordFeeRate(fee.multiply(1000).divide(vsize), now);
+    }
+
+    synchronized void recordFeeRate(final Coin feePerKb, final long now) {
+        transactions.add(feePerKb.value, now);
+    }
+
+    /**
+     * Records a {@code feefilter} minimum announced by a peer.
+     */
+    public void recordFeeFilter(final Coin feePerKb) {
+        recordFeeFilter(feePerKb, System.currentTimeMillis());
+    }
+
+    synchronized void recordFeeFilter(final Coin feePerKb, final long now) {
+        if (feePerKb.signum() <= 0)
+            return;
+        feeFilters.add(feePerKb.value, now);
+    }
+
+    /**
+     * @return estimated fee rates per kB, possibly with some categories missing, or {@code null} if there is not
+     *         enough data yet
+     */
+    @Nullable
+    public Map<FeeCategory, Coin> estimate() {
+        return estimate(System.currentTimeMillis());
+    }
+
+    @Nullable
+    synchronized Map<FeeCategory, Coin> estimate(final long now) {
+        transactions.decay(now);
+        feeFilters.decay(now);
+        final long floor = feeFilters.totalWeight() >= MIN_FEE_FILTERS_WEIGHT ? feeFilters.quantile(0.5) : 0;
+        final Map<FeeCategory, Coin> fees = new EnumMap<>(FeeCategory.class);
+        if (transactions.totalWeight() >= MIN_TRANSACTIONS_WEIGHT) {
+            final long economic = Math.max(floor, transactions.quantile(0.25));
+            final long normal = Math.max(economic, transactions.quantile(0.5));
+            final long priority = Math.max(normal, transactions.quantile(0.9));
+            fees.put(FeeCategory.ECONOMIC, Coin.valueOf(economic));
+            fees.put(FeeCategory.NORMAL, Coin.valueOf(normal));
+            fees.put(FeeCategory.PRIORITY, Coin.valueOf(priority));
+        } else if (floor > 0) {
+            // the relay minimum is only good enough for transactions that may take their time
+            fees.put(FeeCategory.ECONOMIC, Coin.valueOf(floor));
+        } else {
+            return null;
+        }
+        return fees;
+    }
+
+    public void save() {
+        if (file != null)
+            save(file);
+    }
+
+    private synchronized void save(final File file) {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream os = new DataOutputStream(new FileOutputStream(tempFile))) {
+            os.writeInt(FILE_VERSION);
+            transactions.write(os);
+            feeFilters.write(os);
+        } catch (final IOException x) {
+            log.warn("problem saving fee estimates to " + file, x);
+            return;
+        }
+        if (!tempFile.renameTo(file))
+            log.warn("cannot rename {} to {}", tempFile, file);
+    }
+
+    private synchronized void load(final File file) {
+        try (final DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+            if (is.readInt() != FILE_VERSION)
+                return;
+            transactions.read(is);
+            feeFilters.read(is);
+        } catch (final IOException x) {
+            log.warn("problem loading fee estimates from " + file + ", starting from scratch", x);
+            transactions.clear();
+            feeFilters.clear();
+        }
+    }
+
+    /**
+     * Histogram over fee rates with logarithmically spaced buckets, starting at 1 sat/vB. Each bucket is
+     * {@link #SPACING} times as wide as the one before.
+     */
+    static final class Histogram {
+        private static final long MIN_FEE_PER_KB = 1000;
+        private static final double SPACING = 1.25;
+        private static final int NUM_BUCKETS = 40;
+
+        private final double[] weights = new double[NUM_BUCKETS];
+        private long lastDecay = 0;
+
+        void add(final long feePerKb, final long now) {
+            decay(now);
+            weights[bucketOf(feePerKb)] += 1.0;
+        }
+
+        void decay(final long now) {
+            if (lastDecay != 0 && now > lastDecay) {
+                final double factor = Math.pow(0.5, (double) (now - lastDecay) / HALF_LIFE_MS);
+                for (int i = 0; i < NUM_BUCKETS; i++)
+                    weights[i] *= factor;
+            }
+            if (now > lastDecay)
+                lastDecay = now;
+        }
+
+        double totalWeight() {
+            double total = 0;
+            for (final double weight : weights)
+                total += weight;
+            return total;
+        }
+
+        /**
+         * @return the lower bound of the bucket at which the cumulative weight reaches the given fraction
+         */
+        long quantile(final double q) {
+            final double target = totalWeight() * q;
+            double cumulative = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                cumulative += weights[i];
+                if (cumulative >= target && weights[i] > 0)
+                    return lowerBoundOf(i);
+            }
+            return lowerBoundOf(NUM_BUCKETS - 1);
+        }
+
+        void clear() {
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                weights[i] = 0;
+            lastDecay = 0;
+        }
+
+        void write(final DataOutputStream os) throws IOException {
+            os.writeLong(lastDecay);
+            os.writeInt(NUM_BUCKETS);
+            for (final double weight : weights)
+                os.writeDouble(weight);
+        }
+
+        void read(final DataInputStream is) throws IOException {
+            lastDecay = is.readLong();
+            final int numBuckets = is.readInt();
+            if (numBuckets != NUM_BUCKETS)
+                throw new IOException("unexpected number of buckets: " + numBuckets);
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                weights[i] = is.readDouble();
+        }
+
+        static int bucketOf(final long feePerKb) {
+            if (feePerKb <= MIN_FEE_PER_KB)
+                return 0;
+            final int bucket = (int) (Math.log((double) feePerKb / MIN_FEE_PER_KB) / Math.log(SPACING));
+            return Math.min(bucket, NUM_BUCKETS - 1);
+        }
+
+        static long lowerBoundOf(final int bucket) {
+            return (long) Math.ceil(MIN_FEE_PER_KB * Math.pow(SPACING, bucket));
+        }
+    }
+}
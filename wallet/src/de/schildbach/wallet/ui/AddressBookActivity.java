@@ -17,6 +17,7 @@
 
 package de.schildbach.wallet.ui;
 
+import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -29,6 +30,7 @@ import android.widget.Toolbar;
 import androidx.activity.EdgeToEdge;
 import androidx.activity.SystemBarStyle;
 import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.core.graphics.Insets;
 import androidx.core.view.MenuProvider;
@@ -40,15 +42,20 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager2.adapter.FragmentStateAdapter;
 import androidx.viewpager2.widget.ViewPager2;
+import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
+import de.schildbach.wallet.addressbook.Bip329;
 import de.schildbach.wallet.data.PaymentIntent;
 import de.schildbach.wallet.ui.scan.ScanActivity;
+import de.schildbach.wallet.util.Toast;
 import de.schildbach.wallet.util.ViewPagerTabs;
 import de.schildbach.wallet.util.ZoomOutPageTransformer;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Andreas Schildbach
@@ -66,6 +73,8 @@ public final class AddressBookActivity extends AbstractWalletActivity {
     private static final int[] TAB_LABELS = { R.string.address_book_list_receiving_title,
             R.string.address_book_list_sending_title };
 
+    private static final Logger log = LoggerFactory.getLogger(AddressBookActivity.class);
+
     private final ActivityResultLauncher<Void> scanLauncher =
             registerForActivityResult(new ScanActivity.Scan(), input -> {
                 if (input == null) return;
@@ -97,6 +106,25 @@ public final class AddressBookActivity extends AbstractWalletActivity {
                 }.parse();
             });
 
+    private final ActivityResultLauncher<String[]> openLabelsLauncher =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri == null) return;
+                final DialogBuilder dialog = DialogBuilder.dialog(this, R.string.address_book_options_import_labels,
+                        R.string.address_book_import_labels_policy);
+                dialog.setPositiveButton(R.string.address_book_import_labels_policy_keep,
+                        (d, which) -> viewModel.importLabels(uri, Bip329.ConflictPolicy.KEEP_EXISTING));
+                dialog.setNegativeButton(R.string.address_book_import_labels_policy_overwrite,
+                        (d, which) -> viewModel.importLabels(uri, Bip329.ConflictPolicy.OVERWRITE));
+                dialog.show();
+            });
+
+    private final ActivityResultLauncher<String> createLabelsLauncher =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument(
+                    Constants.MIMETYPE_ADDRESS_BOOK_LABELS), uri -> {
+                if (uri != null)
+                    viewModel.exportLabels(uri);
+            });
+
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
         EdgeToEdge.enable(this, SystemBarStyle.dark(getColor(R.color.bg_action_bar)),
@@ -157,6 +185,17 @@ public final class AddressBookActivity extends AbstractWalletActivity {
             }
         });
 
+        viewModel.progress.observe(this, new ProgressDialogFragment.Observer(fragmentManager));
+        viewModel.showLabelsResultDialog.observe(this, new Event.Observer<String>() {
+            @Override
+            protected void onEvent(final String message) {
+                final DialogBuilder dialog = DialogBuilder.dialog(AddressBookActivity.this,
+                        R.string.address_book_activity_title, message);
+                dialog.singleDismissButton(null);
+                dialog.show();
+            }
+        });
+
         if (twoPanes) {
             final RecyclerView recyclerView = (RecyclerView) pager.getChildAt(0);
             recyclerView.setClipToPadding(false);
@@ -196,6 +235,25 @@ public final class AddressBookActivity extends AbstractWalletActivity {
                 if (itemId == R.id.sending_addresses_options_scan) {
                     scanLauncher.launch(null);
                     return true;
+                } else if (itemId == R.id.address_book_options_import_labels) {
+                    try {
+                        // BIP329 files come with all kinds of MIME types, depending on where they were made
+                        openLabelsLauncher.launch(new String[] { "*/*" });
+                    } catch (final ActivityNotFoundException x) {
+                        log.warn("Cannot open document selector for labels import");
+                        new Toast(AddressBookActivity.this).longToast(
+                                R.string.toast_start_storage_provider_selector_failed);
+                    }
+                    return true;
+                } else if (itemId == R.id.address_book_options_export_labels) {
+                    try {
+                        createLabelsLauncher.launch(Constants.Files.EXTERNAL_ADDRESS_BOOK_LABELS);
+                    } catch (final ActivityNotFoundException x) {
+                        log.warn("Cannot open document selector for labels export");
+                        new Toast(AddressBookActivity.this).longToast(
+                                R.string.toast_start_storage_provider_selector_failed);
+                    }
+                    return true;
                 }
                 return false;
             }
@@ -39,6 +39,7 @@ import com.google.common.hash.Hashing;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.addressbook.AddressBookLabels;
 import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.ECKey;
@@ -49,7 +50,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -60,19 +60,19 @@ public class AddressBookAdapter extends ListAdapter<AddressBookAdapter.ListItem,
                                                 final Collection<Address> derivedAddresses,
                                                 final Collection<Address> randomAddresses,
                                                 @Nullable final Wallet wallet,
-                                                @Nullable final Map<String, AddressBookEntry> addressBook) {
+                                                @Nullable final AddressBookLabels addressBookLabels) {
         final List<ListItem> items = new ArrayList<>(derivedAddresses.size() + randomAddresses.size());
-        addListItems(items, derivedAddresses, context, wallet, addressBook);
+        addListItems(items, derivedAddresses, context, wallet, addressBookLabels);
         if (!derivedAddresses.isEmpty() && !randomAddresses.isEmpty())
             items.add(new ListItem.SeparatorItem(context.getString(R.string.address_book_list_receiving_random)));
-        addListItems(items, randomAddresses, context, wallet, addressBook);
+        addListItems(items, randomAddresses, context, wallet, addressBookLabels);
         return items;
     }
 
     private static void addListItems(final List<ListItem> items,
                                      final Collection<Address> addresses, final Context context,
                                      @Nullable final Wallet wallet,
-                                     @Nullable final Map<String, AddressBookEntry> addressBook) {
+                                     @Nullable final AddressBookLabels addressBookLabels) {
         final int colorSignificant = context.getColor(R.color.fg_significant);
         final int colorInsignificant = context.getColor(R.color.fg_insignificant);
         final int colorLessSignificant = context.getColor(R.color.fg_less_significant);
@@ -88,14 +88,11 @@ public class AddressBookAdapter extends ListAdapter<AddressBookAdapter.ListItem,
                 isRotateKey = false;
             }
             final int addressColor = isRotateKey ? colorInsignificant : colorSignificant;
-            final String label;
+            final String label = addressBookLabels != null ? addressBookLabels.resolveLabel(address) : null;
             final int labelColor;
-            final AddressBookEntry entry = addressBook != null ? addressBook.get(address.toString()) : null;
-            if (entry != null) {
-                label = entry.getLabel();
+            if (label != null) {
                 labelColor = isRotateKey ? colorInsignificant : colorLessSignificant;
             } else {
-                label = null;
                 labelColor = colorInsignificant;
             }
             final String message;
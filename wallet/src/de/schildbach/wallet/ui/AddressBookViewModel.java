@@ -17,17 +17,87 @@
 
 package de.schildbach.wallet.ui;
 
+import android.app.Application;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.R;
+import de.schildbach.wallet.addressbook.AddressBookDao;
+import de.schildbach.wallet.addressbook.AddressBookDatabase;
+import de.schildbach.wallet.addressbook.Bip329;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
 import org.bitcoinj.core.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
 
 /**
  * @author Andreas Schildbach
  */
-public class AddressBookViewModel extends ViewModel {
+public class AddressBookViewModel extends AndroidViewModel {
+    private final Application application;
+    private final AddressBookDao addressBookDao;
     public final MutableLiveData<Address> selectedAddress = new MutableLiveData<>();
     public final MutableLiveData<Event<Integer>> pageTo = new MutableLiveData<>();
     public final MutableLiveData<Event<Address>> showEditAddressBookEntryDialog = new MutableLiveData<>();
     public final MutableLiveData<Event<Void>> showScanOwnAddressDialog = new MutableLiveData<>();
     public final MutableLiveData<Event<Void>> showScanInvalidDialog = new MutableLiveData<>();
+    public final MutableLiveData<String> progress = new MutableLiveData<>();
+    public final MutableLiveData<Event<String>> showLabelsResultDialog = new MutableLiveData<>();
+
+    private static final Logger log = LoggerFactory.getLogger(AddressBookViewModel.class);
+
+    public AddressBookViewModel(final Application application) {
+        super(application);
+        this.application = application;
+        this.addressBookDao = AddressBookDatabase.getDatabase(application).addressBookDao();
+    }
+
+    public void importLabels(final Uri uri, final Bip329.ConflictPolicy policy) {
+        final ContentResolver contentResolver = application.getContentResolver();
+        progress.setValue(application.getString(R.string.address_book_import_labels_progress, 0));
+        AsyncTask.execute(() -> {
+            try (final BufferedSource source = Okio.buffer(Okio.source(contentResolver.openInputStream(uri)))) {
+                final Bip329.Result result = Bip329.importLabels(source, Constants.NETWORK_PARAMETERS,
+                        batch -> addressBookDao.importBatch(batch, policy),
+                        p -> progress.postValue(application.getString(R.string.address_book_import_labels_progress,
+                                p.numImported + p.numExisting)));
+                showLabelsResultDialog.postValue(new Event<>(application.getString(
+                        R.string.address_book_import_labels_success, result.numImported, result.numExisting,
+                        result.numSkipped)));
+            } catch (final IOException | RuntimeException x) {
+                log.info("problem importing labels from " + uri, x);
+                showLabelsResultDialog.postValue(new Event<>(
+                        application.getString(R.string.address_book_import_labels_failed, x.getMessage())));
+            } finally {
+                progress.postValue(null);
+            }
+        });
+    }
+
+    public void exportLabels(final Uri uri) {
+        final ContentResolver contentResolver = application.getContentResolver();
+        progress.setValue(application.getString(R.string.address_book_export_labels_progress));
+        AsyncTask.execute(() -> {
+            try (final BufferedSink sink = Okio.buffer(Okio.sink(contentResolver.openOutputStream(uri)));
+                 final Cursor cursor = addressBookDao.cursorAll()) {
+                final int numExported = Bip329.exportLabels(cursor, sink);
+                showLabelsResultDialog.postValue(new Event<>(
+                        application.getString(R.string.address_book_export_labels_success, numExported)));
+            } catch (final IOException | RuntimeException x) {
+                log.info("problem exporting labels to " + uri, x);
+                showLabelsResultDialog.postValue(new Event<>(
+                        application.getString(R.string.address_book_export_labels_failed, x.getMessage())));
+            } finally {
+                progress.postValue(null);
+            }
+        });
+    }
 }
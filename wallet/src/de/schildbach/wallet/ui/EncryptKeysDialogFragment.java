@@ -23,6 +23,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnShowListener;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -34,16 +35,20 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.util.KeyDerivation;
 import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
@@ -52,6 +57,8 @@ import org.bouncycastle.crypto.params.KeyParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * @author Andreas Schildbach
  */
@@ -77,12 +84,15 @@ public class EncryptKeysDialogFragment extends DialogFragment {
     private View badPasswordView;
     private TextView passwordStrengthView;
     private CheckBox showView;
+    private ProgressBar progressView;
     private Button positiveButton, negativeButton;
 
     private final Handler handler = new Handler();
     private HandlerThread backgroundThread;
     private Handler backgroundHandler;
 
+    private final AtomicBoolean calibrationCancelled = new AtomicBoolean();
+
     private WalletActivityViewModel activityViewModel;
 
     private enum State {
@@ -128,6 +138,12 @@ public class EncryptKeysDialogFragment extends DialogFragment {
         backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
+
+        // While the user is typing, find out how much scrypt this device can afford. This runs apart from the
+        // background thread, so it never delays the actual work. If it hasn't finished by then, the default target
+        // is used and calibration stops.
+        if (config.getScryptIterations() == 0)
+            AsyncTask.execute(() -> application.calibrateScrypt(calibrationCancelled::get));
     }
 
     @Override
@@ -148,6 +164,8 @@ public class EncryptKeysDialogFragment extends DialogFragment {
 
         showView = view.findViewById(R.id.encrypt_keys_dialog_show);
 
+        progressView = view.findViewById(R.id.encrypt_keys_dialog_progress);
+
         final DialogBuilder builder = DialogBuilder.custom(activity, R.string.encrypt_keys_dialog_title, view);
         // dummies, just to make buttons show
         builder.setPositiveButton(R.string.button_ok, null);
@@ -203,6 +221,7 @@ public class EncryptKeysDialogFragment extends DialogFragment {
 
     @Override
     public void onDestroy() {
+        calibrationCancelled.set(true);
         backgroundThread.getLooper().quit();
 
         super.onDestroy();
@@ -221,56 +240,98 @@ public class EncryptKeysDialogFragment extends DialogFragment {
         else
             throw new IllegalStateException();
 
+        calibrationCancelled.set(true);
         state = State.CRYPTING;
+        // Only the phase is shown, one step each for deriving each key and for re-encrypting the wallet. Neither
+        // scrypt nor the wallet report progress within a phase.
+        progressView.setMax((oldPassword != null ? 1 : 0) + (newPassword != null ? 1 : 0) + 1);
+        progressView.setProgress(0);
         updateView();
 
         backgroundHandler.post(() -> {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+
             // For the old key, we use the key crypter that was used to derive the password in the first
-            // place.
+            // place. For the new key, we create a new key crypter according to the desired parameters. Both
+            // keys are derived in parallel, if they fit into memory together.
             final KeyCrypter oldKeyCrypter = wallet.getKeyCrypter();
+            final KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(application.scryptIterationsTarget());
+            final boolean parallel = oldPassword == null || KeyDerivation.fitsInParallel(oldKeyCrypter, keyCrypter);
+            final ListenableFuture<KeyParameter> newKeyFuture = parallel ?
+                    KeyDerivation.deriveKeyAsync(keyCrypter, newPassword) : null;
+            if (newKeyFuture != null && newPassword != null)
+                newKeyFuture.addListener(this::incrementProgress, handler::post);
             final KeyParameter oldKey = oldKeyCrypter != null && oldPassword != null ?
                     oldKeyCrypter.deriveKey(oldPassword) : null;
+            if (oldKey != null)
+                handler.post(this::incrementProgress);
+            final KeyParameter newKey;
+            if (newKeyFuture != null) {
+                newKey = Futures.getUnchecked(newKeyFuture);
+            } else {
+                log.info("deriving keys one after the other, as they don't fit into memory together");
+                newKey = newPassword != null ? keyCrypter.deriveKey(newPassword) : null;
+                if (newKey != null)
+                    handler.post(this::incrementProgress);
+            }
 
-            // For the new key, we create a new key crypter according to the desired parameters.
-            final KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(application.scryptIterationsTarget());
-            final KeyParameter newKey = newPassword != null ? keyCrypter.deriveKey(newPassword) : null;
+            State newState = state;
+            boolean badPassword = false;
 
-            handler.post(() -> {
-                // Decrypt from old password
-                if (wallet.isEncrypted()) {
-                    if (oldKey == null) {
-                        log.info("wallet is encrypted, but did not provide spending password");
-                        state = State.INPUT;
-                        oldPasswordView.requestFocus();
-                    } else {
-                        try {
+            if (wallet.isEncrypted()) {
+                if (oldKey == null) {
+                    log.info("wallet is encrypted, but did not provide spending password");
+                    newState = State.INPUT;
+                } else {
+                    try {
+                        if (newKey != null) {
+                            // Re-encrypt in one go, so the wallet is never left without a spending password.
+                            wallet.changeEncryptionKey(keyCrypter, oldKey, newKey);
+                            log.info(
+                                    "wallet successfully re-encrypted, using key derived by new spending password ({} scrypt iterations)",
+                                    keyCrypter.getScryptParameters().getN());
+                        } else {
                             wallet.decrypt(oldKey);
-
-                            state = State.DONE;
                             log.info("wallet successfully decrypted");
-                        } catch (final Wallet.BadWalletEncryptionKeyException x) {
-                            log.info("wallet decryption failed, bad spending password: " + x.getMessage());
-                            badPasswordView.setVisibility(View.VISIBLE);
-                            state = State.INPUT;
-                            oldPasswordView.requestFocus();
                         }
+                        newState = State.DONE;
+                    } catch (final Wallet.BadWalletEncryptionKeyException x) {
+                        log.info("wallet decryption failed, bad spending password: " + x.getMessage());
+                        badPassword = true;
+                        newState = State.INPUT;
                     }
                 }
+            }
 
-                // Use opportunity to maybe upgrade wallet
-                if (wallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE)
-                        && !wallet.isEncrypted())
+            // Use opportunity to maybe upgrade wallet
+            if (wallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE)) {
+                if (!wallet.isEncrypted())
                     wallet.upgradeToDeterministic(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE, null);
+                else if (newState == State.DONE && newKey != null)
+                    wallet.upgradeToDeterministic(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE, newKey);
+            }
 
-                // Encrypt to new password
-                if (newKey != null && !wallet.isEncrypted()) {
-                    wallet.encrypt(keyCrypter, newKey);
-                    config.updateLastEncryptKeysTime();
-                    log.info(
-                            "wallet successfully encrypted, using key derived by new spending password ({} scrypt iterations)",
-                            keyCrypter.getScryptParameters().getN());
-                    state = State.DONE;
-                }
+            // Encrypt to new password
+            if (newKey != null && !wallet.isEncrypted()) {
+                wallet.encrypt(keyCrypter, newKey);
+                log.info(
+                        "wallet successfully encrypted, using key derived by new spending password ({} scrypt iterations)",
+                        keyCrypter.getScryptParameters().getN());
+                newState = State.DONE;
+            }
+
+            if (newState == State.DONE)
+                config.updateLastEncryptKeysTime();
+
+            final State finalState = newState;
+            final boolean finalBadPassword = badPassword;
+            handler.post(() -> {
+                state = finalState;
+                incrementProgress();
+                if (finalBadPassword)
+                    badPasswordView.setVisibility(View.VISIBLE);
+                if (state == State.INPUT)
+                    oldPasswordView.requestFocus();
 
                 updateView();
 
@@ -284,6 +345,10 @@ public class EncryptKeysDialogFragment extends DialogFragment {
         });
     }
 
+    private void incrementProgress() {
+        progressView.incrementProgressBy(1);
+    }
+
     private void wipePasswords() {
         oldPasswordView.setText(null);
         newPasswordView.setText(null);
@@ -319,6 +384,8 @@ public class EncryptKeysDialogFragment extends DialogFragment {
 
         showView.setEnabled(state == State.INPUT);
 
+        progressView.setVisibility(state == State.INPUT ? View.GONE : View.VISIBLE);
+
         if (state == State.INPUT) {
             if (wallet.isEncrypted()) {
                 positiveButton.setText(hasPassword ? R.string.button_edit : R.string.button_remove);
@@ -18,6 +18,7 @@
 package de.schildbach.wallet.ui;
 
 import android.app.Application;
+import android.os.AsyncTask;
 import androidx.annotation.MainThread;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
@@ -27,10 +28,10 @@ import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.data.WalletBalanceLiveData;
 import de.schildbach.wallet.exchangerate.ExchangeRateDao;
 import de.schildbach.wallet.exchangerate.ExchangeRateEntry;
+import de.schildbach.wallet.exchangerate.ExchangeRatesIndex;
 import de.schildbach.wallet.exchangerate.ExchangeRatesRepository;
 
 import java.util.List;
-import java.util.Locale;
 
 /**
  * @author Andreas Schildbach
@@ -39,9 +40,9 @@ public class ExchangeRatesViewModel extends AndroidViewModel {
     private final WalletApplication application;
     private final ExchangeRateDao exchangeRateDao;
     private final MediatorLiveData<List<ExchangeRateEntry>> exchangeRateLiveData = new MediatorLiveData<>();
-    private LiveData<List<ExchangeRateEntry>> underlyingExchangeRateLiveData;
+    private final MutableLiveData<ExchangeRatesIndex> index = new MutableLiveData<>();
     private WalletBalanceLiveData balance;
-    private boolean isConstrained = false;
+    private String constraint = null;
     public final MutableLiveData<String> selectedExchangeRate = new MutableLiveData<>();
     private Event<String> initialExchangeRate;
 
@@ -49,29 +50,30 @@ public class ExchangeRatesViewModel extends AndroidViewModel {
         super(application);
         this.application = (WalletApplication) application;
         this.exchangeRateDao = ExchangeRatesRepository.get(this.application).exchangeRateDao();
-        setConstraint(null);
+        // rebuild the index whenever the rates change, and filter in memory on every change of the constraint
+        this.exchangeRateLiveData.addSource(exchangeRateDao.findAll(), exchangeRates -> AsyncTask.execute(() ->
+                index.postValue(new ExchangeRatesIndex(exchangeRates, ExchangeRatesIndex::currencyName))));
+        this.exchangeRateLiveData.addSource(index, index -> applyConstraint());
     }
 
     public LiveData<List<ExchangeRateEntry>> getExchangeRates() {
         return exchangeRateLiveData;
     }
 
+    @MainThread
     public void setConstraint(final String constraint) {
-        if (underlyingExchangeRateLiveData != null)
-            exchangeRateLiveData.removeSource(underlyingExchangeRateLiveData);
-        if (constraint != null) {
-            underlyingExchangeRateLiveData = exchangeRateDao.findByConstraint(constraint.toLowerCase(Locale.US));
-            isConstrained = true;
-        } else {
-            underlyingExchangeRateLiveData = exchangeRateDao.findAll();
-            isConstrained = false;
-        }
-        exchangeRateLiveData.addSource(underlyingExchangeRateLiveData,
-                exchangeRates -> exchangeRateLiveData.setValue(exchangeRates));
+        this.constraint = constraint;
+        applyConstraint();
+    }
+
+    private void applyConstraint() {
+        final ExchangeRatesIndex index = this.index.getValue();
+        if (index != null)
+            exchangeRateLiveData.setValue(index.filter(constraint));
     }
 
     public boolean isConstrained() {
-        return isConstrained;
+        return constraint != null;
     }
 
     public WalletBalanceLiveData getBalance() {
@@ -21,6 +21,7 @@ import android.os.Bundle;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
+import de.schildbach.wallet.ui.send.ConsolidateCoinsDialogFragment;
 import de.schildbach.wallet.ui.send.MaintenanceDialogFragment;
 
 /**
@@ -49,5 +50,11 @@ public class MaybeMaintenanceFragment extends Fragment {
                 viewModel.setDialogWasShown();
             }
         });
+        viewModel.showConsolidationDialog.observe(this, v -> {
+            if (!viewModel.getDialogWasShown()) {
+                ConsolidateCoinsDialogFragment.show(getParentFragmentManager());
+                viewModel.setDialogWasShown();
+            }
+        });
     }
 }
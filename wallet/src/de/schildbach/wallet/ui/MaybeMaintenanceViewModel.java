@@ -19,18 +19,21 @@ package de.schildbach.wallet.ui;
 
 import android.app.Application;
 import android.os.AsyncTask;
+import android.os.Handler;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MediatorLiveData;
-import com.google.common.util.concurrent.ListenableFuture;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
+import de.schildbach.wallet.data.DynamicFeeLiveData;
+import de.schildbach.wallet.data.WalletMaintenanceIndex;
 import de.schildbach.wallet.service.BlockchainState;
-import org.bitcoinj.core.Transaction;
-import org.bitcoinj.wallet.DeterministicUpgradeRequiresPassword;
+import de.schildbach.wallet.ui.send.ConsolidationPlanner;
+import de.schildbach.wallet.ui.send.FeeCategory;
+import org.bitcoinj.core.Coin;
 import org.bitcoinj.wallet.Wallet;
 
-import java.util.List;
+import java.util.Map;
 
 /**
  * @author Andreas Schildbach
@@ -38,15 +41,24 @@ import java.util.List;
 public class MaybeMaintenanceViewModel extends AndroidViewModel {
     private final WalletApplication application;
     private final WalletMaintenanceRecommendedLiveData walletMaintenanceRecommended;
+    private final DynamicFeeLiveData dynamicFees;
     public final MediatorLiveData<Void> showDialog = new MediatorLiveData<>();
+    public final MediatorLiveData<Void> showConsolidationDialog = new MediatorLiveData<>();
     private boolean dialogWasShown = false;
+    private boolean consolidationPlanned = false;
 
     public MaybeMaintenanceViewModel(final Application application) {
         super(application);
         this.application = (WalletApplication) application;
         this.walletMaintenanceRecommended = new WalletMaintenanceRecommendedLiveData(this.application);
+        this.dynamicFees = new DynamicFeeLiveData(this.application);
         showDialog.addSource(walletMaintenanceRecommended, maintenanceRecommended -> maybeShowDialog());
         showDialog.addSource(this.application.blockchainState, blockchainState -> maybeShowDialog());
+        showConsolidationDialog.addSource(walletMaintenanceRecommended,
+                maintenanceRecommended -> maybeShowConsolidationDialog());
+        showConsolidationDialog.addSource(this.application.blockchainState,
+                blockchainState -> maybeShowConsolidationDialog());
+        showConsolidationDialog.addSource(dynamicFees, dynamicFees -> maybeShowConsolidationDialog());
     }
 
     private void maybeShowDialog() {
@@ -57,6 +69,25 @@ public class MaybeMaintenanceViewModel extends AndroidViewModel {
             showDialog.postValue(null);
     }
 
+    private void maybeShowConsolidationDialog() {
+        if (consolidationPlanned || !application.getConfiguration().isTimeForConsolidationDialog())
+            return;
+        final BlockchainState blockchainState = application.blockchainState.getValue();
+        final Boolean maintenanceRecommended = walletMaintenanceRecommended.getValue();
+        final Map<FeeCategory, Coin> fees = dynamicFees.getValue();
+        if (blockchainState == null || blockchainState.replaying || maintenanceRecommended == null
+                || maintenanceRecommended || fees == null)
+            return;
+        consolidationPlanned = true;
+        final Coin feePerKb = fees.get(FeeCategory.ECONOMIC);
+        final Coin feeCeiling = application.getConfiguration().getConsolidationFeeCeiling();
+        application.getWalletAsync(wallet -> {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+            if (ConsolidationPlanner.plan(wallet, feePerKb, feeCeiling) != null)
+                showConsolidationDialog.postValue(null);
+        });
+    }
+
     public void setDialogWasShown() {
         dialogWasShown = true;
     }
@@ -66,28 +97,37 @@ public class MaybeMaintenanceViewModel extends AndroidViewModel {
     }
 
     public static class WalletMaintenanceRecommendedLiveData extends AbstractWalletLiveData<Boolean> {
+        private final WalletMaintenanceIndex index = WalletMaintenanceIndex.get();
+        private final Handler handler = new Handler();
+
         public WalletMaintenanceRecommendedLiveData(final WalletApplication application) {
             super(application);
         }
 
         @Override
         protected void onWalletActive(final Wallet wallet) {
+            index.attach(wallet);
+            index.addOnChangedListener(onIndexChangedListener);
             load();
         }
 
+        @Override
+        protected void onWalletInactive(final Wallet wallet) {
+            index.removeOnChangedListener(onIndexChangedListener);
+        }
+
+        private final Runnable onIndexChangedListener = () -> handler.post(this::triggerLoad);
+
         @Override
         protected void load() {
-            final Wallet wallet = getWallet();
+            final Boolean maintenanceRecommended = index.isMaintenanceRecommended();
+            if (maintenanceRecommended != null) {
+                setValue(maintenanceRecommended);
+                return;
+            }
             AsyncTask.execute(() -> {
                 org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-                try {
-                    final ListenableFuture<List<Transaction>> result = wallet.doMaintenance(null, false);
-                    postValue(!result.get().isEmpty());
-                } catch (final DeterministicUpgradeRequiresPassword x) {
-                    postValue(true);
-                } catch (final Exception x) {
-                    throw new RuntimeException(x);
-                }
+                postValue(index.update());
             });
         }
     }
@@ -40,7 +40,8 @@ import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.addressbook.AddressBookLabels;
+import de.schildbach.wallet.exchangerate.ExchangeRateHistory;
 import de.schildbach.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
 import de.schildbach.wallet.util.Formats;
 import de.schildbach.wallet.util.WalletUtils;
@@ -62,7 +63,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -71,14 +71,15 @@ import java.util.Objects;
 public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListItem, RecyclerView.ViewHolder> {
     public static List<ListItem> buildListItems(final Context context, final List<Transaction> transactions,
             final WarningType warning, final @Nullable Wallet wallet,
-            final @Nullable Map<String, AddressBookEntry> addressBook, final MonetaryFormat format,
-            final int maxConnectedPeers) {
+            final @Nullable AddressBookLabels addressBookLabels, final MonetaryFormat format,
+            final int maxConnectedPeers, final @Nullable ExchangeRateHistory rateHistory) {
         final MonetaryFormat noCodeFormat = format.noCode();
         final List<ListItem> items = new ArrayList<>(transactions.size() + 1);
         if (warning != null)
             items.add(new ListItem.WarningItem(warning));
         for (final Transaction tx : transactions)
-            items.add(new ListItem.TransactionItem(context, tx, wallet, addressBook, noCodeFormat, maxConnectedPeers));
+            items.add(new ListItem.TransactionItem(context, tx, wallet, addressBookLabels, noCodeFormat, maxConnectedPeers,
+                    rateHistory));
         return items;
     }
 
@@ -124,8 +125,8 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
             public final int messageColor;
 
             public TransactionItem(final Context context, final Transaction tx, final @Nullable Wallet wallet,
-                    final @Nullable Map<String, AddressBookEntry> addressBook, final MonetaryFormat format,
-                    final int maxConnectedPeers) {
+                    final @Nullable AddressBookLabels addressBookLabels, final MonetaryFormat format,
+                    final int maxConnectedPeers, final @Nullable ExchangeRateHistory rateHistory) {
                 super(id(tx.getTxId()));
                 this.transactionId = tx.getTxId();
 
@@ -245,16 +246,8 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 // address
                 final Address address = sent ? WalletUtils.getToAddressOfSent(tx, wallet)
                         : WalletUtils.getWalletAddressOfReceived(tx, wallet);
-                final String addressLabel;
-                if (addressBook == null || address == null) {
-                    addressLabel = null;
-                } else {
-                    final AddressBookEntry entry = addressBook.get(address.toString());
-                    if (entry != null)
-                        addressLabel = entry.getLabel();
-                    else
-                        addressLabel = null;
-                }
+                final String addressLabel = addressBookLabels != null && address != null ?
+                        addressBookLabels.resolveLabel(address) : null;
                 if (tx.isCoinBase()) {
                     this.address = SpannedString
                             .valueOf(context.getString(R.string.wallet_transactions_fragment_coinbase));
@@ -307,8 +300,10 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.value = showFee ? value.add(fee) : value;
                 }
 
-                // fiat value
-                final ExchangeRate exchangeRate = tx.getExchangeRate();
+                // fiat value, falling back to the rate history for transactions that didn't record a rate
+                ExchangeRate exchangeRate = tx.getExchangeRate();
+                if (exchangeRate == null && rateHistory != null && tx.getUpdateTime() != null)
+                    exchangeRate = rateHistory.nearest(tx.getUpdateTime().getTime());
                 if (exchangeRate != null && !value.isZero()) {
                     this.fiat = exchangeRate.coinToFiat(value);
                     this.fiatFormat = Constants.LOCAL_FORMAT.code(0,
@@ -45,7 +45,6 @@ import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.addressbook.AddressBookDao;
 import de.schildbach.wallet.addressbook.AddressBookDatabase;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.util.Qr;
 import de.schildbach.wallet.util.Toast;
 import org.bitcoinj.core.Address;
@@ -107,7 +106,7 @@ public final class WalletAddressesFragment extends Fragment implements AddressBo
         viewModel = new ViewModelProvider(this).get(WalletAddressesViewModel.class);
         viewModel.issuedReceiveAddresses.observe(this, issuedReceiveAddresses -> maybeSubmitList());
         viewModel.importedAddresses.observe(this, importedAddresses -> maybeSubmitList());
-        viewModel.addressBook.observe(this, addressBook -> maybeSubmitList());
+        viewModel.addressBookLabels.observe(this, addressBookLabels -> maybeSubmitList());
         viewModel.ownName.observe(this, ownName -> {});
         viewModel.showBitmapDialog.observe(this, new Event.Observer<Bitmap>() {
             @Override
@@ -150,7 +149,7 @@ public final class WalletAddressesFragment extends Fragment implements AddressBo
         if (derivedAddresses != null && randomAddresses != null) {
             viewGroup.setDisplayedChild(1);
             adapter.submitList(AddressBookAdapter.buildListItems(activity, derivedAddresses, randomAddresses, wallet,
-                    AddressBookEntry.asMap(viewModel.addressBook.getValue())));
+                    viewModel.addressBookLabels.getValue()));
         }
     }
 
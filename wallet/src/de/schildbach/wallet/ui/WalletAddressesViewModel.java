@@ -21,13 +21,11 @@ import android.app.Application;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
-import de.schildbach.wallet.addressbook.AddressBookDatabase;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
+import de.schildbach.wallet.data.AddressBookLabelsLiveData;
 import de.schildbach.wallet.data.ConfigOwnNameLiveData;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.ECKey;
@@ -47,7 +45,7 @@ public class WalletAddressesViewModel extends AndroidViewModel {
     private final WalletApplication application;
     public final IssuedReceiveAddressesLiveData issuedReceiveAddresses;
     public final ImportedAddressesLiveData importedAddresses;
-    public final LiveData<List<AddressBookEntry>> addressBook;
+    public final AddressBookLabelsLiveData addressBookLabels;
     public final ConfigOwnNameLiveData ownName;
     public final MutableLiveData<Event<Bitmap>> showBitmapDialog = new MutableLiveData<>();
     public final MutableLiveData<Event<Address>> showEditAddressBookEntryDialog = new MutableLiveData<>();
@@ -57,7 +55,7 @@ public class WalletAddressesViewModel extends AndroidViewModel {
         this.application = (WalletApplication) application;
         this.issuedReceiveAddresses = new IssuedReceiveAddressesLiveData(this.application);
         this.importedAddresses = new ImportedAddressesLiveData(this.application);
-        this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
+        this.addressBookLabels = AddressBookLabelsLiveData.get(this.application);
         this.ownName = new ConfigOwnNameLiveData(this.application);
     }
 
@@ -21,16 +21,18 @@ import android.app.Application;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
+import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
-import de.schildbach.wallet.addressbook.AddressBookDatabase;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.addressbook.AddressBookLabels;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
+import de.schildbach.wallet.data.AddressBookLabelsLiveData;
 import de.schildbach.wallet.data.ConfigFormatLiveData;
 import de.schildbach.wallet.data.WalletLiveData;
+import de.schildbach.wallet.exchangerate.ExchangeRateHistory;
+import de.schildbach.wallet.exchangerate.ExchangeRatesRepository;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Sha256Hash;
@@ -51,7 +53,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -66,7 +67,7 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
     public final TransactionsLiveData transactions;
     public final WalletLiveData wallet;
     private final TransactionsConfidenceLiveData transactionsConfidence;
-    private final LiveData<List<AddressBookEntry>> addressBook;
+    private final AddressBookLabelsLiveData addressBookLabels;
     private final ConfigFormatLiveData configFormat;
     public final MutableLiveData<Direction> direction = new MutableLiveData<>();
     public final MutableLiveData<Sha256Hash> selectedTransaction = new MutableLiveData<>();
@@ -82,12 +83,12 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
         this.transactions = new TransactionsLiveData(this.application);
         this.wallet = new WalletLiveData(this.application);
         this.transactionsConfidence = new TransactionsConfidenceLiveData(this.application);
-        this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
+        this.addressBookLabels = AddressBookLabelsLiveData.get(this.application);
         this.configFormat = new ConfigFormatLiveData(this.application);
         this.list.addSource(transactions, transactions -> maybePostList());
         this.list.addSource(wallet, wallet -> maybePostList());
         this.list.addSource(transactionsConfidence, v -> maybePostList());
-        this.list.addSource(addressBook, addressBook -> maybePostList());
+        this.list.addSource(addressBookLabels, addressBookLabels -> maybePostList());
         this.list.addSource(direction, direction -> maybePostList());
         this.list.addSource(configFormat, format -> maybePostList());
     }
@@ -105,9 +106,8 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
             final Set<Transaction> transactions = WalletTransactionsViewModel.this.transactions.getValue();
             final MonetaryFormat format = configFormat.getValue();
-            final Map<String, AddressBookEntry> addressBook = AddressBookEntry
-                    .asMap(WalletTransactionsViewModel.this.addressBook.getValue());
-            if (transactions != null && format != null && addressBook != null) {
+            final AddressBookLabels addressBookLabels = WalletTransactionsViewModel.this.addressBookLabels.getValue();
+            if (transactions != null && format != null && addressBookLabels != null) {
                 final List<Transaction> filteredTransactions = new ArrayList<>(transactions.size());
                 final Wallet wallet = application.getWallet();
                 final Direction direction = WalletTransactionsViewModel.this.direction.getValue();
@@ -121,8 +121,14 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
 
                 Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
 
+                final Configuration config = application.getConfiguration();
+                final String currencyCode = config.getExchangeCurrencyCode();
+                final ExchangeRateHistory rateHistory = config.isEnableExchangeRates() && currencyCode != null ?
+                        ExchangeRatesRepository.get(application).exchangeRateHistory(currencyCode) : null;
+
                 list.postValue(TransactionsAdapter.buildListItems(application, filteredTransactions,
-                        warning.getValue(), wallet, addressBook, format, application.maxConnectedPeers()));
+                        warning.getValue(), wallet, addressBookLabels, format, application.maxConnectedPeers(),
+                        rateHistory));
             }
         });
     }
@@ -40,7 +40,11 @@ import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
-import com.google.common.io.CharStreams;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
@@ -51,23 +55,18 @@ import de.schildbach.wallet.ui.ShowPasswordCheckListener;
 import de.schildbach.wallet.util.Crypto;
 import de.schildbach.wallet.util.Toast;
 import de.schildbach.wallet.util.WalletUtils;
-import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.WalletProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.TimeZone;
 
@@ -114,40 +113,28 @@ public class BackupWalletDialogFragment extends DialogFragment {
                                     wipePasswords();
                                     dismiss();
 
-                                    byte[] plainBytes = null;
-                                    try (final Writer cipherOut = new OutputStreamWriter(
-                                            activity.getContentResolver().openOutputStream(uri),
-                                            StandardCharsets.UTF_8)) {
-                                        final Protos.Wallet walletProto =
-                                                new WalletProtobufSerializer().walletToProto(wallet);
-                                        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                        walletProto.writeTo(baos);
-                                        baos.close();
-                                        plainBytes = baos.toByteArray();
-
-                                        final String cipherText = Crypto.encrypt(plainBytes, password.toCharArray());
-                                        cipherOut.write(cipherText);
-                                        cipherOut.flush();
-
-                                        log.info("backed up wallet to: '{}'{}, {} characters written", uri,
-                                                targetProvider != null ? " (" + targetProvider + ")" : "",
-                                                cipherText.length());
+                                    // only hashes of the plain bytes are kept for verification
+                                    final HashCode plainHash;
+                                    try (final HashingOutputStream plainOut = new HashingOutputStream(
+                                            Hashing.sha256(), Crypto.encryptingOutputStream(new OutputStreamWriter(
+                                                    activity.getContentResolver().openOutputStream(uri),
+                                                    StandardCharsets.UTF_8), password.toCharArray()))) {
+                                        new WalletProtobufSerializer().writeWallet(wallet, plainOut);
+                                        plainHash = plainOut.hash();
                                     } catch (final IOException x) {
                                         log.error("problem backing up wallet to " + uri, x);
                                         ErrorDialogFragment.showDialog(getParentFragmentManager(), x.toString());
                                         return;
                                     }
-
-                                    try (final Reader cipherIn = new InputStreamReader(
-                                            activity.getContentResolver().openInputStream(uri),
-                                            StandardCharsets.UTF_8)) {
-                                        final StringBuilder cipherText = new StringBuilder();
-                                        CharStreams.copy(cipherIn, cipherText);
-                                        cipherIn.close();
-
-                                        final byte[] plainBytes2 = Crypto.decryptBytes(cipherText.toString(),
-                                                password.toCharArray());
-                                        if (!Arrays.equals(plainBytes, plainBytes2))
+                                    log.info("backed up wallet to: '{}'{}", uri,
+                                            targetProvider != null ? " (" + targetProvider + ")" : "");
+
+                                    try (final HashingInputStream plainIn = new HashingInputStream(Hashing.sha256(),
+                                            Crypto.decryptingInputStream(new InputStreamReader(
+                                                    activity.getContentResolver().openInputStream(uri),
+                                                    StandardCharsets.UTF_8), password.toCharArray()))) {
+                                        ByteStreams.exhaust(plainIn);
+                                        if (!plainHash.equals(plainIn.hash()))
                                             throw new IOException("verification failed");
 
                                         log.info("verified successfully: '" + uri + "'");
@@ -37,7 +37,6 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
-import com.google.common.io.CharStreams;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
@@ -47,19 +46,14 @@ import de.schildbach.wallet.ui.AbstractWalletActivity;
 import de.schildbach.wallet.ui.DialogBuilder;
 import de.schildbach.wallet.ui.Event;
 import de.schildbach.wallet.ui.ShowPasswordCheckListener;
-import de.schildbach.wallet.util.Crypto;
 import de.schildbach.wallet.util.Toast;
 import de.schildbach.wallet.util.WalletUtils;
 import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -197,10 +191,22 @@ public class RestoreWalletDialogFragment extends DialogFragment {
                 protected boolean hasFile() {
                     return true;
                 }
+
+                @Override
+                protected boolean needsPassword() {
+                    return viewModel.needsPassword();
+                }
             };
             passwordView.addTextChangedListener(dialogButtonEnabler);
             showView.setOnCheckedChangeListener(new ShowPasswordCheckListener(passwordView));
 
+            viewModel.backupFormat.observe(RestoreWalletDialogFragment.this, format -> {
+                final int visibility = viewModel.needsPassword() ? View.VISIBLE : View.GONE;
+                passwordView.setVisibility(visibility);
+                showView.setVisibility(visibility);
+                dialogButtonEnabler.handle();
+            });
+
             viewModel.balance.observe(RestoreWalletDialogFragment.this, balance -> {
                 final boolean hasCoins = balance.signum() > 0;
                 replaceWarningView.setVisibility(hasCoins ? View.VISIBLE : View.GONE);
@@ -213,14 +219,14 @@ public class RestoreWalletDialogFragment extends DialogFragment {
     private void handleRestore(final String password) {
         final Uri backupUri = viewModel.backupUri.getValue();
         if (backupUri != null) {
-            try {
-                final InputStream is = contentResolver.openInputStream(backupUri);
-                final Wallet restoredWallet = restoreWalletFromEncrypted(is, password);
+            try (final InputStream is = contentResolver.openInputStream(backupUri)) {
+                final Wallet restoredWallet = WalletUtils.restoreWalletFromBackup(is, password.toCharArray(),
+                        Constants.NETWORK_PARAMETERS);
                 application.replaceWallet(restoredWallet);
                 config.disarmBackupReminder();
                 config.updateLastRestoreTime();
                 viewModel.showSuccessDialog.setValue(new Event<>(restoredWallet.isEncrypted()));
-                log.info("successfully restored encrypted wallet from external source");
+                log.info("successfully restored wallet from external source");
             } catch (final IOException x) {
                 viewModel.showFailureDialog.setValue(new Event<>(x.getMessage()));
                 log.info("problem restoring wallet", x);
@@ -232,18 +238,6 @@ public class RestoreWalletDialogFragment extends DialogFragment {
         }
     }
 
-    private Wallet restoreWalletFromEncrypted(final InputStream cipher, final String password) throws IOException {
-        final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(cipher, StandardCharsets.UTF_8));
-        final StringBuilder cipherText = new StringBuilder();
-        CharStreams.copy(cipherIn, cipherText);
-        cipherIn.close();
-
-        final byte[] plainText = Crypto.decryptBytes(cipherText.toString(), password.toCharArray());
-        final InputStream is = new ByteArrayInputStream(plainText);
-
-        return WalletUtils.restoreWalletFromProtobuf(is, Constants.NETWORK_PARAMETERS);
-    }
-
     public static class SuccessDialogFragment extends DialogFragment {
         private static final String FRAGMENT_TAG = SuccessDialogFragment.class.getName();
         private static final String KEY_SHOW_ENCRYPTED_MESSAGE = "show_encrypted_message";
@@ -19,11 +19,21 @@ package de.schildbach.wallet.ui.backup;
 
 import android.app.Application;
 import android.net.Uri;
+import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.data.WalletBalanceLiveData;
 import de.schildbach.wallet.ui.Event;
+import de.schildbach.wallet.util.WalletUtils;
+import de.schildbach.wallet.util.WalletUtils.BackupFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author Andreas Schildbach
@@ -33,12 +43,38 @@ public class RestoreWalletViewModel extends AndroidViewModel {
     public final WalletBalanceLiveData balance;
     public final MutableLiveData<Uri> backupUri = new MutableLiveData<>();
     public final MutableLiveData<String> displayName = new MutableLiveData<>();
+    /** Format of the picked backup, or {@code null} while unknown. */
+    public final MediatorLiveData<BackupFormat> backupFormat = new MediatorLiveData<>();
     public final MutableLiveData<Event<Boolean>> showSuccessDialog = new MutableLiveData<>();
     public final MutableLiveData<Event<String>> showFailureDialog = new MutableLiveData<>();
 
+    private static final Logger log = LoggerFactory.getLogger(RestoreWalletViewModel.class);
+
     public RestoreWalletViewModel(final Application application) {
         super(application);
         this.application = (WalletApplication) application;
         this.balance = new WalletBalanceLiveData(this.application);
+        this.backupFormat.addSource(backupUri, this::sniffBackupFormat);
+    }
+
+    private void sniffBackupFormat(final Uri uri) {
+        backupFormat.setValue(null);
+        AsyncTask.execute(() -> {
+            try (final InputStream is = application.getContentResolver().openInputStream(uri)) {
+                final BackupFormat format = WalletUtils.sniffBackupFormat(new BufferedInputStream(is));
+                log.info("picked backup has format {}", format);
+                backupFormat.postValue(format);
+            } catch (final IOException | RuntimeException x) {
+                log.info("cannot detect format of " + uri, x);
+            }
+        });
+    }
+
+    /**
+     * @return true unless the picked backup is known to be unencrypted
+     */
+    public boolean needsPassword() {
+        final BackupFormat format = backupFormat.getValue();
+        return format == null || format == BackupFormat.ENCRYPTED;
     }
 }
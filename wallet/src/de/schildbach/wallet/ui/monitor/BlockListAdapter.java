@@ -39,7 +39,7 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.addressbook.AddressBookLabels;
 import de.schildbach.wallet.ui.CurrencyTextView;
 import de.schildbach.wallet.ui.SeparatorViewHolder;
 import de.schildbach.wallet.util.WalletUtils;
@@ -70,7 +70,7 @@ import java.util.Set;
 public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, RecyclerView.ViewHolder> {
     public static List<ListItem> buildListItems(final Context context, final List<StoredBlock> blocks, final Date currentTime,
             final MonetaryFormat format, final @Nullable Set<Transaction> transactions, final @Nullable Wallet wallet,
-            final @Nullable Map<String, AddressBookEntry> addressBook) {
+            final @Nullable AddressBookLabels addressBookLabels) {
         final List<ListItem> items = new ArrayList<>(blocks.size());
         for (final StoredBlock block : blocks) {
             final Sha256Hash blockHash = block.getHeader().getHash();
@@ -83,7 +83,7 @@ public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, Rec
             else
                 time = context.getString(R.string.block_row_now);
             final List<ListItem.TxItem> transactionItems = buildTransactionItems(context, blockHash, transactions,
-                    wallet, addressBook);
+                    wallet, addressBookLabels);
             if (((AbstractBitcoinNetParams) Constants.NETWORK_PARAMETERS).isRewardHalvingPoint(height))
                 items.add(new ListItem.SeparatorItem(context.getString(R.string.block_row_mining_reward_adjustment)));
             if (((AbstractBitcoinNetParams) Constants.NETWORK_PARAMETERS).isDifficultyTransitionPoint(height))
@@ -96,7 +96,7 @@ public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, Rec
     private static List<ListItem.TxItem> buildTransactionItems(final Context context, final Sha256Hash blockHash,
                                                                final @Nullable Set<Transaction> transactions,
                                                                final @Nullable Wallet wallet,
-                                                               final @Nullable Map<String, AddressBookEntry> addressBook) {
+                                                               final @Nullable AddressBookLabels addressBookLabels) {
         final List<ListItem.TxItem> transactionItems = new LinkedList<>();
         if (transactions != null && wallet != null) {
             for (final Transaction tx : transactions) {
@@ -127,12 +127,9 @@ public class BlockListAdapter extends ListAdapter<BlockListAdapter.ListItem, Rec
                         label = context.getString(R.string.wallet_transactions_fragment_coinbase);
                     } else if (isInternal || self) {
                         label = context.getString(R.string.wallet_transactions_fragment_internal);
-                    } else if (address != null && addressBook != null) {
-                        final AddressBookEntry entry = addressBook.get(address.toString());
-                        if (entry != null)
-                            label = entry.getLabel();
-                        else
-                            label = "?";
+                    } else if (address != null && addressBookLabels != null) {
+                        final String addressBookLabel = addressBookLabels.resolveLabel(address);
+                        label = addressBookLabel != null ? addressBookLabel : "?";
                     } else {
                         label = "?";
                     }
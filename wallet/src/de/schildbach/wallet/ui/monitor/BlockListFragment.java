@@ -37,7 +37,6 @@ import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.ui.AbstractWalletActivity;
 import de.schildbach.wallet.ui.AbstractWalletActivityViewModel;
 import de.schildbach.wallet.ui.StickToTopLinearLayoutManager;
@@ -48,7 +47,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Andreas Schildbach
@@ -127,9 +125,9 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
         final List<StoredBlock> blocks = viewModel.blocks.getValue();
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         if (blocks != null) {
-            final Map<String, AddressBookEntry> addressBook = AddressBookEntry.asMap(viewModel.addressBook.getValue());
             adapter.submitList(BlockListAdapter.buildListItems(activity, blocks, viewModel.getTime().getValue(),
-                    config.getFormat(), viewModel.getTransactions().getValue(), wallet, addressBook));
+                    config.getFormat(), viewModel.getTransactions().getValue(), wallet,
+                    viewModel.addressBookLabels.getValue()));
         }
     }
 
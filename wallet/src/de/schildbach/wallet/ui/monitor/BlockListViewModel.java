@@ -20,13 +20,11 @@ package de.schildbach.wallet.ui.monitor;
 import android.app.Application;
 import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
-import de.schildbach.wallet.addressbook.AddressBookDatabase;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
 import de.schildbach.wallet.data.AbstractWalletLiveData;
+import de.schildbach.wallet.data.AddressBookLabelsLiveData;
 import de.schildbach.wallet.data.BlockchainServiceLiveData;
 import de.schildbach.wallet.data.TimeLiveData;
 import de.schildbach.wallet.service.BlockchainService;
@@ -48,7 +46,7 @@ public class BlockListViewModel extends AndroidViewModel {
     private final BlockchainServiceLiveData blockchainService;
     public final MediatorLiveData<List<StoredBlock>> blocks;
     private TransactionsLiveData transactions;
-    public final LiveData<List<AddressBookEntry>> addressBook;
+    public final AddressBookLabelsLiveData addressBookLabels;
     private TimeLiveData time;
 
     private static final int MAX_BLOCKS = 100;
@@ -60,7 +58,7 @@ public class BlockListViewModel extends AndroidViewModel {
         this.blocks = new MediatorLiveData<>();
         this.blocks.addSource(blockchainService, blockchainService -> maybeRefreshBlocks());
         this.blocks.addSource(this.application.blockchainState, blockchainState -> maybeRefreshBlocks());
-        this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
+        this.addressBookLabels = AddressBookLabelsLiveData.get(this.application);
     }
 
     private void maybeRefreshBlocks() {
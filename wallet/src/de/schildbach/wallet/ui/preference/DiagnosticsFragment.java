@@ -19,6 +19,9 @@ package de.schildbach.wallet.ui.preference;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceScreen;
@@ -44,8 +47,15 @@ public final class DiagnosticsFragment extends PreferenceFragment {
     private WalletApplication application;
     private Configuration config;
 
+    private final Handler handler = new Handler();
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+
+    private Preference scryptCalibrationPreference;
+
     private static final String PREFS_KEY_INITIATE_RESET = "initiate_reset";
     private static final String PREFS_KEY_EXTENDED_PUBLIC_KEY = "extended_public_key";
+    private static final String PREFS_KEY_SCRYPT_CALIBRATION = "scrypt_calibration";
 
     private static final Logger log = LoggerFactory.getLogger(DiagnosticsFragment.class);
 
@@ -62,6 +72,20 @@ public final class DiagnosticsFragment extends PreferenceFragment {
         super.onCreate(savedInstanceState);
 
         addPreferencesFromResource(R.xml.preference_diagnostics);
+
+        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+
+        scryptCalibrationPreference = findPreference(PREFS_KEY_SCRYPT_CALIBRATION);
+        updateScryptCalibration();
+    }
+
+    @Override
+    public void onDestroy() {
+        backgroundThread.getLooper().quit();
+
+        super.onDestroy();
     }
 
     @Override
@@ -74,6 +98,9 @@ public final class DiagnosticsFragment extends PreferenceFragment {
         } else if (PREFS_KEY_EXTENDED_PUBLIC_KEY.equals(key)) {
             handleExtendedPublicKey();
             return true;
+        } else if (PREFS_KEY_SCRYPT_CALIBRATION.equals(key)) {
+            handleScryptCalibration();
+            return true;
         }
 
         return false;
@@ -93,6 +120,27 @@ public final class DiagnosticsFragment extends PreferenceFragment {
         dialog.show();
     }
 
+    private void handleScryptCalibration() {
+        scryptCalibrationPreference.setEnabled(false);
+        scryptCalibrationPreference.setSummary(R.string.preferences_scrypt_calibration_summary_progress);
+        backgroundHandler.post(() -> {
+            application.calibrateScrypt();
+            handler.post(() -> {
+                scryptCalibrationPreference.setEnabled(true);
+                updateScryptCalibration();
+            });
+        });
+    }
+
+    private void updateScryptCalibration() {
+        final int iterations = config.getScryptIterations();
+        if (iterations > 0)
+            scryptCalibrationPreference.setSummary(getString(R.string.preferences_scrypt_calibration_summary,
+                    iterations, config.getScryptLatencyMs()));
+        else
+            scryptCalibrationPreference.setSummary(R.string.preferences_scrypt_calibration_summary_none);
+    }
+
     private void handleExtendedPublicKey() {
         final DeterministicKeyChain activeKeyChain = application.getWallet().getActiveKeyChain();
         final DeterministicKey extendedKey = activeKeyChain.getWatchingKey();
@@ -0,0 +1,249 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.BIP38PrivateKey;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decrypts BIP38 private keys by trying candidate passphrases. Each attempt runs scrypt, so attempts are spread
+ * across a bounded number of threads. Once a key is decrypted, its remaining attempts are skipped. Decrypted keys
+ * are only accepted if they match the address hash of the encrypted key.
+ *
+ * <p>
+ * Scrypt itself can't be interrupted, so {@link #cancel()} drops attempts that haven't started yet and wakes up
+ * {@link #decode(List, List, Listener)} so it returns right away, while attempts already running finish in the
+ * background and their results are discarded. An instance can only be used for one decode.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BIP38Decoder {
+    private final int parallelism;
+    private final List<Future<Attempt>> futures = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<Future<Attempt>> completionQueue = new LinkedBlockingQueue<>();
+    private volatile boolean cancelled = false;
+
+    /** Put into the completion queue by {@link #cancel()}, to wake up the decoding thread. */
+    private static final Future<Attempt> CANCEL_MARKER = new FutureTask<>(() -> null);
+
+    private static final Logger log = LoggerFactory.getLogger(BIP38Decoder.class);
+
+    public static final class Attempt {
+        public final BIP38PrivateKey encryptedKey;
+        /** index into the list of candidate passphrases */
+        public final int candidate;
+        public final boolean success;
+        public final long durationMs;
+        private final int index;
+
+        private Attempt(final BIP38PrivateKey encryptedKey, final int index, final int candidate,
+                final boolean success, final long durationMs) {
+            this.encryptedKey = encryptedKey;
+            this.index = index;
+            this.candidate = candidate;
+            this.success = success;
+            this.durationMs = durationMs;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the decoding thread after each finished attempt. Skipped attempts count as done, too.
+         */
+        void onAttempt(Attempt attempt, int numDone, int numTotal);
+    }
+
+    public BIP38Decoder(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Candidate passphrases for what the user typed: trimmed and as typed, each also with inverted case in case
+     * caps lock was on. Duplicates and empty passphrases are left out.
+     */
+    public static List<String> candidatePassphrases(final String input) {
+        final Set<String> candidates = new LinkedHashSet<>();
+        for (final String passphrase : new String[] { input.trim(), input }) {
+            if (!passphrase.isEmpty())
+                candidates.add(passphrase);
+        }
+        for (final String passphrase : new ArrayList<>(candidates))
+            candidates.add(invertCase(passphrase));
+        return new ArrayList<>(candidates);
+    }
+
+    private static String invertCase(final String str) {
+        final StringBuilder builder = new StringBuilder(str.length());
+        str.codePoints().forEach(c -> {
+            if (Character.isUpperCase(c))
+                builder.appendCodePoint(Character.toLowerCase(c));
+            else if (Character.isLowerCase(c))
+                builder.appendCodePoint(Character.toUpperCase(c));
+            else
+                builder.appendCodePoint(c);
+        });
+        return builder.toString();
+    }
+
+    /**
+     * Blocks until every key has been decrypted or all candidates have been tried.
+     *
+     * @return decrypted keys, in the order of the encrypted keys; keys that couldn't be decrypted are missing
+     * @throws CancellationException
+     *             if {@link #cancel()} was called
+     */
+    public Map<BIP38PrivateKey, ECKey> decode(final List<BIP38PrivateKey> encryptedKeys,
+            final List<String> passphrases, @Nullable final Listener listener) throws InterruptedException {
+        final int numKeys = encryptedKeys.size();
+        final int numTotal = numKeys * passphrases.size();
+        final AtomicReferenceArray<ECKey> decryptedKeys = new AtomicReferenceArray<>(numKeys);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, numTotal)),
+                new ContextPropagatingThreadFactory("decode private key"));
+        try {
+            final CompletionService<Attempt> completionService = new ExecutorCompletionService<>(executor,
+                    completionQueue);
+            final List<List<Future<Attempt>>> futuresByKey = new ArrayList<>(numKeys);
+            for (int k = 0; k < numKeys; k++)
+                futuresByKey.add(new ArrayList<>(passphrases.size()));
+            // most likely passphrase first, for all keys
+            for (int p = 0; p < passphrases.size(); p++) {
+                for (int k = 0; k < numKeys; k++) {
+                    final int iKey = k, iPassphrase = p;
+                    final Future<Attempt> future = completionService.submit(() -> attempt(encryptedKeys.get(iKey),
+                            passphrases.get(iPassphrase), iPassphrase, iKey, decryptedKeys));
+                    futuresByKey.get(k).add(future);
+                    futures.add(future);
+                }
+            }
+            if (cancelled)
+                cancelFutures();
+
+            for (int numDone = 1; numDone <= numTotal; numDone++) {
+                final Future<Attempt> future = completionService.take();
+                if (cancelled || future == CANCEL_MARKER)
+                    throw new CancellationException();
+                if (future.isCancelled())
+                    continue;
+                final Attempt attempt;
+                try {
+                    attempt = future.get();
+                } catch (final ExecutionException x) {
+                    throw new RuntimeException(x.getCause());
+                }
+                if (attempt == null)
+                    continue;
+                if (attempt.success) {
+                    for (final Future<Attempt> f : futuresByKey.get(attempt.index))
+                        f.cancel(false);
+                }
+                if (listener != null)
+                    listener.onAttempt(attempt, numDone, numTotal);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Map<BIP38PrivateKey, ECKey> result = new LinkedHashMap<>();
+        for (int k = 0; k < numKeys; k++) {
+            final ECKey decryptedKey = decryptedKeys.get(k);
+            if (decryptedKey != null)
+                result.put(encryptedKeys.get(k), decryptedKey);
+        }
+        return result;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        cancelFutures();
+        completionQueue.add(CANCEL_MARKER);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void cancelFutures() {
+        // drops attempts that haven't started; running ones can't be interrupted and just finish
+        for (final Future<Attempt> future : futures)
+            future.cancel(true);
+    }
+
+    @Nullable
+    private Attempt attempt(final BIP38PrivateKey encryptedKey, final String passphrase, final int candidate,
+            final int index, final AtomicReferenceArray<ECKey> decryptedKeys) {
+        if (cancelled || decryptedKeys.get(index) != null)
+            return null; // skip
+        final Stopwatch watch = Stopwatch.createStarted();
+        boolean success = false;
+        try {
+            final ECKey key = encryptedKey.decrypt(passphrase); // takes time
+            if (verifyAddressHash(encryptedKey, key))
+                success = decryptedKeys.compareAndSet(index, null, key);
+            else
+                log.warn("decrypted key doesn't match address hash of {}", encryptedKey);
+        } catch (final BIP38PrivateKey.BadPassphraseException x) {
+            // try next candidate
+        } catch (final RuntimeException x) {
+            log.info("failed decoding BIP38 private key", x);
+        }
+        watch.stop();
+        final long durationMs = watch.elapsed(TimeUnit.MILLISECONDS);
+        log.info("attempt with candidate #{} on key #{} {}, took {}", candidate, index,
+                success ? "succeeded" : "failed", watch);
+        return new Attempt(encryptedKey, index, candidate, success, durationMs);
+    }
+
+    /**
+     * Checks the decrypted key against the address hash stored in the encrypted key, which is how BIP38 detects
+     * wrong passphrases.
+     */
+    static boolean verifyAddressHash(final BIP38PrivateKey encryptedKey, final ECKey key) {
+        final String address = LegacyAddress.fromKey(encryptedKey.getParameters(), key).toString();
+        final byte[] hash = Sha256Hash.hashTwice(address.getBytes(StandardCharsets.US_ASCII));
+        return Arrays.equals(Arrays.copyOfRange(hash, 0, 4), encryptedKey.addressHash);
+    }
+}
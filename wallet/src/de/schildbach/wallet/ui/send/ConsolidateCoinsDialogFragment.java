@@ -0,0 +1,299 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.DialogFragment;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.ViewModelProvider;
+import de.schildbach.wallet.Configuration;
+import de.schildbach.wallet.R;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.ui.AbstractWalletActivity;
+import de.schildbach.wallet.ui.AbstractWalletActivityViewModel;
+import de.schildbach.wallet.ui.DialogBuilder;
+import de.schildbach.wallet.util.WalletUtils;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.SendRequest;
+import org.bitcoinj.wallet.Wallet;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ConsolidateCoinsDialogFragment extends DialogFragment {
+    private static final String FRAGMENT_TAG = ConsolidateCoinsDialogFragment.class.getName();
+    private static final long REMIND_AGAIN_MS = DateUtils.WEEK_IN_MILLIS;
+
+    public static void show(final FragmentManager fm) {
+        Fragment fragment = fm.findFragmentByTag(FRAGMENT_TAG);
+        if (fragment == null) {
+            fragment = new ConsolidateCoinsDialogFragment();
+            fm.beginTransaction().add(fragment, FRAGMENT_TAG).commit();
+        }
+    }
+
+    private AbstractWalletActivity activity;
+    private WalletApplication application;
+    private Configuration config;
+
+    @Nullable
+    private AlertDialog dialog;
+
+    private TextView messageView;
+    private View passwordGroup;
+    private EditText passwordView;
+    private View badPasswordView;
+    private Button positiveButton, negativeButton;
+
+    private AbstractWalletActivityViewModel walletActivityViewModel;
+    private ConsolidateCoinsViewModel viewModel;
+
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+
+    private enum State {
+        INPUT, DECRYPTING, DONE
+    }
+
+    private State state = State.INPUT;
+
+    private static final Logger log = LoggerFactory.getLogger(ConsolidateCoinsDialogFragment.class);
+
+    @Override
+    public void onAttach(final Context context) {
+        super.onAttach(context);
+        this.activity = (AbstractWalletActivity) context;
+        this.application = activity.getWalletApplication();
+        this.config = application.getConfiguration();
+    }
+
+    @Override
+    public void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        log.info("opening dialog {}", getClass().getName());
+
+        walletActivityViewModel = new ViewModelProvider(activity).get(AbstractWalletActivityViewModel.class);
+        viewModel = new ViewModelProvider(this).get(ConsolidateCoinsViewModel.class);
+        viewModel.plan.observe(this, plan -> updateView());
+        viewModel.planDetermined.observe(this, planDetermined -> updateView());
+
+        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+    }
+
+    @Override
+    public Dialog onCreateDialog(final Bundle savedInstanceState) {
+        final View view = LayoutInflater.from(activity).inflate(R.layout.consolidate_coins_dialog, null);
+
+        messageView = view.findViewById(R.id.consolidate_coins_dialog_message);
+
+        passwordGroup = view.findViewById(R.id.consolidate_coins_dialog_password_group);
+
+        passwordView = view.findViewById(R.id.consolidate_coins_dialog_password);
+        passwordView.setText(null);
+
+        badPasswordView = view.findViewById(R.id.consolidate_coins_dialog_bad_password);
+
+        final DialogBuilder builder = DialogBuilder.custom(activity, R.string.consolidate_coins_dialog_title, view);
+        // dummies, just to make buttons show
+        builder.setPositiveButton(R.string.consolidate_coins_dialog_button_combine, null);
+        builder.setNegativeButton(R.string.button_dismiss, null);
+        builder.setCancelable(false);
+
+        final AlertDialog dialog = builder.create();
+        dialog.setCanceledOnTouchOutside(false);
+
+        dialog.setOnShowListener(d -> {
+            positiveButton = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
+            negativeButton = dialog.getButton(DialogInterface.BUTTON_NEGATIVE);
+
+            positiveButton.setTypeface(Typeface.DEFAULT_BOLD);
+            positiveButton.setOnClickListener(v -> {
+                log.info("user decided to consolidate coins");
+                handleGo();
+            });
+            negativeButton.setOnClickListener(v -> {
+                log.info("user decided to dismiss");
+                config.setConsolidationDialogTimeIn(REMIND_AGAIN_MS);
+                dismissAllowingStateLoss();
+            });
+
+            passwordView.addTextChangedListener(textWatcher);
+
+            ConsolidateCoinsDialogFragment.this.dialog = dialog;
+            updateView();
+        });
+
+        log.info("showing consolidate coins dialog");
+
+        return dialog;
+    }
+
+    @Override
+    public void onDismiss(final DialogInterface dialog) {
+        this.dialog = null;
+
+        wipePasswords();
+
+        super.onDismiss(dialog);
+    }
+
+    @Override
+    public void onDestroy() {
+        backgroundThread.getLooper().quit();
+
+        super.onDestroy();
+    }
+
+    private void handleGo() {
+        state = State.DECRYPTING;
+        updateView();
+
+        final Wallet wallet = viewModel.wallet.getValue();
+
+        if (wallet.isEncrypted()) {
+            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget(),
+                    application.spendingKeySession()) {
+                @Override
+                protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
+                    if (wasChanged)
+                        WalletUtils.autoBackupWallet(activity, wallet);
+                    doConsolidate(wallet, encryptionKey);
+                }
+            }.deriveKey(wallet, passwordView.getText().toString().trim());
+
+            updateView();
+        } else {
+            doConsolidate(wallet, null);
+        }
+    }
+
+    private void doConsolidate(final Wallet wallet, final KeyParameter encryptionKey) {
+        final ConsolidationPlanner.Plan plan = viewModel.plan.getValue();
+        final SendRequest sendRequest = ConsolidationPlanner.toSendRequest(plan);
+        sendRequest.aesKey = encryptionKey;
+        final Transaction transactionToSend = sendRequest.tx;
+
+        try {
+            wallet.signTransaction(sendRequest);
+
+            log.info("consolidating {} coins, saving {} vbytes: {}", plan.outputs.size(), plan.vbytesSaved,
+                    transactionToSend);
+
+            walletActivityViewModel.broadcastTransaction(transactionToSend);
+
+            state = State.DONE;
+            updateView();
+
+            dismiss();
+        } catch (final Wallet.BadWalletEncryptionKeyException x) {
+            badPasswordView.setVisibility(View.VISIBLE);
+
+            state = State.INPUT;
+            updateView();
+
+            passwordView.requestFocus();
+
+            log.info("consolidate coins: bad spending password");
+        }
+    }
+
+    private void wipePasswords() {
+        passwordView.setText(null);
+    }
+
+    private void updateView() {
+        if (dialog == null)
+            return;
+
+        final Wallet wallet = viewModel.wallet.getValue();
+        final boolean needsPassword = wallet != null
+                && application.spendingKeySession().needsPassword(wallet);
+        final ConsolidationPlanner.Plan plan = viewModel.plan.getValue();
+
+        if (wallet == null || !viewModel.planDetermined.getValue()) {
+            messageView.setText(R.string.consolidate_coins_dialog_determining_fee);
+            passwordGroup.setVisibility(View.GONE);
+        } else if (plan == null) {
+            messageView.setText(R.string.consolidate_coins_dialog_nothing);
+            passwordGroup.setVisibility(View.GONE);
+        } else {
+            Coin value = Coin.ZERO;
+            for (final TransactionOutput output : plan.outputs)
+                value = value.add(output.getValue());
+            messageView.setText(getString(R.string.consolidate_coins_dialog_message, plan.outputs.size(),
+                    config.getFormat().format(value), config.getFormat().format(plan.fee), plan.vbytesSaved));
+            passwordGroup.setVisibility(needsPassword ? View.VISIBLE : View.GONE);
+        }
+
+        if (state == State.INPUT) {
+            positiveButton.setText(R.string.consolidate_coins_dialog_button_combine);
+            positiveButton.setEnabled((!needsPassword || passwordView.getText().toString().trim().length() > 0)
+                    && wallet != null && plan != null);
+            negativeButton.setEnabled(true);
+        } else if (state == State.DECRYPTING) {
+            positiveButton.setText(R.string.consolidate_coins_dialog_state_decrypting);
+            positiveButton.setEnabled(false);
+            negativeButton.setEnabled(false);
+        } else if (state == State.DONE) {
+            positiveButton.setText(R.string.consolidate_coins_dialog_state_done);
+            positiveButton.setEnabled(false);
+            negativeButton.setEnabled(false);
+        }
+    }
+
+    private final TextWatcher textWatcher = new TextWatcher() {
+        @Override
+        public void onTextChanged(final CharSequence s, final int start, final int before, final int count) {
+            badPasswordView.setVisibility(View.INVISIBLE);
+            updateView();
+        }
+
+        @Override
+        public void beforeTextChanged(final CharSequence s, final int start, final int count, final int after) {
+        }
+
+        @Override
+        public void afterTextChanged(final Editable s) {
+        }
+    };
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import android.app.Application;
+import android.os.AsyncTask;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.data.DynamicFeeLiveData;
+import de.schildbach.wallet.data.WalletLiveData;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.wallet.Wallet;
+
+import java.util.Map;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ConsolidateCoinsViewModel extends AndroidViewModel {
+    private final WalletApplication application;
+    private final DynamicFeeLiveData dynamicFees;
+    public final WalletLiveData wallet;
+    public final MediatorLiveData<ConsolidationPlanner.Plan> plan = new MediatorLiveData<>();
+    public final MutableLiveData<Boolean> planDetermined = new MutableLiveData<>(false);
+
+    public ConsolidateCoinsViewModel(final Application application) {
+        super(application);
+        this.application = (WalletApplication) application;
+        this.dynamicFees = new DynamicFeeLiveData(this.application);
+        this.wallet = new WalletLiveData(this.application);
+        this.plan.addSource(dynamicFees, dynamicFees -> maybePlan());
+        this.plan.addSource(wallet, wallet -> maybePlan());
+    }
+
+    private void maybePlan() {
+        final Map<FeeCategory, Coin> fees = dynamicFees.getValue();
+        final Wallet wallet = this.wallet.getValue();
+        if (fees == null || wallet == null)
+            return;
+        final Coin feePerKb = fees.get(FeeCategory.ECONOMIC);
+        final Coin feeCeiling = application.getConfiguration().getConsolidationFeeCeiling();
+        AsyncTask.execute(() -> {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+            plan.postValue(ConsolidationPlanner.plan(wallet, feePerKb, feeCeiling));
+            planDetermined.postValue(true);
+        });
+    }
+}
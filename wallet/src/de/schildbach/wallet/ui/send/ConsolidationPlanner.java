@@ -0,0 +1,171 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import de.schildbach.wallet.Constants;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptPattern;
+import org.bitcoinj.wallet.SendRequest;
+import org.bitcoinj.wallet.Wallet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plans merging many small confirmed coins into one coin sent to ourselves, so later payments need fewer inputs.
+ * Only coins that are worth more than what it costs to spend them are merged, and only while the fee rate does not
+ * exceed a given ceiling.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ConsolidationPlanner {
+    /** Coins below this value are considered small. */
+    private static final Coin SMALL_OUTPUT_THRESHOLD = Coin.MILLICOIN;
+    /** Consolidation is only proposed if at least this many small coins can be merged. */
+    private static final int MIN_INPUTS = 10;
+    /** Upper limit of inputs per consolidation transaction, to stay well below standardness limits. */
+    private static final int MAX_INPUTS = 200;
+
+    private static final int TX_OVERHEAD_VBYTES = 11;
+    private static final int P2WPKH_INPUT_VBYTES = 68;
+    private static final int P2PKH_INPUT_VBYTES = 148;
+    private static final int P2WPKH_OUTPUT_VBYTES = 31;
+    private static final int P2PKH_OUTPUT_VBYTES = 34;
+
+    public static final class Plan {
+        public final List<TransactionOutput> outputs;
+        public final Address destination;
+        public final Coin feePerKb;
+        public final Coin fee;
+        public final Coin value;
+        public final int vbytes;
+        /** Projected vbytes saved on a future payment that would otherwise have spent all these coins. */
+        public final int vbytesSaved;
+
+        private Plan(final List<TransactionOutput> outputs, final Address destination, final Coin feePerKb,
+                final Coin fee, final Coin value, final int vbytes, final int vbytesSaved) {
+            this.outputs = outputs;
+            this.destination = destination;
+            this.feePerKb = feePerKb;
+            this.fee = fee;
+            this.value = value;
+            this.vbytes = vbytes;
+            this.vbytesSaved = vbytesSaved;
+        }
+    }
+
+    private ConsolidationPlanner() {
+    }
+
+    /**
+     * @return a plan, or {@code null} if consolidation is not worth it or fees are above the ceiling
+     */
+    @WorkerThread
+    @Nullable
+    public static Plan plan(final Wallet wallet, final Coin feePerKb, final Coin feeCeilingPerKb) {
+        if (feePerKb.isGreaterThan(feeCeilingPerKb))
+            return null;
+
+        final List<TransactionOutput> candidates = new ArrayList<>();
+        for (final TransactionOutput output : wallet.calculateAllSpendCandidates(true, true)) {
+            if (output.getParentTransactionDepthInBlocks() < 1)
+                continue;
+            final Coin value = output.getValue();
+            if (!value.isLessThan(SMALL_OUTPUT_THRESHOLD))
+                continue;
+            final int inputVbytes = inputVbytes(output);
+            if (inputVbytes == 0)
+                continue;
+            // skip coins that would be eaten up by the fee of spending them
+            if (!value.isGreaterThan(feeForVbytes(feePerKb, inputVbytes)))
+                continue;
+            candidates.add(output);
+        }
+        if (candidates.size() < MIN_INPUTS)
+            return null;
+
+        Collections.sort(candidates, Comparator.comparing(TransactionOutput::getValue));
+        final List<TransactionOutput> outputs = candidates.size() > MAX_INPUTS ?
+                new ArrayList<>(candidates.subList(0, MAX_INPUTS)) : candidates;
+
+        Coin total = Coin.ZERO;
+        int inputsVbytes = 0;
+        for (final TransactionOutput output : outputs) {
+            total = total.add(output.getValue());
+            inputsVbytes += inputVbytes(output);
+        }
+        // the current change address is only advanced once it's used, so it's what the transaction will pay to
+        final Address destination = wallet.currentChangeAddress();
+        final Script.ScriptType destinationScriptType = destination.getOutputScriptType();
+        final int vbytes = txVbytes(inputsVbytes, destinationScriptType);
+        final Coin fee = feeForVbytes(feePerKb, vbytes);
+        final Coin value = total.subtract(fee);
+        if (value.isLessThan(Constants.MIN_NONDUST))
+            return null;
+        // a later payment spends the consolidated coin instead of all the small ones
+        final int vbytesSaved = inputsVbytes - inputVbytes(destinationScriptType);
+        return new Plan(Collections.unmodifiableList(outputs), destination, feePerKb, fee, value, vbytes,
+                vbytesSaved);
+    }
+
+    /**
+     * Builds the unsigned self-transfer for the given plan. The caller is expected to set the encryption key and
+     * sign it via {@link Wallet#signTransaction(SendRequest)}.
+     */
+    public static SendRequest toSendRequest(final Plan plan) {
+        final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS);
+        for (final TransactionOutput output : plan.outputs)
+            tx.addInput(output);
+        tx.addOutput(plan.value, plan.destination);
+        return SendRequest.forTx(tx);
+    }
+
+    private static int inputVbytes(final TransactionOutput output) {
+        final Script script = output.getScriptPubKey();
+        if (ScriptPattern.isP2WPKH(script))
+            return P2WPKH_INPUT_VBYTES;
+        else if (ScriptPattern.isP2PKH(script))
+            return P2PKH_INPUT_VBYTES;
+        else
+            return 0;
+    }
+
+    static int inputVbytes(final Script.ScriptType scriptType) {
+        return scriptType == Script.ScriptType.P2WPKH ? P2WPKH_INPUT_VBYTES : P2PKH_INPUT_VBYTES;
+    }
+
+    static int outputVbytes(final Script.ScriptType scriptType) {
+        return scriptType == Script.ScriptType.P2WPKH ? P2WPKH_OUTPUT_VBYTES : P2PKH_OUTPUT_VBYTES;
+    }
+
+    static int txVbytes(final int inputsVbytes, final Script.ScriptType outputScriptType) {
+        return TX_OVERHEAD_VBYTES + inputsVbytes + outputVbytes(outputScriptType);
+    }
+
+    private static Coin feeForVbytes(final Coin feePerKb, final int vbytes) {
+        return feePerKb.multiply(vbytes).divide(1000);
+    }
+}
@@ -21,32 +21,75 @@ import android.os.Handler;
 import android.os.Looper;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.crypto.BIP38PrivateKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 /**
+ * Decrypts BIP38 private keys using a {@link BIP38Decoder}, trying several candidate passphrases per key.
+ * Parallelism is bounded because each attempt runs scrypt, which needs 16 MB of memory.
+ *
  * @author Andreas Schildbach
  */
 public abstract class DecodePrivateKeyTask {
+    private static final int MAX_PARALLELISM = 4;
+
     private final Handler backgroundHandler;
     private final Handler callbackHandler;
+    private final BIP38Decoder decoder = new BIP38Decoder(
+            Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM));
+
+    private static final Logger log = LoggerFactory.getLogger(DecodePrivateKeyTask.class);
 
     public DecodePrivateKeyTask(final Handler backgroundHandler) {
         this.backgroundHandler = backgroundHandler;
         this.callbackHandler = new Handler(Looper.myLooper());
     }
 
-    public final void decodePrivateKey(final BIP38PrivateKey encryptedKey, final String passphrase) {
+    public final void decodePrivateKeys(final List<BIP38PrivateKey> encryptedKeys, final List<String> passphrases) {
         backgroundHandler.post(() -> {
             try {
-                final ECKey decryptedKey = encryptedKey.decrypt(passphrase); // takes time
-
-                callbackHandler.post(() -> onSuccess(decryptedKey));
-            } catch (final BIP38PrivateKey.BadPassphraseException x) {
-                callbackHandler.post(() -> onBadPassphrase());
+                final Map<BIP38PrivateKey, ECKey> decryptedKeys = decoder.decode(encryptedKeys, passphrases,
+                        (attempt, numDone, numTotal) -> callbackHandler.post(() -> {
+                            if (!decoder.isCancelled())
+                                onProgress(numDone, numTotal);
+                        }));
+                final List<BIP38PrivateKey> failedKeys = new ArrayList<>();
+                for (final BIP38PrivateKey encryptedKey : encryptedKeys)
+                    if (!decryptedKeys.containsKey(encryptedKey))
+                        failedKeys.add(encryptedKey);
+                callbackHandler.post(() -> {
+                    if (!decoder.isCancelled())
+                        onResult(new ArrayList<>(decryptedKeys.values()), failedKeys);
+                });
+            } catch (final CancellationException x) {
+                log.info("decoding BIP38 private keys cancelled");
+            } catch (final InterruptedException x) {
+                throw new RuntimeException(x);
             }
         });
     }
 
-    protected abstract void onSuccess(ECKey decryptedKey);
+    /**
+     * Stops decoding. Neither {@link #onProgress(int, int)} nor {@link #onResult(List, List)} will be called
+     * afterwards.
+     */
+    public final void cancel() {
+        decoder.cancel();
+    }
+
+    protected void onProgress(final int numDone, final int numTotal) {
+    }
 
-    protected abstract void onBadPassphrase();
+    /**
+     * @param decryptedKeys
+     *            keys that could be decrypted
+     * @param failedKeys
+     *            keys that could not be decrypted, most likely because of a bad passphrase
+     */
+    protected abstract void onResult(List<ECKey> decryptedKeys, List<BIP38PrivateKey> failedKeys);
 }
@@ -19,7 +19,10 @@ package de.schildbach.wallet.ui.send;
 
 import android.os.Handler;
 import android.os.Looper;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.util.KeyDerivation;
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
 import org.bitcoinj.wallet.Wallet;
@@ -37,13 +40,16 @@ public abstract class DeriveKeyTask {
     private final Handler backgroundHandler;
     private final Handler callbackHandler;
     private final int scryptIterationsTarget;
+    private final SpendingKeySession session;
 
     private static final Logger log = LoggerFactory.getLogger(DeriveKeyTask.class);
 
-    public DeriveKeyTask(final Handler backgroundHandler, final int scryptIterationsTarget) {
+    public DeriveKeyTask(final Handler backgroundHandler, final int scryptIterationsTarget,
+            final SpendingKeySession session) {
         this.backgroundHandler = backgroundHandler;
         this.callbackHandler = new Handler(Looper.myLooper());
         this.scryptIterationsTarget = scryptIterationsTarget;
+        this.session = session;
     }
 
     public final void deriveKey(final Wallet wallet, final String password) {
@@ -53,33 +59,50 @@ public abstract class DeriveKeyTask {
         backgroundHandler.post(() -> {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
+            // Skip derivation if the key is still remembered from a previous operation.
+            final KeyParameter sessionKey = session.get(keyCrypter);
+            if (sessionKey != null) {
+                log.info("using spending key from session");
+                callbackHandler.post(() -> onSuccess(sessionKey, false));
+                return;
+            }
+
+            // If the key is derived using weaker parameters than desired, derive a new key, in parallel if both
+            // derivations fit into memory together. Stronger parameters are kept, even if the target is lower.
+            final long scryptIterations = keyCrypter instanceof KeyCrypterScrypt ?
+                    ((KeyCrypterScrypt) keyCrypter).getScryptParameters().getN() : scryptIterationsTarget;
+            final KeyCrypterScrypt newKeyCrypter = scryptIterations < scryptIterationsTarget ?
+                    new KeyCrypterScrypt(scryptIterationsTarget) : null;
+            final ListenableFuture<KeyParameter> newKeyFuture = newKeyCrypter != null
+                    && KeyDerivation.fitsInParallel(keyCrypter, newKeyCrypter) ?
+                    KeyDerivation.deriveKeyAsync(newKeyCrypter, password) : null;
+
             // Key derivation takes time.
             KeyParameter key = keyCrypter.deriveKey(password);
             boolean wasChanged = false;
 
-            // If the key isn't derived using the desired parameters, derive a new key.
-            if (keyCrypter instanceof KeyCrypterScrypt) {
-                final long scryptIterations = ((KeyCrypterScrypt) keyCrypter).getScryptParameters().getN();
-
-                if (scryptIterations != scryptIterationsTarget) {
-                    log.info("upgrading scrypt iterations from {} to {}; re-encrypting wallet", scryptIterations,
-                            scryptIterationsTarget);
-
-                    final KeyCrypterScrypt newKeyCrypter = new KeyCrypterScrypt(scryptIterationsTarget);
-                    final KeyParameter newKey = newKeyCrypter.deriveKey(password);
-
-                    // Re-encrypt wallet with new key.
-                    try {
-                        wallet.changeEncryptionKey(newKeyCrypter, key, newKey);
-                        key = newKey;
-                        wasChanged = true;
-                        log.info("scrypt upgrade succeeded");
-                    } catch (final Wallet.BadWalletEncryptionKeyException x) {
-                        log.info("scrypt upgrade failed, bad spending password: {}", x.getMessage());
-                    }
+            if (newKeyCrypter != null) {
+                log.info("upgrading scrypt iterations from {} to {}; re-encrypting wallet", scryptIterations,
+                        scryptIterationsTarget);
+
+                final KeyParameter newKey = newKeyFuture != null ? Futures.getUnchecked(newKeyFuture) :
+                        newKeyCrypter.deriveKey(password);
+
+                // Re-encrypt wallet with new key.
+                try {
+                    wallet.changeEncryptionKey(newKeyCrypter, key, newKey);
+                    key = newKey;
+                    wasChanged = true;
+                    log.info("scrypt upgrade succeeded");
+                } catch (final Wallet.BadWalletEncryptionKeyException x) {
+                    log.info("scrypt upgrade failed, bad spending password: {}", x.getMessage());
                 }
             }
 
+            // Remember the key for subsequent operations, but only if it's the right one.
+            if (session.isEnabled() && wallet.checkAESKey(key))
+                session.put(checkNotNull(wallet.getKeyCrypter()), key);
+
             // Hand back the (possibly changed) encryption key.
             final KeyParameter keyToReturn = key;
             final boolean keyToReturnWasChanged = wasChanged;
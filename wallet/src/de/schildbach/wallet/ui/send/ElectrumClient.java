@@ -0,0 +1,222 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.Lists;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import de.schildbach.wallet.Constants;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.script.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal client for the Electrum protocol, which is JSON-RPC over a plain or TLS socket. Requests of the same kind
+ * go out together, as a JSON-RPC batch array, so a whole set of requests costs just one round trip. Responses are
+ * correlated by their id. If a server refuses batches, the requests are pipelined instead: written all at once, one
+ * per line, and then read back.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ElectrumClient implements Closeable {
+    private final Socket socket;
+    private final BufferedSink sink;
+    private final BufferedSource source;
+    private final JsonAdapter<ElectrumRequest> requestAdapter;
+    private final JsonAdapter<List<ElectrumRequest>> batchRequestAdapter;
+    private final Moshi moshi = new Moshi.Builder().build();
+    private boolean batchSupported = true;
+
+    /** Maximum number of requests per JSON-RPC batch. */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final Logger log = LoggerFactory.getLogger(ElectrumClient.class);
+
+    public static class ElectrumRequest {
+        public final int id;
+        public final String method;
+        public final String[] params;
+
+        private static final AtomicInteger idCounter = new AtomicInteger();
+
+        public ElectrumRequest(final String method, final String[] params) {
+            this(idCounter.getAndIncrement(), method, params);
+        }
+
+        public ElectrumRequest(final int id, final String method, final String[] params) {
+            this.id = id;
+            this.method = method;
+            this.params = params;
+        }
+    }
+
+    public abstract static class Response {
+        @Nullable
+        public Integer id;
+        @Nullable
+        public Error error;
+    }
+
+    public static class ListunspentResponse extends Response {
+        public Utxo[] result;
+
+        public static class Utxo {
+            public String tx_hash;
+            public int tx_pos;
+            public long value;
+            public int height;
+        }
+    }
+
+    public static class TransactionResponse extends Response {
+        public String result;
+    }
+
+    public static class Error {
+        public int code;
+        public String message;
+    }
+
+    public ElectrumClient(final Socket socket, final long timeoutMs) throws IOException {
+        this.socket = socket;
+        this.sink = Okio.buffer(Okio.sink(socket));
+        this.sink.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        this.source = Okio.buffer(Okio.source(socket));
+        this.source.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        this.requestAdapter = moshi.adapter(ElectrumRequest.class);
+        this.batchRequestAdapter = moshi.adapter(Types.newParameterizedType(List.class, ElectrumRequest.class));
+    }
+
+    /**
+     * @return one response per script, in the order of the given scripts
+     */
+    public List<ListunspentResponse> listunspent(final List<Script> outputScripts) throws IOException {
+        final List<ElectrumRequest> requests = new ArrayList<>(outputScripts.size());
+        for (final Script outputScript : outputScripts)
+            requests.add(new ElectrumRequest("blockchain.scripthash.listunspent",
+                    new String[] { Constants.HEX.encode(Sha256Hash.of(outputScript.getProgram()).getReversedBytes()) }));
+        return call(requests, ListunspentResponse.class);
+    }
+
+    /**
+     * @return one response per transaction id, in the order of the given ids
+     */
+    public List<TransactionResponse> getTransactions(final List<Sha256Hash> txIds) throws IOException {
+        final List<ElectrumRequest> requests = new ArrayList<>(txIds.size());
+        for (final Sha256Hash txId : txIds)
+            requests.add(new ElectrumRequest("blockchain.transaction.get",
+                    new String[] { Constants.HEX.encode(txId.getBytes()) }));
+        return call(requests, TransactionResponse.class);
+    }
+
+    /**
+     * Sends all requests in one go and waits for all responses.
+     *
+     * @return responses in the order of the requests
+     */
+    public <T extends Response> List<T> call(final List<ElectrumRequest> requests, final Class<T> responseType)
+            throws IOException {
+        if (requests.isEmpty())
+            return new ArrayList<>(0);
+        final JsonAdapter<T> responseAdapter = moshi.adapter(responseType);
+        final Map<Integer, T> responses = new HashMap<>(requests.size());
+
+        if (batchSupported && requests.size() > 1) {
+            // servers limit the size of batches, so large sets of requests go out as several pipelined batches
+            final List<List<ElectrumRequest>> batches = Lists.partition(requests, MAX_BATCH_SIZE);
+            for (final List<ElectrumRequest> batch : batches) {
+                batchRequestAdapter.toJson(sink, batch);
+                sink.writeUtf8("\n");
+            }
+            sink.flush();
+
+            for (int i = 0; i < batches.size(); i++) {
+                final JsonReader reader = JsonReader.of(source);
+                if (reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+                    // not a batch response, most likely an error
+                    final T response = responseAdapter.fromJson(reader);
+                    log.info("{} - batch requests not supported{}", socket.getRemoteSocketAddress(),
+                            response != null && response.error != null ? ": " + response.error.message : "");
+                    batchSupported = false;
+                    // skip the answers to the remaining batches, then fall back to pipelining
+                    for (int j = i + 1; j < batches.size(); j++)
+                        JsonReader.of(source).skipValue();
+                    responses.clear();
+                    break;
+                }
+                reader.beginArray();
+                while (reader.hasNext())
+                    putResponse(responses, responseAdapter.fromJson(reader));
+                reader.endArray();
+            }
+            if (batchSupported)
+                return inRequestOrder(requests, responses);
+        }
+
+        // pipeline: write all requests, then read all responses
+        for (final ElectrumRequest request : requests) {
+            requestAdapter.toJson(sink, request);
+            sink.writeUtf8("\n");
+        }
+        sink.flush();
+        for (int i = 0; i < requests.size(); i++)
+            putResponse(responses, responseAdapter.fromJson(source));
+        return inRequestOrder(requests, responses);
+    }
+
+    private static <T extends Response> void putResponse(final Map<Integer, T> responses, @Nullable final T response) {
+        if (response == null || response.id == null)
+            throw new JsonDataException("response without id");
+        responses.put(response.id, response);
+    }
+
+    private static <T extends Response> List<T> inRequestOrder(final List<ElectrumRequest> requests,
+            final Map<Integer, T> responses) {
+        final List<T> ordered = new ArrayList<>(requests.size());
+        for (final ElectrumRequest request : requests) {
+            final T response = responses.get(request.id);
+            if (response == null)
+                throw new JsonDataException("missing response for id " + request.id);
+            ordered.add(response);
+        }
+        return ordered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
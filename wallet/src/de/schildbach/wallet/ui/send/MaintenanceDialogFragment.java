@@ -195,7 +195,8 @@ public class MaintenanceDialogFragment extends DialogFragment {
         updateView();
 
         if (wallet.isEncrypted()) {
-            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
+            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget(),
+                    application.spendingKeySession()) {
                 @Override
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
@@ -250,7 +251,7 @@ public class MaintenanceDialogFragment extends DialogFragment {
         if (dialog == null)
             return;
 
-        final boolean needsPassword = wallet.isEncrypted();
+        final boolean needsPassword = application.spendingKeySession().needsPassword(wallet);
         passwordGroup.setVisibility(needsPassword ? View.VISIBLE : View.GONE);
 
         if (state == State.INPUT) {
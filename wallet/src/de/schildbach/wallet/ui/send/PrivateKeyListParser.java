@@ -0,0 +1,67 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.DumpedPrivateKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PrefixedChecksummedBytes;
+import org.bitcoinj.crypto.BIP38PrivateKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses a list of private keys, e.g. pasted from a spreadsheet of paper wallets. Keys may be separated by
+ * whitespace, commas or semicolons. Both WIF and BIP38 encoded keys are understood. Anything else is skipped.
+ *
+ * @author Andreas Schildbach
+ */
+public final class PrivateKeyListParser {
+    private static final Splitter SPLITTER = Splitter.on(CharMatcher.anyOf(" \t\r\n,;")).omitEmptyStrings()
+            .trimResults();
+
+    private PrivateKeyListParser() {
+    }
+
+    /**
+     * @return keys in the order they appear, without duplicates
+     */
+    public static List<PrefixedChecksummedBytes> parse(final NetworkParameters params, final CharSequence text) {
+        final Set<String> seen = new LinkedHashSet<>();
+        final List<PrefixedChecksummedBytes> keys = new ArrayList<>();
+        for (final String token : SPLITTER.split(text)) {
+            if (!seen.add(token))
+                continue;
+            try {
+                keys.add(DumpedPrivateKey.fromBase58(params, token));
+            } catch (final AddressFormatException x) {
+                try {
+                    keys.add(BIP38PrivateKey.fromBase58(params, token));
+                } catch (final AddressFormatException x2) {
+                    // not a key, skip
+                }
+            }
+        }
+        return keys;
+    }
+}
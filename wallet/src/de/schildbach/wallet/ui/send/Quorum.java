@@ -0,0 +1,123 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Collects result sets from a number of independent, possibly lying, sources as they arrive. The quorum is reached
+ * as soon as enough sources returned exactly the same set, so there is no need to wait for the slowest source. It
+ * is clear early if the quorum can no longer be reached, too.
+ *
+ * @author Andreas Schildbach
+ */
+final class Quorum<T> {
+    private final int numSources;
+    private final int threshold;
+    private final Multiset<Set<T>> identicalResults = HashMultiset.create();
+    private final Multiset<T> countedElements = HashMultiset.create();
+    private int numSuccess = 0, numFail = 0;
+    @Nullable
+    private Set<T> agreedResult = null;
+
+    /**
+     * @param numSources
+     *            number of sources that are being asked
+     * @param threshold
+     *            number of sources that need to agree
+     */
+    Quorum(final int numSources, final int threshold) {
+        this.numSources = numSources;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param result
+     *            result set of one source, or {@code null} if that source failed
+     */
+    void add(@Nullable final Set<T> result) {
+        checkState(numSuccess + numFail < numSources, "too many results");
+        if (result == null) {
+            numFail++;
+            return;
+        }
+        numSuccess++;
+        countedElements.addAll(result);
+        final int count = identicalResults.add(result, 1) + 1;
+        if (agreedResult == null && count >= threshold)
+            agreedResult = result;
+    }
+
+    /**
+     * @return number of sources that need to agree
+     */
+    int threshold() {
+        return threshold;
+    }
+
+    /**
+     * @return true if enough sources agreed on a result
+     */
+    boolean isReached() {
+        return agreedResult != null;
+    }
+
+    /**
+     * @return true if too many sources failed for the quorum to be reached
+     */
+    boolean isImpossible() {
+        return numSuccess + numPending() < threshold;
+    }
+
+    boolean isDecided() {
+        return isReached() || isImpossible() || numPending() == 0;
+    }
+
+    int numSuccess() {
+        return numSuccess;
+    }
+
+    int numFail() {
+        return numFail;
+    }
+
+    int numPending() {
+        return numSources - numSuccess - numFail;
+    }
+
+    /**
+     * @return the agreed result if the quorum was reached, otherwise the elements that were returned by at least
+     *         {@code threshold} sources
+     */
+    Set<T> result() {
+        if (agreedResult != null)
+            return agreedResult;
+        final Set<T> result = new HashSet<>();
+        for (final Multiset.Entry<T> entry : countedElements.entrySet())
+            if (entry.getCount() >= threshold)
+                result.add(entry.getElement());
+        return result;
+    }
+}
@@ -210,7 +210,8 @@ public class RaiseFeeDialogFragment extends DialogFragment {
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
 
         if (wallet.isEncrypted()) {
-            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
+            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget(),
+                    application.spendingKeySession()) {
                 @Override
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
@@ -269,7 +270,8 @@ public class RaiseFeeDialogFragment extends DialogFragment {
             return;
 
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
-        final boolean needsPassword = wallet != null && wallet.isEncrypted();
+        final boolean needsPassword = wallet != null
+                && application.spendingKeySession().needsPassword(wallet);
 
         if (wallet == null || transaction == null || feeRaise == null) {
             messageView.setText(R.string.raise_fee_dialog_determining_fee);
@@ -17,24 +17,18 @@
 
 package de.schildbach.wallet.ui.send;
 
-import android.content.res.AssetManager;
 import android.os.Handler;
 import android.os.Looper;
 import androidx.annotation.Nullable;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
-import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonDataException;
-import com.squareup.moshi.Moshi;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
-import de.schildbach.wallet.util.Assets;
-import okio.BufferedSink;
-import okio.BufferedSource;
-import okio.Okio;
+import de.schildbach.wallet.data.ElectrumServer;
+import de.schildbach.wallet.data.ElectrumServerRegistry;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ECKey;
@@ -49,7 +43,6 @@ import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.SocketFactory;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLPeerUnverifiedException;
@@ -58,26 +51,29 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -91,6 +87,15 @@ public final class RequestWalletBalanceTask {
     private final Handler callbackHandler;
     private final ResultCallback resultCallback;
 
+    /** Number of servers to ask in addition to those needed for a quorum. */
+    private static final int HEDGE_SPARE_SERVERS = 2;
+    /** Ask the next best server if no answer came in for this long. */
+    private static final long HEDGE_DELAY_MS = 1500;
+    /** Give up on servers that haven't answered after this time. */
+    private static final long DEADLINE_MS = TimeUnit.SECONDS.toMillis(10);
+    /** Timeout for connecting, for the TLS handshake and for each read or write. */
+    private static final int SOCKET_TIMEOUT_MS = 5000;
+
     private static final Logger log = LoggerFactory.getLogger(RequestWalletBalanceTask.class);
 
     public interface ResultCallback {
@@ -105,242 +110,271 @@ public final class RequestWalletBalanceTask {
         this.resultCallback = resultCallback;
     }
 
-    public static class ElectrumRequest {
-        public final int id;
-        public final String method;
-        public final String[] params;
-
-        private static transient int idCounter = 0;
-
-        public ElectrumRequest(final String method, final String[] params) {
-            this(idCounter++, method, params);
-        }
-
-        public ElectrumRequest(final int id, final String method, final String[] params) {
-            this.id = id;
-            this.method = method;
-            this.params = params;
-        }
-    }
-
-    public static class ListunspentResponse {
-        public int id;
-        public Utxo[] result;
-        public Error error;
-
-        public static class Utxo {
-            public String tx_hash;
-            public int tx_pos;
-            public long value;
-            public int height;
-        }
-    }
-
-    public static class TransactionResponse {
-        public int id;
-        public String result;
-        public Error error;
-    }
-
-    public static class Error {
-        public int code;
-        public String message;
-    }
-
-    public void requestWalletBalance(final AssetManager assets, final ECKey key) {
-        backgroundHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+    public void requestWalletBalance(final ElectrumServerRegistry registry, final Collection<ECKey> keys) {
+        backgroundHandler.post(() -> {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
+            final List<Script> outputScripts = new ArrayList<>(keys.size() * 2);
+            final List<Address> addresses = new ArrayList<>(keys.size() * 2);
+            for (final ECKey key : keys) {
                 final Address legacyAddress = LegacyAddress.fromKey(Constants.NETWORK_PARAMETERS, key);
-                final Script[] outputScripts;
-                final String addressesStr;
+                outputScripts.add(ScriptBuilder.createP2PKHOutputScript(legacyAddress.getHash()));
+                addresses.add(legacyAddress);
                 if (key.isCompressed()) {
                     final Address segwitAddress = SegwitAddress.fromKey(Constants.NETWORK_PARAMETERS, key);
-                    outputScripts = new Script[] { ScriptBuilder.createP2PKHOutputScript(legacyAddress.getHash()),
-                            ScriptBuilder.createP2WPKHOutputScript(segwitAddress.getHash()) };
-                    addressesStr = legacyAddress.toString() + "," + segwitAddress.toString();
-                } else {
-                    outputScripts = new Script[] { ScriptBuilder.createP2PKHOutputScript(legacyAddress.getHash()) };
-                    addressesStr = legacyAddress.toString();
+                    outputScripts.add(ScriptBuilder.createP2WPKHOutputScript(segwitAddress.getHash()));
+                    addresses.add(segwitAddress);
                 }
+            }
+            log.info("requesting wallet balance for {}", Joiner.on(',').join(addresses));
+
+            final Quorum<UTXO> quorum = queryServers(registry, outputScripts);
+            final int numSuccess = quorum.numSuccess();
+            final Set<UTXO> utxos = quorum.result();
+            log.info("{} successes, {} fails, {} not asked, cancelled or timed out, quorum {}, {} UTXOs {}",
+                    numSuccess, quorum.numFail(), quorum.numPending(),
+                    quorum.isReached() ? "reached" : "not reached", utxos.size(), utxos);
+            if (numSuccess < quorum.threshold())
+                onFail(R.string.sweep_wallet_fragment_request_wallet_balance_failed_connection);
+            else if (utxos.isEmpty())
+                onFail(R.string.sweep_wallet_fragment_request_wallet_balance_empty);
+            else
+                onResult(utxos);
+        });
+    }
 
-                final List<ElectrumServer> servers = loadElectrumServers(
-                        Assets.open(assets, Constants.Files.ELECTRUM_SERVERS_ASSET));
-                final List<Callable<Set<UTXO>>> tasks = new ArrayList<>(servers.size());
-                for (final ElectrumServer server : servers) {
-                    tasks.add(() -> {
-                        log.info("{} - trying to request wallet balance for {}", server.socketAddress,
-                                addressesStr);
-                        try (final Socket socket = connect(server)) {
-                            final BufferedSink sink = Okio.buffer(Okio.sink(socket));
-                            sink.timeout().timeout(5000, TimeUnit.MILLISECONDS);
-                            final BufferedSource source = Okio.buffer(Okio.source(socket));
-                            source.timeout().timeout(5000, TimeUnit.MILLISECONDS);
-                            final Moshi moshi = new Moshi.Builder().build();
-                            final JsonAdapter<ElectrumRequest> requestAdapter = moshi.adapter(ElectrumRequest.class);
-                            final JsonAdapter<ListunspentResponse> listunspentResponseAdapter =
-                                    moshi.adapter(ListunspentResponse.class);
-                            final JsonAdapter<TransactionResponse> transactionResponseAdapter =
-                                    moshi.adapter(TransactionResponse.class);
-
-                            final Set<UTXO> utxos = new HashSet<>();
-
-                            for (final Script outputScript : outputScripts) {
-                                requestAdapter.toJson(sink, new ElectrumRequest(
-                                        outputScript.getScriptType().ordinal(), "blockchain.scripthash.listunspent",
-                                        new String[] { Constants.HEX.encode(
-                                                Sha256Hash.of(outputScript.getProgram()).getReversedBytes()) }));
-                                sink.writeUtf8("\n").flush();
-
-                                final ListunspentResponse listunspentResponse =
-                                        listunspentResponseAdapter.fromJson(source);
-                                final int expectedResponseId = outputScript.getScriptType().ordinal();
-                                if (listunspentResponse.id != expectedResponseId) {
-                                    log.warn("{} - id mismatch listunspentResponse:{} vs request:{}",
-                                            server.socketAddress, listunspentResponse.id, expectedResponseId);
-                                    return null;
-                                }
-                                if (listunspentResponse.error != null) {
-                                    log.info("{} - server error {}: {}", server.socketAddress,
-                                            listunspentResponse.error.code, listunspentResponse.error.message);
-                                    return null;
-                                }
-                                if (listunspentResponse.result == null) {
-                                    log.info("{} - missing result", server.socketAddress);
-                                    return null;
-                                }
-                                for (final ListunspentResponse.Utxo responseUtxo : listunspentResponse.result) {
-                                    final Sha256Hash utxoHash = Sha256Hash.wrap(responseUtxo.tx_hash);
-                                    final int utxoIndex = responseUtxo.tx_pos;
-                                    // the value cannot be trusted; will be validated below
-                                    final Coin utxoValue = Coin.valueOf(responseUtxo.value);
-                                    final UTXO utxo = new UTXO(utxoHash, utxoIndex, utxoValue, responseUtxo.height,
-                                            false, outputScript);
-
-                                    // validation of value and some sanity checks
-                                    requestAdapter.toJson(sink, new ElectrumRequest("blockchain.transaction.get",
-                                            new String[] { Constants.HEX.encode(utxo.getHash().getBytes()) }));
-                                    sink.writeUtf8("\n").flush();
+    /**
+     * Asks the servers of the registry for the UTXOs of the given output scripts, until enough of them agree or
+     * it is clear they won't. Blocks for up to {@link #DEADLINE_MS}.
+     */
+    static Quorum<UTXO> queryServers(final ElectrumServerRegistry registry, final List<Script> outputScripts) {
+        // best servers first
+        final List<ElectrumServer> servers = registry.serversToQuery();
+        final Set<Socket> openSockets = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final List<Callable<Set<UTXO>>> tasks = new ArrayList<>(servers.size());
+        for (final ElectrumServer server : servers) {
+            tasks.add(() -> {
+                log.info("{} - trying to request wallet balance", server.socketAddress);
+                final Set<UTXO> utxos = requestUtxos(registry, server, outputScripts, openSockets);
+                if (utxos != null)
+                    registry.recordSuccess(server);
+                else if (!Thread.currentThread().isInterrupted())
+                    registry.recordFailure(server);
+                return utxos;
+            });
+        }
 
-                                    final TransactionResponse transactionResponse =
-                                            transactionResponseAdapter.fromJson(source);
-                                    if (transactionResponse.error != null) {
-                                        log.info("{} - server error {}: {}", server.socketAddress,
-                                                transactionResponse.error.code, transactionResponse.error.message);
-                                        return null;
-                                    }
-                                    if (transactionResponse.result == null) {
-                                        log.info("{} - missing result", server.socketAddress);
-                                        return null;
-                                    }
-                                    final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS,
-                                            Constants.HEX.decode(transactionResponse.result));
-                                    if (!tx.getTxId().equals(utxo.getHash()))
-                                        log.warn("{} - lied about txid", server.socketAddress);
-                                    else if (!tx.getOutput(utxo.getIndex()).getValue().equals(utxo.getValue()))
-                                        log.warn("{} - lied about amount", server.socketAddress);
-                                    else if (!tx.getOutput(utxo.getIndex()).getScriptPubKey().equals(outputScript))
-                                        log.warn("{} - lied about output script", server.socketAddress);
-                                    else
-                                        // use valid UTXO
-                                        utxos.add(utxo);
-                                }
-                            }
-                            log.info("{} - got {} UTXOs {}", server.socketAddress, utxos.size(), utxos);
-                            return utxos;
-                        } catch (final ConnectException | SSLPeerUnverifiedException | JsonDataException x) {
-                            log.warn("{} - {}", server.socketAddress, x.getMessage());
-                            return null;
-                        } catch (final IOException x) {
-                            log.info(server.socketAddress.toString(), x);
-                            return null;
-                        } catch (final RuntimeException x) {
-                            log.error(server.socketAddress.toString(), x);
-                            throw x;
-                        }
-                    });
+        final ExecutorService threadPool = Executors.newFixedThreadPool(servers.size(),
+                new ContextPropagatingThreadFactory("request"));
+        final CompletionService<Set<UTXO>> completionService = new ExecutorCompletionService<>(threadPool);
+        final List<Future<Set<UTXO>>> futures = new ArrayList<>(tasks.size());
+
+        // Ask just enough servers for a quorum plus a few spare ones. Hedge by asking the next best server
+        // whenever one fails, or when answers are slow to come in. The quorum is based on all configured servers,
+        // no matter how many of them are eligible right now.
+        final int trustThreshold = registry.numServers() / 2;
+        final Quorum<UTXO> quorum = new Quorum<>(servers.size(), trustThreshold);
+        final Iterator<Callable<Set<UTXO>>> pendingTasks = tasks.iterator();
+        for (int i = 0; i < trustThreshold + HEDGE_SPARE_SERVERS && pendingTasks.hasNext(); i++)
+            futures.add(completionService.submit(pendingTasks.next()));
+        final long deadline = System.currentTimeMillis() + DEADLINE_MS;
+        long nextHedge = System.currentTimeMillis() + HEDGE_DELAY_MS;
+        try {
+            while (!quorum.isDecided()) {
+                final long now = System.currentTimeMillis();
+                if (now >= deadline)
+                    break; // time-out
+                if (now >= nextHedge || futures.size() - quorum.numSuccess() - quorum.numFail() == 0) {
+                    if (pendingTasks.hasNext())
+                        futures.add(completionService.submit(pendingTasks.next()));
+                    nextHedge = now + HEDGE_DELAY_MS;
                 }
-
-                final ExecutorService threadPool = Executors.newFixedThreadPool(servers.size(),
-                        new ContextPropagatingThreadFactory("request"));
-                final List<Future<Set<UTXO>>> futures;
+                final Future<Set<UTXO>> future = completionService.poll(
+                        Math.min(deadline, pendingTasks.hasNext() ? nextHedge : deadline) - now,
+                        TimeUnit.MILLISECONDS);
+                if (future == null)
+                    continue;
+                Set<UTXO> utxos;
+                try {
+                    utxos = future.get();
+                } catch (final ExecutionException x) {
+                    utxos = null;
+                }
+                quorum.add(utxos);
+                if (utxos == null && pendingTasks.hasNext())
+                    futures.add(completionService.submit(pendingTasks.next()));
+            }
+        } catch (final InterruptedException x) {
+            throw new RuntimeException(x);
+        } finally {
+            // cancel stragglers; closing their sockets unblocks any pending connects, handshakes and reads
+            for (final Future<Set<UTXO>> future : futures)
+                future.cancel(true);
+            for (final Socket socket : openSockets) {
                 try {
-                    futures = threadPool.invokeAll(tasks, 10, TimeUnit.SECONDS);
-                } catch (final InterruptedException x) {
-                    throw new RuntimeException(x);
-                } finally {
-                    threadPool.shutdown();
+                    socket.close();
+                } catch (final IOException x) {
+                    // swallow
                 }
+            }
+            threadPool.shutdownNow();
+            registry.save();
+        }
+        return quorum;
+    }
 
-                final Multiset<UTXO> countedUtxos = HashMultiset.create();
-                int numSuccess = 0, numFail = 0, numTimeOuts = 0;
-                for (Future<Set<UTXO>> future : futures) {
-                    if (!future.isCancelled()) {
-                        try {
-                            final Set<UTXO> utxos = future.get();
-                            if (utxos != null) {
-                                countedUtxos.addAll(utxos);
-                                numSuccess++;
-                            } else {
-                                numFail++;
-                            }
-                        } catch (InterruptedException | ExecutionException x) {
-                            throw new RuntimeException(x);
-                        }
-                    } else {
-                        numTimeOuts++;
-                    }
+    /**
+     * Asks one server for the UTXOs of the given output scripts, and validates them against their transactions.
+     *
+     * @return validated UTXOs, or {@code null} if the server failed
+     */
+    @Nullable
+    private static Set<UTXO> requestUtxos(final ElectrumServerRegistry registry, final ElectrumServer server,
+            final List<Script> outputScripts, final Set<Socket> openSockets) {
+        try (final ElectrumClient client = new ElectrumClient(connect(registry, server, openSockets),
+                SOCKET_TIMEOUT_MS)) {
+            // one round trip for all output scripts
+            final List<ElectrumClient.ListunspentResponse> listunspentResponses = client.listunspent(outputScripts);
+            final List<UTXO> candidateUtxos = new ArrayList<>();
+            for (int i = 0; i < outputScripts.size(); i++) {
+                final Script outputScript = outputScripts.get(i);
+                final ElectrumClient.ListunspentResponse listunspentResponse = listunspentResponses.get(i);
+                if (listunspentResponse.error != null) {
+                    log.info("{} - server error {}: {}", server.socketAddress, listunspentResponse.error.code,
+                            listunspentResponse.error.message);
+                    return null;
+                }
+                if (listunspentResponse.result == null) {
+                    log.info("{} - missing result", server.socketAddress);
+                    return null;
+                }
+                for (final ElectrumClient.ListunspentResponse.Utxo responseUtxo : listunspentResponse.result) {
+                    final Sha256Hash utxoHash = Sha256Hash.wrap(responseUtxo.tx_hash);
+                    final int utxoIndex = responseUtxo.tx_pos;
+                    // the value cannot be trusted; will be validated below
+                    final Coin utxoValue = Coin.valueOf(responseUtxo.value);
+                    candidateUtxos.add(new UTXO(utxoHash, utxoIndex, utxoValue, responseUtxo.height, false,
+                            outputScript));
                 }
+            }
 
-                final int trustThreshold = servers.size() / 2;
-                for (final Iterator<Multiset.Entry<UTXO>> i = countedUtxos.entrySet().iterator(); i.hasNext();) {
-                    final Multiset.Entry<UTXO> entry = i.next();
-                    if (entry.getCount() < trustThreshold)
-                        i.remove();
+            // validation of value and some sanity checks, one round trip for all transactions
+            final List<Sha256Hash> txIds = new ArrayList<>(new LinkedHashSet<>(
+                    Lists.transform(candidateUtxos, UTXO::getHash)));
+            final List<ElectrumClient.TransactionResponse> transactionResponses = client.getTransactions(txIds);
+            final Map<Sha256Hash, Transaction> txs = new HashMap<>(txIds.size());
+            for (int i = 0; i < txIds.size(); i++) {
+                final ElectrumClient.TransactionResponse transactionResponse = transactionResponses.get(i);
+                if (transactionResponse.error != null) {
+                    log.info("{} - server error {}: {}", server.socketAddress, transactionResponse.error.code,
+                            transactionResponse.error.message);
+                    return null;
+                }
+                if (transactionResponse.result == null) {
+                    log.info("{} - missing result", server.socketAddress);
+                    return null;
                 }
+                final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS,
+                        Constants.HEX.decode(transactionResponse.result));
+                txs.put(txIds.get(i), tx);
+            }
 
-                final Set<UTXO> utxos = countedUtxos.elementSet();
-                log.info("{} successes, {} fails, {} time-outs, {} UTXOs {}", numSuccess, numFail, numTimeOuts,
-                        utxos.size(), utxos);
-                if (numSuccess < trustThreshold)
-                    onFail(R.string.sweep_wallet_fragment_request_wallet_balance_failed_connection);
-                else if (utxos.isEmpty())
-                    onFail(R.string.sweep_wallet_fragment_request_wallet_balance_empty);
-                else
-                    onResult(utxos);
+            final Set<UTXO> utxos = new HashSet<>();
+            for (final UTXO utxo : candidateUtxos) {
+                final Transaction tx = txs.get(utxo.getHash());
+                if (!tx.getTxId().equals(utxo.getHash())) {
+                    log.warn("{} - lied about txid", server.socketAddress);
+                    registry.recordLie(server);
+                } else if (!tx.getOutput(utxo.getIndex()).getValue().equals(utxo.getValue())) {
+                    log.warn("{} - lied about amount", server.socketAddress);
+                    registry.recordLie(server);
+                } else if (!tx.getOutput(utxo.getIndex()).getScriptPubKey().equals(utxo.getScript())) {
+                    log.warn("{} - lied about output script", server.socketAddress);
+                    registry.recordLie(server);
+                } else {
+                    // use valid UTXO
+                    utxos.add(utxo);
+                }
             }
+            log.info("{} - got {} UTXOs {}", server.socketAddress, utxos.size(), utxos);
+            return utxos;
+        } catch (final ConnectException | SSLPeerUnverifiedException | JsonDataException x) {
+            log.warn("{} - {}", server.socketAddress, x.getMessage());
+            return null;
+        } catch (final IOException x) {
+            if (Thread.currentThread().isInterrupted())
+                log.info("{} - cancelled", server.socketAddress);
+            else
+                log.info(server.socketAddress.toString(), x);
+            return null;
+        } catch (final RuntimeException x) {
+            log.error(server.socketAddress.toString(), x);
+            throw x;
+        }
+    }
 
-            private Socket connect(final ElectrumServer server) throws IOException {
-                final Socket socket;
-                if (server.type == ElectrumServer.Type.TLS) {
-                    final SocketFactory sf = sslTrustAllCertificates();
-                    socket = sf.createSocket(server.socketAddress.getHostName(), server.socketAddress.getPort());
-                    final SSLSession sslSession = ((SSLSocket) socket).getSession();
-                    final Certificate certificate = sslSession.getPeerCertificates()[0];
-                    final String certificateFingerprint = sslCertificateFingerprint(certificate);
-                    if (server.certificateFingerprint == null) {
-                        // signed by CA
-                        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(server.socketAddress.getHostName(),
-                                sslSession))
-                            throw new SSLPeerUnverifiedException("Expected " + server.socketAddress.getHostName()
-                                    + ", got " + sslSession.getPeerPrincipal());
-                    } else {
-                        // self-signed
-                        if (!certificateFingerprint.equals(server.certificateFingerprint))
-                            throw new SSLPeerUnverifiedException("Expected " + server.certificateFingerprint + " for "
-                                    + server.socketAddress.getHostName() + ", got " + certificateFingerprint);
-                    }
-                } else if (server.type == ElectrumServer.Type.TCP) {
-                    socket = new Socket();
-                    socket.connect(server.socketAddress, 5000);
+    /**
+     * Connects to the given server. The raw socket is added to the given set right away, so it can be closed from
+     * another thread to abort connecting or the handshake. It is closed if connecting fails in any way.
+     */
+    private static Socket connect(final ElectrumServerRegistry registry, final ElectrumServer server,
+            final Set<Socket> openSockets) throws IOException {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Socket socket = new Socket();
+        openSockets.add(socket);
+        try {
+            // the set might have been closed already
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("cancelled");
+            // also bounds the TLS handshake
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            socket.connect(new InetSocketAddress(server.socketAddress.getHostName(), server.socketAddress.getPort()),
+                    SOCKET_TIMEOUT_MS);
+            final long connectMs = watch.elapsed(TimeUnit.MILLISECONDS);
+            if (server.type == ElectrumServer.Type.TLS) {
+                watch.reset().start();
+                final SSLSocket sslSocket = (SSLSocket) sslTrustAllCertificates().createSocket(socket,
+                        server.socketAddress.getHostName(), server.socketAddress.getPort(), true);
+                try {
+                    sslSocket.startHandshake();
+                } catch (final IOException x) {
+                    // only the connect went well
+                    registry.recordConnect(server, connectMs, -1);
+                    log.info("{} - TLS handshake failed: {}", server.socketAddress, x.getMessage());
+                    throw x;
+                }
+                final SSLSession sslSession = sslSocket.getSession();
+                registry.recordConnect(server, connectMs, watch.elapsed(TimeUnit.MILLISECONDS));
+                final Certificate certificate = sslSession.getPeerCertificates()[0];
+                final String certificateFingerprint = sslCertificateFingerprint(certificate);
+                if (server.certificateFingerprint == null) {
+                    // signed by CA
+                    if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(server.socketAddress.getHostName(),
+                            sslSession))
+                        throw new SSLPeerUnverifiedException("Expected " + server.socketAddress.getHostName()
+                                + ", got " + sslSession.getPeerPrincipal());
                 } else {
-                    throw new IllegalStateException("Cannot handle: " + server.type);
+                    // self-signed
+                    if (!certificateFingerprint.equals(server.certificateFingerprint))
+                        throw new SSLPeerUnverifiedException("Expected " + server.certificateFingerprint + " for "
+                                + server.socketAddress.getHostName() + ", got " + certificateFingerprint);
                 }
+                return sslSocket;
+            } else if (server.type == ElectrumServer.Type.TCP) {
+                registry.recordConnect(server, connectMs, -1);
                 return socket;
+            } else {
+                throw new IllegalStateException("Cannot handle: " + server.type);
             }
-        });
+        } catch (final IOException | RuntimeException x) {
+            // closing the raw socket also tears down the TLS layer on top of it
+            try {
+                socket.close();
+            } catch (final IOException x2) {
+                // swallow
+            }
+            throw x;
+        }
     }
 
     protected void onResult(final Set<UTXO> utxos) {
@@ -351,61 +385,7 @@ public final class RequestWalletBalanceTask {
         callbackHandler.post(() -> resultCallback.onFail(messageResId, messageArgs));
     }
 
-    public static class ElectrumServer {
-        public enum Type {
-            TCP, TLS
-        }
-
-        public final InetSocketAddress socketAddress;
-        public final Type type;
-        @Nullable
-        public final String certificateFingerprint;
-
-        public ElectrumServer(final String type, final String host, final @Nullable String port,
-                final @Nullable String certificateFingerprint) {
-            this.type = Type.valueOf(type.toUpperCase());
-            if (port != null)
-                this.socketAddress = InetSocketAddress.createUnresolved(host, Integer.parseInt(port));
-            else if ("tcp".equalsIgnoreCase(type))
-                this.socketAddress = InetSocketAddress.createUnresolved(host,
-                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TCP);
-            else if ("tls".equalsIgnoreCase(type))
-                this.socketAddress = InetSocketAddress.createUnresolved(host,
-                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TLS);
-            else
-                throw new IllegalStateException("Cannot handle: " + type);
-            this.certificateFingerprint = certificateFingerprint != null ?
-                    certificateFingerprint.toLowerCase(Locale.US) : null;
-        }
-    }
-
-    private static List<ElectrumServer> loadElectrumServers(final InputStream is) {
-        final Splitter splitter = Splitter.on(':').trimResults();
-        final List<ElectrumServer> servers = new LinkedList<>();
-        String line = null;
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            while (true) {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                line = line.trim();
-                if (line.length() == 0 || line.charAt(0) == '#')
-                    continue;
-
-                final Iterator<String> i = splitter.split(line).iterator();
-                final String type = i.next();
-                final String host = i.next();
-                final String port = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
-                final String fingerprint = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
-                servers.add(new ElectrumServer(type, host, port, fingerprint));
-            }
-        } catch (final Exception x) {
-            throw new RuntimeException("Error while parsing: '" + line + "'", x);
-        }
-        return servers;
-    }
-
-    private SSLSocketFactory sslTrustAllCertificates() {
+    private static SSLSocketFactory sslTrustAllCertificates() {
         try {
             final SSLContext context = SSLContext.getInstance("SSL");
             context.init(null, new TrustManager[] { TRUST_ALL_CERTIFICATES }, null);
@@ -432,7 +412,7 @@ public final class RequestWalletBalanceTask {
         }
     };
 
-    private String sslCertificateFingerprint(final Certificate certificate) {
+    static String sslCertificateFingerprint(final Certificate certificate) {
         try {
             return Hashing.sha256().newHasher().putBytes(certificate.getEncoded()).hash().toString();
         } catch (final Exception x) {
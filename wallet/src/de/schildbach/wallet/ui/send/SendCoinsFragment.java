@@ -74,6 +74,7 @@ import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.addressbook.AddressBookDao;
 import de.schildbach.wallet.addressbook.AddressBookDatabase;
 import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.addressbook.AddressBookLabels;
 import de.schildbach.wallet.data.PaymentIntent;
 import de.schildbach.wallet.data.PaymentIntent.Standard;
 import de.schildbach.wallet.offline.DirectPaymentTask;
@@ -281,6 +282,8 @@ public final class SendCoinsFragment extends Fragment {
     };
 
     private final class ReceivingAddressViewAdapter extends ArrayAdapter<AddressBookEntry> {
+        private static final int MAX_SUGGESTIONS = 20;
+
         private final LayoutInflater inflater;
 
         public ReceivingAddressViewAdapter(final Context context) {
@@ -307,7 +310,8 @@ public final class SendCoinsFragment extends Fragment {
                     final String trimmedConstraint = constraint.toString().trim();
                     final FilterResults results = new FilterResults();
                     if (viewModel.validatedAddress == null && !trimmedConstraint.isEmpty()) {
-                        final List<AddressBookEntry> entries = addressBookDao.get(trimmedConstraint);
+                        final List<AddressBookEntry> entries = addressBookDao.search(trimmedConstraint,
+                                MAX_SUGGESTIONS);
                         results.values = entries;
                         results.count = entries.size();
                     } else {
@@ -355,7 +359,7 @@ public final class SendCoinsFragment extends Fragment {
         walletActivityViewModel = new ViewModelProvider(activity).get(AbstractWalletActivityViewModel.class);
         walletActivityViewModel.wallet.observe(this, wallet -> updateView());
         viewModel = new ViewModelProvider(this).get(SendCoinsViewModel.class);
-        viewModel.addressBook.observe(this, addressBook -> updateView());
+        viewModel.addressBookLabels.observe(this, addressBookLabels -> updateView());
         if (config.isEnableExchangeRates()) {
             viewModel.exchangeRate.observe(this, exchangeRate -> {
                 final SendCoinsViewModel.State state = viewModel.state;
@@ -652,7 +656,7 @@ public final class SendCoinsFragment extends Fragment {
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         if (wallet == null)
             return false;
-        if (!wallet.isEncrypted())
+        if (!application.spendingKeySession().needsPassword(wallet))
             return true;
         return !privateKeyPasswordView.getText().toString().trim().isEmpty();
     }
@@ -680,7 +684,8 @@ public final class SendCoinsFragment extends Fragment {
 
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         if (wallet.isEncrypted()) {
-            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
+            new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget(),
+                    application.spendingKeySession()) {
                 @Override
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
@@ -880,7 +885,7 @@ public final class SendCoinsFragment extends Fragment {
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         final Map<FeeCategory, Coin> fees = viewModel.dynamicFees.getValue();
         final BlockchainState blockchainState = application.blockchainState.getValue();
-        final Map<String, AddressBookEntry> addressBook = AddressBookEntry.asMap(viewModel.addressBook.getValue());
+        final AddressBookLabels addressBookLabels = viewModel.addressBookLabels.getValue();
         final Transaction dryrunTransaction = viewModel.dryrunTransaction.getValue();
         final Exception dryrunException = viewModel.dryrunException.getValue();
 
@@ -925,8 +930,8 @@ public final class SendCoinsFragment extends Fragment {
 
                 receivingStaticAddressView.setText(WalletUtils.formatAddress(viewModel.validatedAddress.address,
                         Constants.ADDRESS_FORMAT_GROUP_SIZE, Constants.ADDRESS_FORMAT_LINE_SIZE));
-                final String addressBookLabel = addressBookDao
-                        .resolveLabel(viewModel.validatedAddress.address.toString());
+                final String addressBookLabel = addressBookLabels != null ?
+                        addressBookLabels.resolveLabel(viewModel.validatedAddress.address) : null;
                 final String staticLabel;
                 if (addressBookLabel != null)
                     staticLabel = addressBookLabel;
@@ -1018,7 +1023,7 @@ public final class SendCoinsFragment extends Fragment {
                 sentTransactionView.setVisibility(View.VISIBLE);
                 sentTransactionViewHolder
                         .fullBind(new TransactionsAdapter.ListItem.TransactionItem(activity, sentTransaction,
-                                wallet, addressBook, btcFormat, application.maxConnectedPeers()));
+                                wallet, addressBookLabels, btcFormat, application.maxConnectedPeers(), null));
             } else {
                 sentTransactionView.setVisibility(View.GONE);
             }
@@ -1065,7 +1070,7 @@ public final class SendCoinsFragment extends Fragment {
 
             final boolean privateKeyPasswordViewVisible = (viewModel.state == SendCoinsViewModel.State.INPUT
                     || viewModel.state == SendCoinsViewModel.State.DECRYPTING) && wallet != null
-                    && wallet.isEncrypted();
+                    && application.spendingKeySession().needsPassword(wallet);
             privateKeyPasswordViewGroup.setVisibility(privateKeyPasswordViewVisible ? View.VISIBLE : View.GONE);
             privateKeyPasswordView.setEnabled(viewModel.state == SendCoinsViewModel.State.INPUT);
 
@@ -20,13 +20,11 @@ package de.schildbach.wallet.ui.send;
 import android.app.Application;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
-import de.schildbach.wallet.addressbook.AddressBookDatabase;
-import de.schildbach.wallet.addressbook.AddressBookEntry;
+import de.schildbach.wallet.data.AddressBookLabelsLiveData;
 import de.schildbach.wallet.data.DynamicFeeLiveData;
 import de.schildbach.wallet.data.PaymentIntent;
 import de.schildbach.wallet.data.SelectedExchangeRateLiveData;
@@ -58,7 +56,7 @@ public class SendCoinsViewModel extends AndroidViewModel {
 
     private final WalletApplication application;
     private final Wallet wallet;
-    public final LiveData<List<AddressBookEntry>> addressBook;
+    public final AddressBookLabelsLiveData addressBookLabels;
     public final SelectedExchangeRateLiveData exchangeRate;
     public final DynamicFeeLiveData dynamicFees;
     public final MutableLiveData<FeeCategory> feeCategory = new MutableLiveData<>(FeeCategory.NORMAL);
@@ -87,7 +85,7 @@ public class SendCoinsViewModel extends AndroidViewModel {
         super(application);
         this.application = (WalletApplication) application;
         this.wallet = this.application.getWallet();
-        this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
+        this.addressBookLabels = AddressBookLabelsLiveData.get(this.application);
         this.exchangeRate = new SelectedExchangeRateLiveData(this.application);
         this.dynamicFees = new DynamicFeeLiveData(this.application);
         this.balance = new WalletBalanceLiveData(this.application, BalanceType.AVAILABLE);
@@ -0,0 +1,105 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import de.schildbach.wallet.Configuration;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.wallet.Wallet;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Holds the most recently derived spending key in memory for a short, user-configured time, so consecutive signing
+ * operations don't need to run scrypt again. Disabled unless the user opted in. The key is wiped when the time is
+ * up, and whenever {@link #clear()} is called, e.g. on screen-off or memory pressure.
+ *
+ * @author Andreas Schildbach
+ */
+public class SpendingKeySession {
+    private final Configuration config;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private KeyCrypter keyCrypter;
+    @Nullable
+    private KeyParameter key;
+
+    private static final Logger log = LoggerFactory.getLogger(SpendingKeySession.class);
+
+    public SpendingKeySession(final Configuration config) {
+        this.config = config;
+    }
+
+    public boolean isEnabled() {
+        return config.getSpendingKeySessionMs() > 0;
+    }
+
+    /**
+     * Remembers a key that has been verified to decrypt the wallet. Does nothing if sessions are disabled.
+     */
+    public synchronized void put(final KeyCrypter keyCrypter, final KeyParameter key) {
+        final long durationMs = config.getSpendingKeySessionMs();
+        if (durationMs <= 0)
+            return;
+        clear();
+        this.keyCrypter = keyCrypter;
+        this.key = new KeyParameter(key.getKey()); // keep our own copy, so we can wipe it
+        handler.postDelayed(timeout, durationMs);
+        log.info("spending key session started for {} ms", durationMs);
+    }
+
+    /**
+     * @return a copy of the remembered key, if it belongs to the given key crypter and has not timed out
+     */
+    @Nullable
+    public synchronized KeyParameter get(final KeyCrypter keyCrypter) {
+        if (key == null || !keyCrypter.equals(this.keyCrypter))
+            return null;
+        return new KeyParameter(key.getKey());
+    }
+
+    /**
+     * @return true if the wallet is encrypted and the spending key is not currently remembered
+     */
+    public boolean needsPassword(final Wallet wallet) {
+        if (!wallet.isEncrypted())
+            return false;
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        synchronized (this) {
+            return key == null || keyCrypter == null || !keyCrypter.equals(this.keyCrypter);
+        }
+    }
+
+    public synchronized void clear() {
+        handler.removeCallbacks(timeout);
+        if (key != null) {
+            Arrays.fill(key.getKey(), (byte) 0);
+            key = null;
+            keyCrypter = null;
+            log.info("spending key session ended");
+        }
+    }
+
+    private final Runnable timeout = this::clear;
+}
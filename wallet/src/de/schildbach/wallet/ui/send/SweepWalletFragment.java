@@ -17,6 +17,8 @@
 
 package de.schildbach.wallet.ui.send;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -51,6 +53,7 @@ import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.R;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.data.ElectrumServerRegistry;
 import de.schildbach.wallet.data.PaymentIntent;
 import de.schildbach.wallet.ui.AbstractWalletActivity;
 import de.schildbach.wallet.ui.AbstractWalletActivityViewModel;
@@ -87,8 +90,11 @@ import org.bitcoinj.wallet.WalletTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -119,6 +125,11 @@ public class SweepWalletFragment extends Fragment {
     private Button viewGo;
     private Button viewCancel;
 
+    @Nullable
+    private DecodePrivateKeyTask decodePrivateKeyTask = null;
+    @Nullable
+    private String decodeProgress = null;
+
     private AbstractWalletActivityViewModel walletActivityViewModel;
     private SweepWalletViewModel viewModel;
 
@@ -130,9 +141,7 @@ public class SweepWalletFragment extends Fragment {
                 new StringInputParser(input) {
                     @Override
                     protected void handlePrivateKey(final PrefixedChecksummedBytes key) {
-                        viewModel.privateKeyToSweep.setValue(key);
-                        viewModel.state.setValue(SweepWalletViewModel.State.DECODE_KEY);
-                        maybeDecodeKey();
+                        addPrivateKeys(Collections.singletonList(key));
                     }
 
                     @Override
@@ -175,7 +184,7 @@ public class SweepWalletFragment extends Fragment {
         viewModel.state.observe(this, state -> updateView());
         viewModel.getDynamicFees().observe(this, dynamicFees -> updateView());
         viewModel.progress.observe(this, new ProgressDialogFragment.Observer(fragmentManager));
-        viewModel.privateKeyToSweep.observe(this, privateKeyToSweep -> updateView());
+        viewModel.privateKeysToSweep.observe(this, privateKeysToSweep -> updateView());
         viewModel.walletToSweep.observe(this, walletToSweep -> {
             if (walletToSweep != null) {
                 balanceView.setVisibility(View.VISIBLE);
@@ -185,7 +194,9 @@ public class SweepWalletFragment extends Fragment {
                 balanceSpannable.applyMarkup(null, null);
                 final SpannableStringBuilder balance = new SpannableStringBuilder(balanceSpannable);
                 balance.insert(0, ": ");
-                balance.insert(0, getString(R.string.sweep_wallet_fragment_balance));
+                final int numKeys = walletToSweep.getImportedKeys().size();
+                balance.insert(0, numKeys > 1 ? getString(R.string.sweep_wallet_fragment_balance_keys, numKeys) :
+                        getString(R.string.sweep_wallet_fragment_balance));
                 balanceView.setText(balance);
             } else {
                 balanceView.setVisibility(View.GONE);
@@ -233,6 +244,8 @@ public class SweepWalletFragment extends Fragment {
                 final MenuItem scanAction = menu.findItem(R.id.sweep_wallet_options_scan);
                 scanAction.setVisible(pm.hasSystemFeature(PackageManager.FEATURE_CAMERA) || pm.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT));
                 scanAction.setEnabled(state == SweepWalletViewModel.State.DECODE_KEY || state == SweepWalletViewModel.State.CONFIRM_SWEEP);
+                final MenuItem pasteAction = menu.findItem(R.id.sweep_wallet_options_paste);
+                pasteAction.setEnabled(state == SweepWalletViewModel.State.DECODE_KEY || state == SweepWalletViewModel.State.CONFIRM_SWEEP);
             }
 
             @Override
@@ -244,6 +257,9 @@ public class SweepWalletFragment extends Fragment {
                 } else if (itemId == R.id.sweep_wallet_options_scan) {
                     scanLauncher.launch(null);
                     return true;
+                } else if (itemId == R.id.sweep_wallet_options_paste) {
+                    handlePaste();
+                    return true;
                 }
                 return false;
             }
@@ -260,7 +276,7 @@ public class SweepWalletFragment extends Fragment {
                 } catch (AddressFormatException x) {
                     privateKeyToSweep = BIP38PrivateKey.fromBase58(Constants.NETWORK_PARAMETERS, encodedKey);
                 }
-                viewModel.privateKeyToSweep.setValue(privateKeyToSweep);
+                viewModel.privateKeysToSweep.setValue(Collections.singletonList(privateKeyToSweep));
 
                 // delay until fragment is resumed
                 handler.post(maybeDecodeKeyRunnable);
@@ -308,13 +324,20 @@ public class SweepWalletFragment extends Fragment {
         });
 
         viewCancel = view.findViewById(R.id.send_coins_cancel);
-        viewCancel.setOnClickListener(v -> activity.finish());
+        viewCancel.setOnClickListener(v -> {
+            if (decodePrivateKeyTask != null)
+                cancelDecode();
+            else
+                activity.finish();
+        });
 
         return view;
     }
 
     @Override
     public void onDestroy() {
+        if (decodePrivateKeyTask != null)
+            decodePrivateKeyTask.cancel();
         backgroundThread.getLooper().quit();
         super.onDestroy();
     }
@@ -325,61 +348,124 @@ public class SweepWalletFragment extends Fragment {
         requestWalletBalance();
     }
 
+    private void handlePaste() {
+        final ClipboardManager clipboardManager = activity.getSystemService(ClipboardManager.class);
+        final ClipData clip = clipboardManager.getPrimaryClip();
+        final CharSequence text = clip != null && clip.getItemCount() > 0 ?
+                clip.getItemAt(0).coerceToText(activity) : null;
+        final List<PrefixedChecksummedBytes> keys = text != null ?
+                PrivateKeyListParser.parse(Constants.NETWORK_PARAMETERS, text) : Collections.emptyList();
+        if (keys.isEmpty()) {
+            new Toast(activity).longToast(R.string.sweep_wallet_fragment_paste_none);
+            return;
+        }
+        log.info("pasted {} private keys", keys.size());
+        new Toast(activity).toast(R.string.sweep_wallet_fragment_keys_added, keys.size());
+        addPrivateKeys(keys);
+    }
+
+    private void addPrivateKeys(final List<PrefixedChecksummedBytes> keys) {
+        final List<PrefixedChecksummedBytes> privateKeysToSweep = new ArrayList<>(
+                viewModel.privateKeysToSweep.getValue());
+        privateKeysToSweep.addAll(keys);
+        viewModel.privateKeysToSweep.setValue(privateKeysToSweep);
+        viewModel.state.setValue(SweepWalletViewModel.State.DECODE_KEY);
+        maybeDecodeKey();
+    }
+
     private final Runnable maybeDecodeKeyRunnable = () -> maybeDecodeKey();
 
     private void maybeDecodeKey() {
         checkState(viewModel.state.getValue() == SweepWalletViewModel.State.DECODE_KEY);
-        final PrefixedChecksummedBytes privateKeyToSweep = viewModel.privateKeyToSweep.getValue();
-        checkState(privateKeyToSweep != null);
-
-        if (privateKeyToSweep instanceof DumpedPrivateKey) {
-            try {
-                final ECKey key = ((DumpedPrivateKey) privateKeyToSweep).getKey();
-                askConfirmSweep(key);
-            } catch (final IllegalArgumentException x) {
-                log.info("failed decoding dumped private key", x);
-                new Toast(activity).longToast(R.string.sweep_wallet_fragment_decode_failed);
+        final List<PrefixedChecksummedBytes> privateKeysToSweep = viewModel.privateKeysToSweep.getValue();
+
+        // Unencrypted keys can be imported right away.
+        final List<ECKey> keys = new ArrayList<>(privateKeysToSweep.size());
+        final List<BIP38PrivateKey> encryptedKeys = new ArrayList<>(privateKeysToSweep.size());
+        for (final PrefixedChecksummedBytes privateKeyToSweep : privateKeysToSweep) {
+            if (privateKeyToSweep instanceof DumpedPrivateKey) {
+                try {
+                    keys.add(((DumpedPrivateKey) privateKeyToSweep).getKey());
+                } catch (final IllegalArgumentException x) {
+                    log.info("failed decoding dumped private key", x);
+                    new Toast(activity).longToast(R.string.sweep_wallet_fragment_decode_failed);
+                }
+            } else if (privateKeyToSweep instanceof BIP38PrivateKey) {
+                encryptedKeys.add((BIP38PrivateKey) privateKeyToSweep);
+            } else {
+                throw new IllegalStateException("cannot handle type: " + privateKeyToSweep.getClass().getName());
             }
-        } else if (privateKeyToSweep instanceof BIP38PrivateKey) {
-            badPasswordView.setVisibility(View.INVISIBLE);
+        }
+        importKeys(keys);
+        viewModel.privateKeysToSweep.setValue(new ArrayList<>(encryptedKeys));
 
-            final String password = passwordView.getText().toString().trim();
-            passwordView.setText(null); // get rid of it asap
+        if (encryptedKeys.isEmpty()) {
+            if (viewModel.walletToSweep.getValue() != null)
+                askConfirmSweep();
+            return;
+        }
 
-            if (!password.isEmpty()) {
-                viewModel.progress.setValue(getString(R.string.sweep_wallet_fragment_decrypt_progress));
+        badPasswordView.setVisibility(View.INVISIBLE);
 
-                new DecodePrivateKeyTask(backgroundHandler) {
-                    @Override
-                    protected void onSuccess(ECKey decryptedKey) {
-                        log.info("successfully decoded BIP38 private key");
+        final List<String> passphrases = BIP38Decoder.candidatePassphrases(passwordView.getText().toString());
+        passwordView.setText(null); // get rid of it asap
 
-                        viewModel.progress.setValue(null);
+        if (!passphrases.isEmpty() && decodePrivateKeyTask == null) {
+            decodeProgress = getString(R.string.sweep_wallet_fragment_decrypt_progress);
 
-                        askConfirmSweep(decryptedKey);
-                    }
+            decodePrivateKeyTask = new DecodePrivateKeyTask(backgroundHandler) {
+                @Override
+                protected void onProgress(final int numDone, final int numTotal) {
+                    decodeProgress = getString(R.string.sweep_wallet_fragment_decrypt_progress_attempts, numDone,
+                            numTotal);
+                    updateView();
+                }
 
-                    @Override
-                    protected void onBadPassphrase() {
-                        log.info("failed decoding BIP38 private key (bad password)");
+                @Override
+                protected void onResult(final List<ECKey> decryptedKeys, final List<BIP38PrivateKey> failedKeys) {
+                    log.info("decoded {} BIP38 private keys, {} failed (bad password)", decryptedKeys.size(),
+                            failedKeys.size());
 
-                        viewModel.progress.setValue(null);
+                    decodePrivateKeyTask = null;
+                    decodeProgress = null;
 
+                    importKeys(decryptedKeys);
+                    viewModel.privateKeysToSweep.setValue(new ArrayList<>(failedKeys));
+
+                    if (failedKeys.isEmpty()) {
+                        askConfirmSweep();
+                    } else {
                         badPasswordView.setVisibility(View.VISIBLE);
                         passwordView.requestFocus();
                     }
-                }.decodePrivateKey((BIP38PrivateKey) privateKeyToSweep, password);
-            }
-        } else {
-            throw new IllegalStateException("cannot handle type: " + privateKeyToSweep.getClass().getName());
+                }
+            };
+            decodePrivateKeyTask.decodePrivateKeys(encryptedKeys, passphrases);
+            updateView();
         }
     }
 
-    private void askConfirmSweep(final ECKey key) {
-        final Wallet walletToSweep = Wallet.createBasic(Constants.NETWORK_PARAMETERS);
-        walletToSweep.importKey(key);
+    private void cancelDecode() {
+        if (decodePrivateKeyTask != null) {
+            log.info("cancelling decoding of BIP38 private keys");
+            decodePrivateKeyTask.cancel();
+            decodePrivateKeyTask = null;
+            decodeProgress = null;
+            updateView();
+        }
+    }
+
+    private void importKeys(final List<ECKey> keys) {
+        if (keys.isEmpty())
+            return;
+        Wallet walletToSweep = viewModel.walletToSweep.getValue();
+        if (walletToSweep == null)
+            walletToSweep = Wallet.createBasic(Constants.NETWORK_PARAMETERS);
+        walletToSweep.importKeys(keys); // skips keys that are already imported
         viewModel.walletToSweep.setValue(walletToSweep);
+    }
 
+    private void askConfirmSweep() {
         viewModel.state.setValue(SweepWalletViewModel.State.CONFIRM_SWEEP);
 
         // delay until fragment is resumed
@@ -456,39 +542,48 @@ public class SweepWalletFragment extends Fragment {
         };
 
         final Wallet walletToSweep = viewModel.walletToSweep.getValue();
-        final ECKey key = walletToSweep.getImportedKeys().iterator().next();
-        new RequestWalletBalanceTask(backgroundHandler, callback).requestWalletBalance(activity.getAssets(), key);
+        new RequestWalletBalanceTask(backgroundHandler, callback)
+                .requestWalletBalance(ElectrumServerRegistry.get(application), walletToSweep.getImportedKeys());
     }
 
     private void updateView() {
         final SweepWalletViewModel.State state = viewModel.state.getValue();
-        final PrefixedChecksummedBytes privateKeyToSweep = viewModel.privateKeyToSweep.getValue();
+        final List<PrefixedChecksummedBytes> privateKeysToSweep = viewModel.privateKeysToSweep.getValue();
+        final boolean hasEncryptedKeys = !privateKeysToSweep.isEmpty();
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         final Map<FeeCategory, Coin> fees = viewModel.getDynamicFees().getValue();
         final MonetaryFormat btcFormat = config.getFormat();
 
-        if (state == SweepWalletViewModel.State.DECODE_KEY && privateKeyToSweep == null) {
+        if (state == SweepWalletViewModel.State.DECODE_KEY && decodeProgress != null) {
+            messageView.setVisibility(View.VISIBLE);
+            messageView.setText(decodeProgress);
+        } else if (state == SweepWalletViewModel.State.DECODE_KEY && !hasEncryptedKeys) {
             messageView.setVisibility(View.VISIBLE);
             messageView.setText(R.string.sweep_wallet_fragment_wallet_unknown);
-        } else if (state == SweepWalletViewModel.State.DECODE_KEY && privateKeyToSweep != null) {
+        } else if (state == SweepWalletViewModel.State.DECODE_KEY && privateKeysToSweep.size() == 1) {
             messageView.setVisibility(View.VISIBLE);
             messageView.setText(R.string.sweep_wallet_fragment_encrypted);
-        } else if (privateKeyToSweep != null) {
+        } else if (state == SweepWalletViewModel.State.DECODE_KEY) {
+            messageView.setVisibility(View.VISIBLE);
+            messageView.setText(getString(R.string.sweep_wallet_fragment_encrypted_multiple,
+                    privateKeysToSweep.size()));
+        } else {
             messageView.setVisibility(View.GONE);
         }
 
         passwordViewGroup.setVisibility(
-                state == SweepWalletViewModel.State.DECODE_KEY && privateKeyToSweep != null ? View.VISIBLE : View.GONE);
+                state == SweepWalletViewModel.State.DECODE_KEY && hasEncryptedKeys && decodeProgress == null ?
+                        View.VISIBLE : View.GONE);
 
         hintView.setVisibility(
-                state == SweepWalletViewModel.State.DECODE_KEY && privateKeyToSweep == null ? View.VISIBLE : View.GONE);
+                state == SweepWalletViewModel.State.DECODE_KEY && !hasEncryptedKeys ? View.VISIBLE : View.GONE);
 
         final Transaction sentTransaction = viewModel.sentTransaction.getValue();
         if (sentTransaction != null) {
             sweepTransactionView.setVisibility(View.VISIBLE);
             sweepTransactionViewHolder
                     .fullBind(new TransactionsAdapter.ListItem.TransactionItem(activity, sentTransaction, wallet,
-                            null, btcFormat, application.maxConnectedPeers()));
+                            null, btcFormat, application.maxConnectedPeers(), null));
         } else {
             sweepTransactionView.setVisibility(View.GONE);
         }
@@ -497,7 +592,7 @@ public class SweepWalletFragment extends Fragment {
         if (state == SweepWalletViewModel.State.DECODE_KEY) {
             viewCancel.setText(R.string.button_cancel);
             viewGo.setText(R.string.sweep_wallet_fragment_button_decrypt);
-            viewGo.setEnabled(privateKeyToSweep != null);
+            viewGo.setEnabled(hasEncryptedKeys && decodePrivateKeyTask == null);
         } else if (state == SweepWalletViewModel.State.CONFIRM_SWEEP) {
             viewCancel.setText(R.string.button_cancel);
             viewGo.setText(R.string.sweep_wallet_fragment_button_sweep);
@@ -27,6 +27,9 @@ import de.schildbach.wallet.ui.DialogEvent;
 import org.bitcoinj.core.PrefixedChecksummedBytes;
 import org.bitcoinj.wallet.Wallet;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author Andreas Schildbach
  */
@@ -41,7 +44,9 @@ public class SweepWalletViewModel extends AndroidViewModel {
     public final MutableLiveData<State> state = new MutableLiveData<>(State.DECODE_KEY);
     private DynamicFeeLiveData dynamicFees;
     public final MutableLiveData<String> progress = new MutableLiveData<>();
-    public final MutableLiveData<PrefixedChecksummedBytes> privateKeyToSweep = new MutableLiveData<>();
+    /** Keys that still need to be decoded; decoded keys are imported into {@link #walletToSweep}. */
+    public final MutableLiveData<List<PrefixedChecksummedBytes>> privateKeysToSweep = new MutableLiveData<>(
+            Collections.emptyList());
     public final MutableLiveData<Wallet> walletToSweep = new MutableLiveData<>();
     public final TransactionLiveData sentTransaction;
     public final MutableLiveData<DialogEvent> showDialog = new MutableLiveData<>();
@@ -17,6 +17,7 @@
 package de.schildbach.wallet.util;
 
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
@@ -24,16 +25,22 @@ import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.PBEParametersGenerator;
 import org.bouncycastle.crypto.engines.AESFastEngine;
 import org.bouncycastle.crypto.generators.OpenSSLPBEParametersGenerator;
+import org.bouncycastle.crypto.io.CipherInputStream;
+import org.bouncycastle.crypto.io.CipherOutputStream;
 import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -89,7 +96,7 @@ public class Crypto {
      * Magic text that appears at the beginning of every OpenSSL encrypted file. Used in identifying encrypted
      * key files.
      */
-    private static final String OPENSSL_MAGIC_TEXT = BASE64_ENCRYPT.encode(Crypto.OPENSSL_SALTED_BYTES).substring(0,
+    static final String OPENSSL_MAGIC_TEXT = BASE64_ENCRYPT.encode(Crypto.OPENSSL_SALTED_BYTES).substring(0,
             Crypto.NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT);
 
     private static final int NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT = 10;
@@ -111,6 +118,17 @@ public class Crypto {
         return (ParametersWithIV) generator.generateDerivedParameters(KEY_LENGTH, IV_LENGTH);
     }
 
+    /**
+     * Create an AES - CBC 256 bits cipher, initialized with the key derived from the password and salt.
+     */
+    private static BufferedBlockCipher getAESCipher(final boolean forEncryption, final char[] password,
+            final byte[] salt) {
+        final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
+        final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+        cipher.init(forEncryption, key);
+        return cipher;
+    }
+
     /**
      * Password based encryption using AES - CBC 256 bits.
      * 
@@ -162,11 +180,8 @@ public class Crypto {
             final byte[] salt = new byte[SALT_LENGTH];
             secureRandom.nextBytes(salt);
 
-            final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
-
             // The following code uses an AES cipher to encrypt the message.
-            final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
-            cipher.init(true, key);
+            final BufferedBlockCipher cipher = getAESCipher(true, password, salt);
             final byte[] encryptedBytes = new byte[cipher.getOutputSize(plainTextAsBytes.length)];
             final int processLen = cipher.processBytes(plainTextAsBytes, 0, plainTextAsBytes.length, encryptedBytes, 0);
             final int doFinalLen = cipher.doFinal(encryptedBytes, processLen);
@@ -178,6 +193,63 @@ public class Crypto {
         }
     }
 
+    /**
+     * Password based encryption using AES - CBC 256 bits, as a stream. Bytes written to the returned stream are
+     * encrypted and base64 encoded on the fly, in the same format as {@link #encrypt(byte[], char[])}. Only a block
+     * of the cipher is held in memory at a time. Closing the returned stream writes the final block and closes the
+     * writer.
+     * 
+     * @param cipherOut
+     *            The writer to write the encrypted text to
+     * @param password
+     *            The password to use for encryption
+     * @return The stream to write the bytes to encrypt to
+     * @throws IOException
+     */
+    public static OutputStream encryptingOutputStream(final Writer cipherOut, final char[] password)
+            throws IOException {
+        // Generate salt - each encryption call has a different salt.
+        final byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+
+        // OpenSSL prefixes the salt bytes + encryptedBytes with Salted___ and then base64 encodes it
+        final OutputStream base64Out = BASE64_ENCRYPT.encodingStream(cipherOut);
+        base64Out.write(OPENSSL_SALTED_BYTES);
+        base64Out.write(salt);
+
+        return new CipherOutputStream(base64Out, getAESCipher(true, password, salt));
+    }
+
+    /**
+     * Decrypt text previously encrypted with this class, as a stream. The text is base64 decoded and decrypted on
+     * the fly while reading from the returned stream. The salt is checked before any decryption happens. A wrong
+     * password usually shows as an {@link IOException} when reading the final block.
+     * 
+     * @param cipherIn
+     *            The reader to read the encrypted text from
+     * @param password
+     *            password to use for decryption
+     * @return The stream to read the decrypted bytes from
+     * @throws IOException
+     */
+    public static InputStream decryptingInputStream(final Reader cipherIn, final char[] password)
+            throws IOException {
+        final InputStream base64In = BASE64_DECRYPT.decodingStream(cipherIn);
+
+        final byte[] saltedBytes = new byte[OPENSSL_SALTED_BYTES.length];
+        final byte[] salt = new byte[SALT_LENGTH];
+        try {
+            ByteStreams.readFully(base64In, saltedBytes);
+            ByteStreams.readFully(base64In, salt);
+        } catch (final EOFException x) {
+            throw new IOException("out of salt");
+        }
+        if (!Arrays.equals(saltedBytes, OPENSSL_SALTED_BYTES))
+            throw new IOException("not salted");
+
+        return new CipherInputStream(base64In, getAESCipher(false, password, salt));
+    }
+
     /**
      * Decrypt text previously encrypted with this class.
      * 
@@ -245,11 +317,8 @@ public class Crypto {
             final byte[] cipherBytes = new byte[bytesToDecode.length - SALT_LENGTH];
             System.arraycopy(bytesToDecode, SALT_LENGTH, cipherBytes, 0, bytesToDecode.length - SALT_LENGTH);
 
-            final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
-
             // decrypt the message
-            final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
-            cipher.init(false, key);
+            final BufferedBlockCipher cipher = getAESCipher(false, password, salt);
 
             final byte[] decryptedBytes = new byte[cipher.getOutputSize(cipherBytes.length)];
             final int processLen = cipher.processBytes(cipherBytes, 0, cipherBytes.length, decryptedBytes, 0);
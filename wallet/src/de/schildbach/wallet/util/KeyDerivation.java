@@ -0,0 +1,80 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.wallet.Protos;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Derives spending keys on a separate thread, so that a second derivation (e.g. for a new spending PIN) can run on
+ * another core while the calling thread derives the first one. Key derivation is dominated by scrypt, which makes it
+ * by far the slowest part of changing a spending PIN. Each scrypt instance needs memory proportional to its
+ * iterations, so derivations should only run in parallel if they fit into memory together, see
+ * {@link #fitsInParallel(KeyCrypter...)}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class KeyDerivation {
+    private static final ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+            Executors.newCachedThreadPool(new ContextPropagatingThreadFactory("derive key")));
+
+    private KeyDerivation() {
+    }
+
+    /**
+     * @return {@code true} if deriving keys with all of the given key crypters at the same time takes at most a
+     *         quarter of the heap, which is also the budget a single derivation is calibrated to
+     */
+    public static boolean fitsInParallel(final KeyCrypter... keyCrypters) {
+        long bytes = 0;
+        for (final KeyCrypter keyCrypter : keyCrypters)
+            bytes += scryptMemory(keyCrypter);
+        return bytes <= Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * @return approximate memory needed to derive a key, or 0 if it's not known or negligible
+     */
+    static long scryptMemory(@Nullable final KeyCrypter keyCrypter) {
+        if (!(keyCrypter instanceof KeyCrypterScrypt))
+            return 0;
+        final Protos.ScryptParameters params = ((KeyCrypterScrypt) keyCrypter).getScryptParameters();
+        // scrypt's working array holds N blocks of 128 * r bytes, the rest is negligible
+        return 128L * params.getR() * params.getN();
+    }
+
+    /**
+     * @return future key, or a future of {@code null} if no password is given
+     */
+    public static ListenableFuture<KeyParameter> deriveKeyAsync(final KeyCrypter keyCrypter,
+            @Nullable final CharSequence password) {
+        if (password == null)
+            return Futures.immediateFuture(null);
+        return executor.submit(() -> keyCrypter.deriveKey(password));
+    }
+}
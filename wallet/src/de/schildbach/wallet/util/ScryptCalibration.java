@@ -0,0 +1,122 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntToLongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Picks the scrypt cost for deriving the spending key by timing key derivations on this device. The largest
+ * candidate that fits the target latency wins, so fast devices get more protection against brute-forcing and slow
+ * devices don't have to wait several seconds per unlock. The result never goes below a given minimum, so
+ * calibration can't weaken the protection of existing wallets.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ScryptCalibration {
+    /** Candidate scrypt iterations, in ascending order. */
+    public static final int[] CANDIDATES = { 16384, 32768, 65536, 131072 };
+
+    private static final Logger log = LoggerFactory.getLogger(ScryptCalibration.class);
+
+    public static final class Result {
+        public final int iterations;
+        public final long latencyMs;
+
+        public Result(final int iterations, final long latencyMs) {
+            this.iterations = iterations;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return iterations + " scrypt iterations, " + latencyMs + " ms";
+        }
+    }
+
+    private ScryptCalibration() {
+    }
+
+    /**
+     * Times key derivations at increasing cost, until the target latency is exceeded or the maximum is reached.
+     *
+     * @param minIterations
+     *            lower bound, accepted even if it's slower than the target latency
+     * @param maxIterations
+     *            upper bound, usually limited by available memory
+     * @param targetLatencyMs
+     *            how long deriving the key may take
+     * @param cancelled
+     *            checked before each measurement; a running measurement can't be interrupted
+     * @return the result, or {@code null} if cancelled
+     */
+    @WorkerThread
+    @Nullable
+    public static Result calibrate(final int minIterations, final int maxIterations, final long targetLatencyMs,
+            final BooleanSupplier cancelled) {
+        // warm up, so the first measurement isn't skewed by class loading and JIT
+        deriveKeyMs(CANDIDATES[0]);
+        final Result result = calibrate(minIterations, maxIterations, targetLatencyMs,
+                ScryptCalibration::deriveKeyMs, cancelled);
+        if (result != null)
+            log.info("calibrated to {}", result);
+        else
+            log.info("calibration cancelled");
+        return result;
+    }
+
+    @Nullable
+    static Result calibrate(final int minIterations, final int maxIterations, final long targetLatencyMs,
+            final IntToLongFunction measureMs, final BooleanSupplier cancelled) {
+        checkArgument(maxIterations >= minIterations, "maxIterations below minIterations: %s", maxIterations);
+        Result result = null;
+        for (final int iterations : CANDIDATES) {
+            if (iterations < minIterations)
+                continue;
+            if (iterations > maxIterations)
+                break;
+            if (cancelled.getAsBoolean())
+                return null;
+            final long latencyMs = measureMs.applyAsLong(iterations);
+            // the cheapest allowed candidate is always acceptable, even if it is slower than desired
+            if (result != null && latencyMs > targetLatencyMs)
+                break;
+            result = new Result(iterations, latencyMs);
+            if (latencyMs > targetLatencyMs)
+                break;
+        }
+        return result;
+    }
+
+    private static long deriveKeyMs(final int iterations) {
+        final KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(iterations);
+        final Stopwatch watch = Stopwatch.createStarted();
+        keyCrypter.deriveKey("calibration");
+        return watch.elapsed(TimeUnit.MILLISECONDS);
+    }
+}
@@ -26,31 +26,68 @@ import android.text.SpannedString;
 import android.text.style.TypefaceSpan;
 import androidx.annotation.Nullable;
 import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.protobuf.ByteString;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.service.BlockchainService;
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.DumpedPrivateKey;
+import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptException;
 import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletExtension;
 import org.bitcoinj.wallet.WalletProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * @author Andreas Schildbach
  */
 public class WalletUtils {
+    public enum BackupFormat {
+        /** OpenSSL compatible encrypted text, containing one of the other formats. */
+        ENCRYPTED,
+        /** Wallet protobuf, as written by {@link WalletProtobufSerializer}. */
+        PROTOBUF,
+        /** Legacy list of base58 encoded private keys, one per line, each optionally followed by its birthdate. */
+        BASE58
+    }
+
+    private static final int BACKUP_FORMAT_SNIFF_LENGTH = 16;
+    private static final byte[] PROTOBUF_NETWORK_ID_PREFIX = "org.bitcoin".getBytes(StandardCharsets.US_ASCII);
+    private static final String BASE58_ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final int BASE58_MAX_CHARS = 64000;
+
     private static final Logger log = LoggerFactory.getLogger(WalletUtils.class);
 
     public static Spanned formatAddress(final Address address, final int groupSize, final int lineSize) {
@@ -171,25 +208,116 @@ public class WalletUtils {
 
     public static void autoBackupWallet(final Context context, final Wallet wallet) {
         final Stopwatch watch = Stopwatch.createStarted();
-        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
-
-        // strip redundant
-        builder.clearTransaction();
-        builder.clearLastSeenBlockHash();
-        builder.setLastSeenBlockHeight(-1);
-        builder.clearLastSeenBlockTimeSecs();
-        final Protos.Wallet walletProto = builder.build();
-
-        try (final OutputStream os = context.openFileOutput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF,
-                Context.MODE_PRIVATE)) {
-            walletProto.writeTo(os);
+        final byte[] keyBackup = walletToKeyBackupProto(wallet).toByteArray();
+        final File file = context.getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF);
+        try {
+            final boolean written = writeKeyBackup(file, keyBackup);
             watch.stop();
-            log.info("wallet backed up to: '{}', took {}", Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, watch);
+            if (written)
+                log.info("wallet backed up to: '{}', took {}", file, watch);
+            else
+                log.info("wallet backup unchanged: '{}', took {}", file, watch);
         } catch (final IOException x) {
             log.error("problem writing wallet backup", x);
         }
     }
 
+    /** Number of attempts at taking a consistent key backup, see {@link #walletToKeyBackupProto(Wallet)}. */
+    private static final int KEY_BACKUP_ATTEMPTS = 3;
+
+    /**
+     * Serializes only what is needed to restore the keys of a wallet: the key chains, encryption parameters,
+     * watched scripts and metadata. Unlike {@link WalletProtobufSerializer#walletToProto(Wallet)}, transactions are
+     * never touched. The last seen block is left out, so a restored wallet replays the block chain.
+     *
+     * <p>
+     * The wallet's locks aren't accessible, so each part is read under its own lock and the backup is a best-effort
+     * snapshot. Other parts of the wallet can change in between. What matters for restoring is that the keys agree with
+     * the encryption type. If they don't because the wallet was encrypted or decrypted meanwhile, the backup is taken
+     * again.
+     *
+     * @throws IllegalStateException if no consistent backup could be taken, because the wallet kept changing
+     */
+    public static Protos.Wallet walletToKeyBackupProto(final Wallet wallet) {
+        for (int attempt = 0; attempt < KEY_BACKUP_ATTEMPTS; attempt++) {
+            final KeyCrypter keyCrypterBefore = wallet.getKeyCrypter();
+            final Protos.Wallet keyBackup = buildKeyBackupProto(wallet);
+            if (wallet.getKeyCrypter() == keyCrypterBefore && isConsistentKeyBackup(keyBackup))
+                return keyBackup;
+            log.info("wallet encryption changed while taking key backup, retrying");
+        }
+        throw new IllegalStateException("wallet encryption kept changing while taking key backup");
+    }
+
+    private static Protos.Wallet buildKeyBackupProto(final Wallet wallet) {
+        final Protos.Wallet.Builder builder = Protos.Wallet.newBuilder();
+        builder.setNetworkIdentifier(wallet.getNetworkParameters().getId());
+        if (wallet.getDescription() != null)
+            builder.setDescription(wallet.getDescription());
+        builder.addAllKey(wallet.serializeKeyChainGroupToProtobuf());
+        for (final Script script : wallet.getWatchedScripts())
+            builder.addWatchedScript(Protos.Script.newBuilder()
+                    .setProgram(ByteString.copyFrom(script.getProgram()))
+                    .setCreationTimestamp(script.getCreationTimeSeconds() * 1000));
+        builder.setLastSeenBlockHeight(-1);
+
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        if (keyCrypter == null) {
+            builder.setEncryptionType(Protos.Wallet.EncryptionType.UNENCRYPTED);
+        } else {
+            builder.setEncryptionType(keyCrypter.getUnderstoodEncryptionType());
+            if (keyCrypter instanceof KeyCrypterScrypt)
+                builder.setEncryptionParameters(((KeyCrypterScrypt) keyCrypter).getScryptParameters());
+            else
+                throw new IllegalStateException("unsupported key crypter: " + keyCrypter.getClass().getName());
+        }
+
+        final Date keyRotationTime = wallet.getKeyRotationTime();
+        if (keyRotationTime != null)
+            builder.setKeyRotationTime(keyRotationTime.getTime() / 1000);
+        for (final WalletExtension extension : wallet.getExtensions().values())
+            builder.addExtension(Protos.Extension.newBuilder().setId(extension.getWalletExtensionID())
+                    .setMandatory(extension.isWalletExtensionMandatory())
+                    .setData(ByteString.copyFrom(extension.serializeWalletExtension())));
+        for (final Map.Entry<String, ByteString> tag : wallet.getTags().entrySet())
+            builder.addTags(Protos.Tag.newBuilder().setTag(tag.getKey()).setData(tag.getValue()));
+        builder.setVersion(wallet.getVersion());
+        return builder.build();
+    }
+
+    /**
+     * @return true if all keys agree with the encryption type: no encrypted keys in an unencrypted backup, and no
+     *         plain private keys in an encrypted one
+     */
+    static boolean isConsistentKeyBackup(final Protos.Wallet keyBackup) {
+        final boolean encrypted = keyBackup.getEncryptionType() != Protos.Wallet.EncryptionType.UNENCRYPTED;
+        for (final Protos.Key key : keyBackup.getKeyList()) {
+            if (encrypted ? key.hasSecretBytes() : key.hasEncryptedData())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the key backup via a temporary file, which is then renamed over the target. The write is skipped if the
+     * target already contains exactly the same backup.
+     *
+     * @return true if the backup was written, false if it was unchanged
+     */
+    static synchronized boolean writeKeyBackup(final File file, final byte[] keyBackup) throws IOException {
+        if (file.length() == keyBackup.length && Arrays.equals(Files.toByteArray(file), keyBackup))
+            return false;
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final FileOutputStream os = new FileOutputStream(tempFile)) {
+            os.write(keyBackup);
+            os.getFD().sync();
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("cannot rename " + tempFile + " to " + file);
+        return true;
+    }
+
     public static Wallet restoreWalletFromAutoBackup(final Context context) {
         try (final InputStream is = context.openFileInput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF)) {
             final Wallet wallet = new WalletProtobufSerializer().readWallet(is, true, null);
@@ -220,6 +348,111 @@ public class WalletUtils {
         }
     }
 
+    /**
+     * Restores a wallet from a backup in any of the {@link BackupFormat}s. The format is detected from the first bytes,
+     * and the backup is decrypted and parsed in a single streaming pass. The password is only used if the backup is
+     * encrypted.
+     */
+    public static Wallet restoreWalletFromBackup(final InputStream is, final char[] password,
+            final NetworkParameters expectedNetworkParameters) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(is);
+        final BackupFormat format = sniffBackupFormat(in);
+        if (format == null)
+            throw new IOException("unrecognized backup format");
+        if (format != BackupFormat.ENCRYPTED)
+            return restoreWalletFromPlainBackup(in, format, expectedNetworkParameters);
+
+        final BufferedInputStream plainIn = new BufferedInputStream(
+                Crypto.decryptingInputStream(new InputStreamReader(in, StandardCharsets.UTF_8), password));
+        final BackupFormat plainFormat = sniffBackupFormat(plainIn);
+        if (plainFormat == null || plainFormat == BackupFormat.ENCRYPTED)
+            throw new IOException("unrecognized backup format after decryption, wrong password?");
+        return restoreWalletFromPlainBackup(plainIn, plainFormat, expectedNetworkParameters);
+    }
+
+    private static Wallet restoreWalletFromPlainBackup(final InputStream is, final BackupFormat format,
+            final NetworkParameters expectedNetworkParameters) throws IOException {
+        if (format == BackupFormat.PROTOBUF)
+            return restoreWalletFromProtobuf(is, expectedNetworkParameters);
+        else if (format == BackupFormat.BASE58)
+            return restoreWalletFromBase58(is, expectedNetworkParameters);
+        else
+            throw new IllegalArgumentException(format.toString());
+    }
+
+    /**
+     * Detects the format of a backup from its first bytes. The stream must support mark and reset, and is reset to
+     * where it was.
+     *
+     * @return format of the backup, or {@code null} if unrecognized
+     */
+    @Nullable
+    public static BackupFormat sniffBackupFormat(final InputStream is) throws IOException {
+        checkArgument(is.markSupported());
+        final byte[] head = new byte[BACKUP_FORMAT_SNIFF_LENGTH];
+        is.mark(head.length);
+        final int length = ByteStreams.read(is, head, 0, head.length);
+        is.reset();
+        return sniffBackupFormat(head, length);
+    }
+
+    @Nullable
+    static BackupFormat sniffBackupFormat(final byte[] head, final int length) {
+        final String magicText = Crypto.OPENSSL_MAGIC_TEXT;
+        if (startsWith(head, length, 0, magicText.getBytes(StandardCharsets.US_ASCII)))
+            return BackupFormat.ENCRYPTED;
+        // field 1 of the wallet message is the network identifier, a length delimited string
+        if (length >= 2 && head[0] == 0x0a && startsWith(head, length, 2, PROTOBUF_NETWORK_ID_PREFIX))
+            return BackupFormat.PROTOBUF;
+        if (length >= 1 && (head[0] == '#' || BASE58_ALPHABET.indexOf(head[0]) != -1))
+            return BackupFormat.BASE58;
+        return null;
+    }
+
+    private static boolean startsWith(final byte[] head, final int length, final int offset, final byte[] prefix) {
+        if (length < offset + prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (head[offset + i] != prefix[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Restores a non-HD wallet from the legacy list of base58 encoded private keys. Empty lines and lines starting
+     * with {@code #} are skipped. Each key may be followed by its birthdate in ISO 8601 format.
+     */
+    public static Wallet restoreWalletFromBase58(final InputStream is,
+            final NetworkParameters expectedNetworkParameters) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        final List<ECKey> keys = new ArrayList<>();
+        long charCount = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            charCount += line.length();
+            if (charCount > BASE58_MAX_CHARS)
+                throw new IOException("read more than the limit of " + BASE58_MAX_CHARS + " characters");
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#')
+                continue;
+
+            final String[] parts = line.split("\\s+");
+            try {
+                final ECKey key = DumpedPrivateKey.fromBase58(expectedNetworkParameters, parts[0]).getKey();
+                key.setCreationTimeSeconds(parts.length >= 2 ? Instant.parse(parts[1]).getEpochSecond() : 0);
+                keys.add(key);
+            } catch (final AddressFormatException | DateTimeParseException x) {
+                throw new IOException("cannot read keys", x);
+            }
+        }
+        if (keys.isEmpty())
+            throw new IOException("no keys in backup");
+
+        final Wallet wallet = Wallet.createBasic(expectedNetworkParameters);
+        wallet.importKeys(keys);
+        return wallet;
+    }
+
     public static boolean isPayToManyTransaction(final Transaction transaction) {
         return transaction.getOutputs().size() > 20;
     }
@@ -0,0 +1,43 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.addressbook;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class AddressBookFtsEntryTest {
+    @Test
+    public void matchQuery() {
+        assertEquals("bob*", AddressBookFtsEntry.matchQuery("Bob"));
+        assertEquals("bob* smi*", AddressBookFtsEntry.matchQuery("  bob  Smi "));
+        assertEquals("zoë*", AddressBookFtsEntry.matchQuery("Zoë"));
+        assertEquals("bc1qxyz*", AddressBookFtsEntry.matchQuery("bc1qxyz"));
+    }
+
+    @Test
+    public void matchQuery_syntaxStripped() {
+        assertEquals("a* or* b*", AddressBookFtsEntry.matchQuery("\"a\" OR -b*"));
+        assertNull(AddressBookFtsEntry.matchQuery(" *\"- "));
+        assertNull(AddressBookFtsEntry.matchQuery(""));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.addressbook;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class AddressBookLabelsTest {
+    private static final String ADDRESS = "1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN2";
+
+    @Test
+    public void resolveLabel() {
+        final AddressBookLabels labels = AddressBookLabels.of(Arrays.asList(new AddressBookEntry(ADDRESS, "Bob"),
+                new AddressBookEntry("bc1qar0srrr7xfkvy5l643lydnw9re59gtzzwf5mdq", null)));
+        assertEquals(1, labels.size());
+        assertEquals("Bob", labels.resolveLabel(ADDRESS));
+        assertEquals("Bob", labels.resolveLabel(Address.fromString(MainNetParams.get(), ADDRESS)));
+        assertNull(labels.resolveLabel("bc1qar0srrr7xfkvy5l643lydnw9re59gtzzwf5mdq"));
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, AddressBookLabels.EMPTY.size());
+        assertNull(AddressBookLabels.EMPTY.resolveLabel(ADDRESS));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.addressbook;
+
+import okio.Buffer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class Bip329Test {
+    private static final NetworkParameters NETWORK = MainNetParams.get();
+    private static final String ADDRESS = "1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN2";
+    private static final String SEGWIT_ADDRESS = "bc1qar0srrr7xfkvy5l643lydnw9re59gtzzwf5mdq";
+
+    @Test
+    public void parseLine() {
+        final AddressBookEntry entry = Bip329.parseLine("{\"type\":\"addr\",\"ref\":\"" + ADDRESS
+                + "\",\"label\":\" Bob \",\"origin\":\"wpkh([d34db33f/84'/0'/0'])\",\"spendable\":true}", NETWORK);
+        assertEquals(ADDRESS, entry.getAddress());
+        assertEquals("Bob", entry.getLabel());
+    }
+
+    @Test
+    public void parseLineNormalizesAddress() {
+        final AddressBookEntry entry = Bip329.parseLine("{\"label\":\"Alice\",\"ref\":\""
+                + SEGWIT_ADDRESS.toUpperCase() + "\",\"type\":\"addr\"}", NETWORK);
+        assertEquals(SEGWIT_ADDRESS, entry.getAddress());
+    }
+
+    @Test
+    public void parseLineSkipped() {
+        // other types
+        assertNull(Bip329.parseLine("{\"type\":\"tx\",\"ref\":\"f91d0a8a78462bc59398f2c5d7a84fcff491c26ba54c4833478b"
+                + "202796c8aafd\",\"label\":\"Transaction\"}", NETWORK));
+        // no or empty label
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":\"" + ADDRESS + "\"}", NETWORK));
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":\"" + ADDRESS + "\",\"label\":null}", NETWORK));
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":\"" + ADDRESS + "\",\"label\":\" \"}", NETWORK));
+        // invalid or foreign address
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":\"1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN3\","
+                + "\"label\":\"Bob\"}", NETWORK));
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":\"tb1qw508d6qejxtdg4y5r3zarvary0c5xw7kxpjzsx\","
+                + "\"label\":\"Bob\"}", NETWORK));
+        // malformed
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":", NETWORK));
+        assertNull(Bip329.parseLine("[]", NETWORK));
+        assertNull(Bip329.parseLine("{\"type\":\"addr\",\"ref\":{\"a\":1},\"label\":\"Bob\"}", NETWORK));
+    }
+
+    @Test
+    public void importLabels() throws Exception {
+        final Buffer source = new Buffer();
+        source.writeUtf8("\uFEFF{\"type\":\"addr\",\"ref\":\"" + ADDRESS + "\",\"label\":\"Bob\"}\r\n");
+        source.writeUtf8("\n");
+        source.writeUtf8("{\"type\":\"xpub\",\"ref\":\"xpub661MyMwAqRbcFtXgS5sYJABqqG9YLmC4Q1Rdap9gSE8Nq\","
+                + "\"label\":\"Wallet\"}\n");
+        source.writeUtf8("not json\n");
+        source.writeUtf8("{\"type\":\"addr\",\"ref\":\"" + SEGWIT_ADDRESS + "\",\"label\":\"Alice\"}");
+        final List<AddressBookEntry> stored = new ArrayList<>();
+        final List<Bip329.Result> progress = new ArrayList<>();
+        final Bip329.Result result = Bip329.importLabels(source, NETWORK, batch -> {
+            stored.addAll(batch);
+            return batch.size();
+        }, progress::add);
+        assertEquals(2, result.numImported);
+        assertEquals(0, result.numExisting);
+        assertEquals(2, result.numSkipped);
+        assertEquals(2, stored.size());
+        assertEquals("Bob", stored.get(0).getLabel());
+        assertEquals("Alice", stored.get(1).getLabel());
+        assertEquals(1, progress.size());
+    }
+
+    @Test
+    public void importLabelsInBatches() throws Exception {
+        final Buffer source = new Buffer();
+        final int numLines = Bip329.BATCH_SIZE * 2 + 1;
+        for (int i = 0; i < numLines; i++)
+            source.writeUtf8("{\"type\":\"addr\",\"ref\":\"" + ADDRESS + "\",\"label\":\"Bob " + i + "\"}\n");
+        final List<Integer> batchSizes = new ArrayList<>();
+        final List<Bip329.Result> progress = new ArrayList<>();
+        final Bip329.Result result = Bip329.importLabels(source, NETWORK, batch -> {
+            batchSizes.add(batch.size());
+            // pretend every other entry already exists
+            return batch.size() / 2;
+        }, progress::add);
+        assertEquals(3, batchSizes.size());
+        assertEquals(Bip329.BATCH_SIZE, (int) batchSizes.get(0));
+        assertEquals(1, (int) batchSizes.get(2));
+        assertEquals(Bip329.BATCH_SIZE, result.numImported);
+        assertEquals(numLines - Bip329.BATCH_SIZE, result.numExisting);
+        assertEquals(3, progress.size());
+        assertEquals(Bip329.BATCH_SIZE / 2, progress.get(0).numImported);
+    }
+
+    @Test
+    public void writeLine() throws Exception {
+        final Buffer sink = new Buffer();
+        Bip329.writeLine(sink, ADDRESS, "Bob \"the builder\"\n");
+        Bip329.writeLine(sink, SEGWIT_ADDRESS, "Ålice");
+        assertEquals("{\"type\":\"addr\",\"ref\":\"" + ADDRESS + "\",\"label\":\"Bob \\\"the builder\\\"\\n\"}",
+                sink.readUtf8Line());
+        final AddressBookEntry entry = Bip329.parseLine(sink.readUtf8Line(), NETWORK);
+        assertEquals(SEGWIT_ADDRESS, entry.getAddress());
+        assertEquals("Ålice", entry.getLabel());
+        assertNull(sink.readUtf8Line());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ElectrumServerRegistryTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final ElectrumServer a = new ElectrumServer("tls", "a.example.com", "50002", null);
+    private final ElectrumServer b = new ElectrumServer("tls", "b.example.com", "50002", null);
+    private final ElectrumServer c = new ElectrumServer("tcp", "c.example.com", "50001", null);
+    private final ElectrumServer d = new ElectrumServer("tcp", "d.example.com", "50001", null);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rankedByLatency() {
+        final ElectrumServerRegistry registry = new ElectrumServerRegistry(Arrays.asList(a, b, c, d), null);
+        registry.recordConnect(a, 300, 200);
+        registry.recordConnect(b, 100, 100);
+        registry.recordConnect(c, 50, -1);
+        // d is unknown, so it comes last
+        assertEquals(Arrays.asList(c, b, a, d), registry.serversToQuery(NOW));
+    }
+
+    @Test
+    public void failingServerSitsOut() {
+        final ElectrumServerRegistry registry = new ElectrumServerRegistry(Arrays.asList(a, b, c, d), null);
+        registry.recordFailure(a, NOW);
+        registry.recordFailure(a, NOW);
+        assertEquals(4, registry.serversToQuery(NOW).size());
+        registry.recordFailure(a, NOW);
+        final List<ElectrumServer> servers = registry.serversToQuery(NOW);
+        assertEquals(3, servers.size());
+        assertFalse(servers.contains(a));
+        // back after a while
+        assertEquals(4, registry.serversToQuery(NOW + TimeUnit.MINUTES.toMillis(11)).size());
+    }
+
+    @Test
+    public void liarSitsOut() {
+        final ElectrumServerRegistry registry = new ElectrumServerRegistry(Arrays.asList(a, b, c, d), null);
+        registry.recordLie(b, NOW);
+        assertFalse(registry.serversToQuery(NOW + TimeUnit.HOURS.toMillis(23)).contains(b));
+        assertEquals(4, registry.serversToQuery(NOW + TimeUnit.HOURS.toMillis(25)).size());
+    }
+
+    @Test
+    public void tooFewEligible() {
+        final ElectrumServerRegistry registry = new ElectrumServerRegistry(Arrays.asList(a, b, c, d), null);
+        registry.recordLie(a, NOW);
+        registry.recordLie(b, NOW);
+        registry.recordLie(c, NOW);
+        assertEquals(4, registry.serversToQuery(NOW).size());
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        final File file = new File(folder.getRoot(), "health");
+        final ElectrumServerRegistry registry = new ElectrumServerRegistry(Arrays.asList(a, b, c, d), file);
+        registry.recordConnect(d, 10, -1);
+        registry.recordLie(a, NOW);
+        registry.save();
+
+        final ElectrumServerRegistry loaded = new ElectrumServerRegistry(Arrays.asList(a, b, c, d), file);
+        final List<ElectrumServer> servers = loaded.serversToQuery(NOW);
+        assertEquals(d, servers.get(0));
+        assertFalse(servers.contains(a));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class WalletMaintenanceIndexTest {
+    private Wallet wallet;
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        wallet = Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH);
+        Utils.rollMockClock(60);
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void noKeyRotationTime() {
+        assertFalse(WalletMaintenanceIndex.evaluate(wallet).recommended);
+    }
+
+    @Test
+    public void allChainsRotatingUnencrypted() {
+        wallet.setKeyRotationTime(Utils.now());
+        // upgraded silently, nothing left to do
+        assertFalse(WalletMaintenanceIndex.evaluate(wallet).recommended);
+        assertFalse(WalletMaintenanceIndex.evaluate(wallet).awaitingConfirmation);
+    }
+
+    @Test
+    public void allChainsRotatingEncrypted() {
+        wallet.encrypt("password");
+        wallet.setKeyRotationTime(Utils.now());
+        // the upgrade needs the password
+        assertTrue(WalletMaintenanceIndex.evaluate(wallet).recommended);
+    }
+
+    @Test
+    public void worthRekeying() {
+        assertTrue(WalletMaintenanceIndex.isWorthRekeying(Coin.COIN, 10 + 31 + 68));
+        assertTrue(WalletMaintenanceIndex.isWorthRekeying(
+                Transaction.REFERENCE_DEFAULT_MIN_TX_FEE.add(Transaction.MIN_NONDUST_OUTPUT), 10 + 31 + 68));
+    }
+
+    @Test
+    public void notWorthRekeyingDust() {
+        assertFalse(WalletMaintenanceIndex.isWorthRekeying(Transaction.MIN_NONDUST_OUTPUT, 10 + 31 + 68));
+        // many small inputs are eaten up by the fee
+        final int vsize = 10 + 31 + 100 * 148;
+        final Coin fee = Transaction.DEFAULT_TX_FEE.multiply(vsize).divide(1000);
+        assertFalse(WalletMaintenanceIndex.isWorthRekeying(fee, vsize));
+        assertTrue(WalletMaintenanceIndex.isWorthRekeying(fee.add(Transaction.MIN_NONDUST_OUTPUT), vsize));
+    }
+}
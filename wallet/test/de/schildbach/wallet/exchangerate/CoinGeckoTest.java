@@ -17,20 +17,39 @@
 
 package de.schildbach.wallet.exchangerate;
 
+import com.google.common.base.Stopwatch;
+import com.squareup.moshi.Json;
+import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
+import okio.Buffer;
 import okio.BufferedSource;
+import okio.ByteString;
 import okio.Okio;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Andreas Schildbach
  */
 public class CoinGeckoTest {
-    private final CoinGecko coinGecko = new CoinGecko(new Moshi.Builder().build());
+    private static final Logger log = LoggerFactory.getLogger(CoinGeckoTest.class);
+
+    private final CoinGecko coinGecko = new CoinGecko();
 
     @Test
     public void parse() throws Exception {
@@ -38,4 +57,111 @@ public class CoinGeckoTest {
         final List<ExchangeRateEntry> rates = coinGecko.parse(json);
         assertEquals(45, rates.size());
     }
+
+    @Test
+    public void parseToConsumer() throws Exception {
+        final BufferedSource json = Okio.buffer(Okio.source(getClass().getResourceAsStream("coingecko.json")));
+        final List<String> currencyCodes = new ArrayList<>();
+        coinGecko.parse(json, entry -> currencyCodes.add(entry.getCurrencyCode()));
+        assertEquals(45, currencyCodes.size());
+        assertTrue(currencyCodes.contains("USD"));
+        assertTrue(currencyCodes.contains("EUR"));
+        // crypto and commodity rates are skipped
+        assertFalse(currencyCodes.contains("BTC"));
+        assertFalse(currencyCodes.contains("XAU"));
+    }
+
+    @Test
+    public void parseUnknownFieldsAndOrder() throws Exception {
+        final String json = "{\"extra\":[1,{\"a\":2}],\"rates\":{" //
+                + "\"usd\":{\"type\":\"fiat\",\"value\":9301.146,\"unit\":\"$\"}," //
+                + "\"eth\":{\"type\":\"crypto\",\"value\":51.699,\"nested\":{\"x\":1}}," //
+                + "\"eur\":{\"name\":\"Euro\",\"value\":\"8540.5\",\"type\":\"fiat\"}}}";
+        final List<ExchangeRateEntry> rates = coinGecko.parse(new Buffer().writeUtf8(json));
+        assertEquals(2, rates.size());
+        assertEquals("USD", rates.get(0).getCurrencyCode());
+        assertEquals(93011460L, rates.get(0).getRateFiat());
+        assertEquals("EUR", rates.get(1).getCurrencyCode());
+    }
+
+    /**
+     * Compares the streaming parser against the object mapping it replaced, see {@link #parseMapped(JsonAdapter,
+     * BufferedSource)}. This is a benchmark, so it's not part of the unit tests. Remove {@link Ignore} to run it.
+     */
+    @Test
+    @Ignore("benchmark, run manually")
+    public void benchmark() throws Exception {
+        final ByteString fixture;
+        try (final BufferedSource source = Okio
+                .buffer(Okio.source(getClass().getResourceAsStream("coingecko.json")))) {
+            fixture = source.readByteString();
+        }
+        final JsonAdapter<MappedResponse> mappedAdapter = new Moshi.Builder().build().adapter(MappedResponse.class);
+        final int iterations = 2000;
+
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            coinGecko.parse(new Buffer().write(fixture));
+            parseMapped(mappedAdapter, new Buffer().write(fixture));
+        }
+        assertEquals(parseMapped(mappedAdapter, new Buffer().write(fixture)).size(),
+                coinGecko.parse(new Buffer().write(fixture)).size());
+
+        final Stopwatch streamingWatch = Stopwatch.createStarted();
+        for (int i = 0; i < iterations; i++)
+            coinGecko.parse(new Buffer().write(fixture));
+        streamingWatch.stop();
+
+        final Stopwatch mappedWatch = Stopwatch.createStarted();
+        for (int i = 0; i < iterations; i++)
+            parseMapped(mappedAdapter, new Buffer().write(fixture));
+        mappedWatch.stop();
+
+        log.info("CoinGecko, {} bytes: streaming {} µs/parse, object mapping {} µs/parse", fixture.size(),
+                streamingWatch.elapsed(TimeUnit.MICROSECONDS) / iterations,
+                mappedWatch.elapsed(TimeUnit.MICROSECONDS) / iterations);
+    }
+
+    /**
+     * The previous parser, mapping the whole document to objects before picking the fiat rates.
+     */
+    private static List<ExchangeRateEntry> parseMapped(final JsonAdapter<MappedResponse> jsonAdapter,
+            final BufferedSource jsonSource) throws IOException {
+        final MappedResponse jsonResponse = jsonAdapter.fromJson(jsonSource);
+        final List<ExchangeRateEntry> result = new ArrayList<>(jsonResponse.rates.size());
+        for (final Map.Entry<String, MappedExchangeRate> entry : jsonResponse.rates.entrySet()) {
+            final String symbol = entry.getKey().toUpperCase(Locale.US);
+            final MappedExchangeRate exchangeRate = entry.getValue();
+            if (exchangeRate.type == MappedType.FIAT) {
+                try {
+                    final Fiat rate = Fiat.parseFiatInexact(symbol, exchangeRate.value);
+                    if (rate.signum() > 0)
+                        result.add(new ExchangeRateEntry("CoinGecko.com", new ExchangeRate(rate)));
+                } catch (final ArithmeticException x) {
+                    // skip, like the streaming parser
+                }
+            }
+        }
+        return result;
+    }
+
+    private enum MappedType {
+        @Json(name = "crypto")
+        CRYPTO,
+        @Json(name = "fiat")
+        FIAT,
+        @Json(name = "commodity")
+        COMMODITY
+    }
+
+    private static class MappedResponse {
+        public Map<String, MappedExchangeRate> rates;
+    }
+
+    private static class MappedExchangeRate {
+        public String name;
+        public String unit;
+        public String value;
+        public MappedType type;
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import okio.Buffer;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class CoinbaseTest {
+    private final Coinbase coinbase = new Coinbase();
+
+    @Test
+    public void parse() throws Exception {
+        final String json = "{\"data\":{\"currency\":\"BTC\",\"rates\":{" //
+                + "\"USD\":\"9301.146\",\"ETH\":\"51.699\",\"XAU\":\"4.9\",\"EUR\":\"8540.5\",\"XOF\":\"5602300\"}}}";
+        final List<ExchangeRateEntry> rates = coinbase.parse(new Buffer().writeUtf8(json));
+        assertEquals(3, rates.size());
+        assertEquals("USD", rates.get(0).getCurrencyCode());
+        assertEquals(93011460L, rates.get(0).getRateFiat());
+        assertEquals("EUR", rates.get(1).getCurrencyCode());
+        assertEquals("XOF", rates.get(2).getCurrencyCode());
+        assertEquals("Coinbase.com", rates.get(0).getSource());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import org.bitcoinj.utils.ExchangeRate;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static de.schildbach.wallet.exchangerate.ExchangeRateHistory.DAY_MS;
+import static de.schildbach.wallet.exchangerate.ExchangeRateHistory.HOUR_MS;
+import static de.schildbach.wallet.exchangerate.ExchangeRateHistory.MINUTE_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRateHistoryTest {
+    private static final long T = 1_700_000_000_000L / DAY_MS * DAY_MS;
+
+    @Test
+    public void downsample() {
+        final List<ExchangeRateHistoryEntry> downsampled = ExchangeRateHistory.downsample(Arrays.asList(
+                entry("EUR", T + 5 * MINUTE_MS, MINUTE_MS, 100),
+                entry("EUR", T + 30 * MINUTE_MS, MINUTE_MS, 200),
+                entry("USD", T + 10 * MINUTE_MS, MINUTE_MS, 300),
+                entry("EUR", T + HOUR_MS, MINUTE_MS, 400)), HOUR_MS);
+        assertEquals(3, downsampled.size());
+        assertEntry(downsampled.get(0), "EUR", T, HOUR_MS, 200);
+        assertEntry(downsampled.get(1), "USD", T, HOUR_MS, 300);
+        assertEntry(downsampled.get(2), "EUR", T + HOUR_MS, HOUR_MS, 400);
+    }
+
+    @Test
+    public void nearest() {
+        final ExchangeRateHistory history = new ExchangeRateHistory("EUR", Arrays.asList(
+                entry("EUR", T, DAY_MS, 100),
+                entry("EUR", T + DAY_MS, HOUR_MS, 200),
+                entry("EUR", T + DAY_MS + 3 * HOUR_MS, MINUTE_MS, 300)));
+        assertRate(100, history.nearest(T));
+        assertRate(100, history.nearest(T + DAY_MS - 1));
+        assertRate(200, history.nearest(T + DAY_MS + 30 * MINUTE_MS));
+        // closer to the next bucket
+        assertRate(300, history.nearest(T + DAY_MS + 3 * HOUR_MS - 10 * MINUTE_MS));
+        assertRate(300, history.nearest(T + DAY_MS + 3 * HOUR_MS + 30 * MINUTE_MS));
+    }
+
+    @Test
+    public void nearest_outOfTolerance() {
+        final ExchangeRateHistory history = new ExchangeRateHistory("EUR", Arrays.asList(
+                entry("EUR", T, DAY_MS, 100),
+                entry("EUR", T + 10 * DAY_MS, MINUTE_MS, 200)));
+        assertNull(history.nearest(T - DAY_MS - 1));
+        assertRate(100, history.nearest(T - DAY_MS));
+        assertNull(history.nearest(T + 5 * DAY_MS));
+        assertRate(200, history.nearest(T + 10 * DAY_MS + HOUR_MS));
+        assertNull(history.nearest(T + 10 * DAY_MS + 2 * HOUR_MS));
+    }
+
+    @Test
+    public void nearest_empty() {
+        assertNull(new ExchangeRateHistory("EUR", Collections.emptyList()).nearest(T));
+    }
+
+    private static ExchangeRateHistoryEntry entry(final String currencyCode, final long time, final long resolution,
+            final long rateFiat) {
+        return new ExchangeRateHistoryEntry(currencyCode, time, resolution, 100_000_000, rateFiat);
+    }
+
+    private static void assertEntry(final ExchangeRateHistoryEntry entry, final String currencyCode, final long time,
+            final long resolution, final long rateFiat) {
+        assertEquals(currencyCode, entry.getCurrencyCode());
+        assertEquals(time, entry.getTime());
+        assertEquals(resolution, entry.getResolution());
+        assertEquals(rateFiat, entry.getRateFiat());
+    }
+
+    private static void assertRate(final long rateFiat, final ExchangeRate rate) {
+        assertEquals(rateFiat, rate.fiat.value);
+    }
+}
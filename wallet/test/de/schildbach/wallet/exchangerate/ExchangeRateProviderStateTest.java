@@ -0,0 +1,69 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import okhttp3.Headers;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRateProviderStateTest {
+    @Test
+    public void conditionalHeaders() {
+        final ExchangeRateProviderState state = new ExchangeRateProviderState(new CoinGecko());
+        final Headers.Builder none = new Headers.Builder();
+        state.addConditionalHeaders(none);
+        assertEquals(0, none.build().size());
+
+        state.onModified(100, "\"abc\"", "Tue, 14 Nov 2023 22:13:20 GMT");
+        final Headers.Builder both = new Headers.Builder();
+        state.addConditionalHeaders(both);
+        final Headers headers = both.build();
+        assertEquals("\"abc\"", headers.get("If-None-Match"));
+        assertEquals("Tue, 14 Nov 2023 22:13:20 GMT", headers.get("If-Modified-Since"));
+    }
+
+    @Test
+    public void clearValidators() {
+        final ExchangeRateProviderState state = new ExchangeRateProviderState(new CoinGecko(), "\"abc\"",
+                "Tue, 14 Nov 2023 22:13:20 GMT");
+        state.clearValidators();
+        final Headers.Builder headers = new Headers.Builder();
+        state.addConditionalHeaders(headers);
+        assertEquals(0, headers.build().size());
+        assertNull(state.eTag());
+        assertNull(state.lastModified());
+    }
+
+    @Test
+    public void statistics() {
+        final ExchangeRateProviderState state = new ExchangeRateProviderState(new CoinGecko());
+        assertEquals(0, state.errorRate(), 0);
+        state.onModified(400, null, null);
+        assertEquals(400, state.averageLatencyMs());
+        state.onFailure(800);
+        assertEquals(500, state.averageLatencyMs());
+        state.onNotModified(100);
+        assertEquals(400, state.averageLatencyMs());
+        assertEquals(1.0 / 3, state.errorRate(), 0.001);
+    }
+}
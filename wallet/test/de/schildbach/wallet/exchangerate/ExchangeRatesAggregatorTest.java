@@ -0,0 +1,91 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRatesAggregatorTest {
+    @Test
+    public void median() {
+        assertEquals(2, ExchangeRatesAggregator.median(new long[] { 3, 1, 2 }));
+        assertEquals(25, ExchangeRatesAggregator.median(new long[] { 40, 10, 20, 30 }));
+        assertEquals(Long.MAX_VALUE - 1,
+                ExchangeRatesAggregator.median(new long[] { Long.MAX_VALUE, Long.MAX_VALUE - 2 }));
+    }
+
+    @Test
+    public void medianWithOutlierRejected() {
+        final List<ExchangeRateEntry> rates = ExchangeRatesAggregator.aggregate(Arrays.asList(
+                Collections.singletonList(entry("A", "USD", 9300_0000)),
+                Collections.singletonList(entry("B", "USD", 9310_0000)),
+                Collections.singletonList(entry("C", "USD", 93000_0000))));
+        assertEquals(1, rates.size());
+        assertEquals(9305_0000, rates.get(0).getRateFiat());
+        assertEquals("A, B", rates.get(0).getSource());
+    }
+
+    @Test
+    public void currencyOfSingleProvider() {
+        final List<ExchangeRateEntry> rates = ExchangeRatesAggregator.aggregate(Arrays.asList(
+                Arrays.asList(entry("A", "USD", 9300_0000), entry("A", "EUR", 8500_0000)),
+                Collections.singletonList(entry("B", "USD", 9320_0000))));
+        assertEquals(2, rates.size());
+        assertEquals("USD", rates.get(0).getCurrencyCode());
+        assertEquals(9310_0000, rates.get(0).getRateFiat());
+        assertEquals("A, B", rates.get(0).getSource());
+        assertEquals("EUR", rates.get(1).getCurrencyCode());
+        assertEquals(8500_0000, rates.get(1).getRateFiat());
+        assertEquals("A", rates.get(1).getSource());
+    }
+
+    @Test
+    public void disagreementOfTwoTakesPreferred() {
+        final List<ExchangeRateEntry> rates = ExchangeRatesAggregator.aggregate(Arrays.asList(
+                Collections.singletonList(entry("A", "USD", 9300_0000)),
+                Collections.singletonList(entry("B", "USD", 12000_0000))));
+        assertEquals(1, rates.size());
+        assertEquals(9300_0000, rates.get(0).getRateFiat());
+        assertEquals("A", rates.get(0).getSource());
+    }
+
+    @Test
+    public void disagreementOfThreeTakesMedian() {
+        final List<ExchangeRateEntry> rates = ExchangeRatesAggregator.aggregate(Arrays.asList(
+                Collections.singletonList(entry("A", "USD", 8000_0000)),
+                Collections.singletonList(entry("B", "USD", 9300_0000)),
+                Collections.singletonList(entry("C", "USD", 12000_0000))));
+        assertEquals(1, rates.size());
+        assertEquals(9300_0000, rates.get(0).getRateFiat());
+        assertEquals("B", rates.get(0).getSource());
+    }
+
+    private static ExchangeRateEntry entry(final String source, final String currencyCode, final long rateFiat) {
+        return new ExchangeRateEntry(source, new ExchangeRate(Fiat.valueOf(currencyCode, rateFiat)));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRatesIndexTest {
+    private static final Map<String, String> NAMES = new HashMap<>();
+    static {
+        NAMES.put("USD", "US Dollar");
+        NAMES.put("AUD", "Australian Dollar");
+        NAMES.put("EUR", "Euro");
+        NAMES.put("PLN", "Polish Złoty");
+        NAMES.put("BRL", "Brazilian Real");
+    }
+
+    private final ExchangeRatesIndex index = new ExchangeRatesIndex(
+            Arrays.asList(entry("USD"), entry("EUR"), entry("PLN"), entry("AUD"), entry("BRL"), entry("XYZ")),
+            NAMES::get);
+
+    @Test
+    public void all() {
+        assertEquals(Arrays.asList("AUD", "BRL", "EUR", "PLN", "USD", "XYZ"), codes(index.filter(null)));
+        assertEquals(6, index.filter("  ").size());
+    }
+
+    @Test
+    public void prefixMatchesFirst() {
+        // USD starts with "us", AUD only contains it
+        assertEquals(Arrays.asList("USD", "AUD"), codes(index.filter("us")));
+        // "Dollar" is a word of both names
+        assertEquals(Arrays.asList("AUD", "USD"), codes(index.filter("Doll")));
+    }
+
+    @Test
+    public void substring() {
+        assertEquals(Arrays.asList("AUD", "BRL"), codes(index.filter("ian")));
+        assertEquals(Arrays.asList("BRL"), codes(index.filter("zilian re")));
+        assertTrue(index.filter("xyzzy").isEmpty());
+    }
+
+    @Test
+    public void diacritics() {
+        assertEquals(Arrays.asList("PLN"), codes(index.filter("zloty")));
+        assertEquals(Arrays.asList("PLN"), codes(index.filter("ZŁOTY")));
+    }
+
+    private static ExchangeRateEntry entry(final String currencyCode) {
+        return new ExchangeRateEntry("test", new ExchangeRate(Fiat.valueOf(currencyCode, 1_0000)));
+    }
+
+    private static List<String> codes(final List<ExchangeRateEntry> entries) {
+        final List<String> codes = new ArrayList<>(entries.size());
+        for (final ExchangeRateEntry entry : entries)
+            codes.add(entry.getCurrencyCode());
+        return codes;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.exchangerate;
+
+import org.junit.Test;
+
+import static de.schildbach.wallet.exchangerate.ExchangeRatesRefreshScheduler.MAX_BACKOFF_MS;
+import static de.schildbach.wallet.exchangerate.ExchangeRatesRefreshScheduler.METERED_UPDATE_FREQ_MS;
+import static de.schildbach.wallet.exchangerate.ExchangeRatesRefreshScheduler.MIN_BACKOFF_MS;
+import static de.schildbach.wallet.exchangerate.ExchangeRatesRefreshScheduler.UPDATE_FREQ_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRatesRefreshSchedulerTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void coldStartWithFreshRates() {
+        final ExchangeRatesRefreshScheduler scheduler = new ExchangeRatesRefreshScheduler(NOW - 1000, NOW - 1000, 0);
+        assertFalse(scheduler.tryStart(NOW, false));
+        assertTrue(scheduler.tryStart(NOW - 1000 + UPDATE_FREQ_MS, false));
+    }
+
+    @Test
+    public void neverFetched() {
+        final ExchangeRatesRefreshScheduler scheduler = new ExchangeRatesRefreshScheduler(0, 0, 0);
+        assertTrue(scheduler.tryStart(NOW, false));
+        // already in flight
+        assertFalse(scheduler.tryStart(NOW, false));
+        scheduler.onSuccess(NOW);
+        assertFalse(scheduler.tryStart(NOW + UPDATE_FREQ_MS - 1, false));
+        assertTrue(scheduler.tryStart(NOW + UPDATE_FREQ_MS, false));
+    }
+
+    @Test
+    public void timesInTheFutureAreStale() {
+        // clock was corrected backwards since the last fetch
+        final ExchangeRatesRefreshScheduler scheduler = new ExchangeRatesRefreshScheduler(NOW + UPDATE_FREQ_MS,
+                NOW + UPDATE_FREQ_MS, 0);
+        assertTrue(scheduler.tryStart(NOW, false));
+        scheduler.onSuccess(NOW);
+        assertFalse(scheduler.tryStart(NOW + 1000, false));
+    }
+
+    @Test
+    public void backoffFromTheFutureIsIgnored() {
+        final ExchangeRatesRefreshScheduler scheduler = new ExchangeRatesRefreshScheduler(0,
+                NOW + MAX_BACKOFF_MS, 5);
+        assertTrue(scheduler.tryStart(NOW, false));
+    }
+
+    @Test
+    public void metered() {
+        final ExchangeRatesRefreshScheduler scheduler = new ExchangeRatesRefreshScheduler(NOW, NOW, 0);
+        assertFalse(scheduler.tryStart(NOW + UPDATE_FREQ_MS, true));
+        assertTrue(scheduler.tryStart(NOW + METERED_UPDATE_FREQ_MS, true));
+    }
+
+    @Test
+    public void exponentialBackoff() {
+        final ExchangeRatesRefreshScheduler scheduler = new ExchangeRatesRefreshScheduler(0, 0, 0);
+        long now = NOW;
+        long expectedBackoff = MIN_BACKOFF_MS;
+        for (int i = 0; i < 20; i++) {
+            assertTrue(scheduler.tryStart(now, false));
+            scheduler.onFailure();
+            assertEquals(Math.min(expectedBackoff, MAX_BACKOFF_MS), scheduler.backoffMs());
+            assertFalse(scheduler.tryStart(now + scheduler.backoffMs() - 1, false));
+            now += scheduler.backoffMs();
+            expectedBackoff *= 2;
+        }
+        assertTrue(scheduler.tryStart(now, false));
+        scheduler.onSuccess(now);
+        assertEquals(0, scheduler.failures());
+        assertEquals(0, scheduler.backoffMs());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import de.schildbach.wallet.ui.send.FeeCategory;
+import org.bitcoinj.core.Coin;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class LocalFeeEstimatorTest {
+    private static final long NOW = 1700000000000L;
+
+    @Test
+    public void noData() {
+        final LocalFeeEstimator estimator = new LocalFeeEstimator(null);
+        assertNull(estimator.estimate(NOW));
+    }
+
+    @Test
+    public void feeFilterOnly() {
+        final LocalFeeEstimator estimator = new LocalFeeEstimator(null);
+        estimator.recordFeeFilter(Coin.valueOf(1000), NOW);
+        final Map<FeeCategory, Coin> fees = estimator.estimate(NOW);
+        assertEquals(1, fees.size());
+        assertEquals(Coin.valueOf(1000), fees.get(FeeCategory.ECONOMIC));
+    }
+
+    @Test
+    public void categoriesAreOrdered() {
+        final LocalFeeEstimator estimator = new LocalFeeEstimator(null);
+        for (int i = 1; i <= 100; i++)
+            estimator.recordFeeRate(Coin.valueOf(i * 1000), NOW);
+        final Map<FeeCategory, Coin> fees = estimator.estimate(NOW);
+        final Coin economic = fees.get(FeeCategory.ECONOMIC);
+        final Coin normal = fees.get(FeeCategory.NORMAL);
+        final Coin priority = fees.get(FeeCategory.PRIORITY);
+        assertTrue(economic.isLessThan(normal));
+        assertTrue(normal.isLessThan(priority));
+        assertTrue(priority.isLessThan(Coin.valueOf(100 * 1000)));
+    }
+
+    @Test
+    public void feeFilterIsFloor() {
+        final LocalFeeEstimator estimator = new LocalFeeEstimator(null);
+        for (int i = 0; i < 10; i++)
+            estimator.recordFeeRate(Coin.valueOf(1000), NOW);
+        estimator.recordFeeFilter(Coin.valueOf(5000), NOW);
+        final Map<FeeCategory, Coin> fees = estimator.estimate(NOW);
+        assertFalse(fees.get(FeeCategory.ECONOMIC).isLessThan(Coin.valueOf(4000)));
+    }
+
+    @Test
+    public void oldObservationsDecay() {
+        final LocalFeeEstimator estimator = new LocalFeeEstimator(null);
+        for (int i = 0; i < 10; i++)
+            estimator.recordFeeRate(Coin.valueOf(50000), NOW);
+        final long later = NOW + TimeUnit.DAYS.toMillis(7);
+        for (int i = 0; i < 10; i++)
+            estimator.recordFeeRate(Coin.valueOf(2000), later);
+        final Map<FeeCategory, Coin> fees = estimator.estimate(later);
+        assertTrue(fees.get(FeeCategory.NORMAL).isLessThan(Coin.valueOf(3000)));
+    }
+
+    @Test
+    public void bucketBounds() {
+        for (final long feePerKb : new long[] { 1, 1000, 1234, 5000, 100000, Long.MAX_VALUE / 2 }) {
+            final int bucket = LocalFeeEstimator.Histogram.bucketOf(feePerKb);
+            assertTrue(LocalFeeEstimator.Histogram.lowerBoundOf(bucket) <= Math.max(feePerKb, 1000));
+        }
+    }
+}
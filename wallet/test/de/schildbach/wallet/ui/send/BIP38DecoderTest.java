@@ -0,0 +1,114 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.crypto.BIP38PrivateKey;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BIP38DecoderTest {
+    // test vector from BIP38, no compression, no EC multiply
+    private static final BIP38PrivateKey ENCRYPTED_KEY = BIP38PrivateKey.fromBase58(MainNetParams.get(),
+            "6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg");
+    private static final String PASSPHRASE = "TestingOneTwoThree";
+    private static final String KEY = "5KN7MzqK5wt2TP1fQCYyHBtDrXdJuXbUzm4A9rKAteGu3Qi5CVR";
+
+    @Test
+    public void candidatePassphrases() {
+        assertEquals(Arrays.asList("Secret", " Secret ", "sECRET", " sECRET "),
+                BIP38Decoder.candidatePassphrases(" Secret "));
+        assertEquals(Arrays.asList("Secret", "sECRET"), BIP38Decoder.candidatePassphrases("Secret"));
+        assertEquals(Collections.singletonList("1234"), BIP38Decoder.candidatePassphrases("1234"));
+        assertTrue(BIP38Decoder.candidatePassphrases("  ").isEmpty());
+    }
+
+    @Test
+    public void decode() throws Exception {
+        final List<BIP38Decoder.Attempt> attempts = Collections.synchronizedList(new ArrayList<>());
+        final Map<BIP38PrivateKey, ECKey> keys = new BIP38Decoder(2).decode(
+                Collections.singletonList(ENCRYPTED_KEY), Arrays.asList("wrong", PASSPHRASE, "also wrong"),
+                (attempt, numDone, numTotal) -> attempts.add(attempt));
+        assertEquals(1, keys.size());
+        assertEquals(KEY, keys.get(ENCRYPTED_KEY).getPrivateKeyAsWiF(MainNetParams.get()));
+        boolean succeeded = false;
+        for (final BIP38Decoder.Attempt attempt : attempts) {
+            assertTrue(attempt.durationMs >= 0);
+            if (attempt.success) {
+                assertEquals(1, attempt.candidate);
+                succeeded = true;
+            }
+        }
+        assertTrue(succeeded);
+    }
+
+    @Test
+    public void decode_badPassphrase() throws Exception {
+        final Map<BIP38PrivateKey, ECKey> keys = new BIP38Decoder(2)
+                .decode(Collections.singletonList(ENCRYPTED_KEY), Collections.singletonList("wrong"), null);
+        assertTrue(keys.isEmpty());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void decode_cancelled() throws Exception {
+        final BIP38Decoder decoder = new BIP38Decoder(1);
+        decoder.cancel();
+        decoder.decode(Collections.singletonList(ENCRYPTED_KEY), Arrays.asList("wrong", PASSPHRASE), null);
+    }
+
+    @Test
+    public void decode_cancelledWhileRunning() throws Exception {
+        final BIP38Decoder decoder = new BIP38Decoder(1);
+        final long[] cancelledAt = new long[1], attemptMs = new long[1];
+        try {
+            decoder.decode(Collections.singletonList(ENCRYPTED_KEY), Arrays.asList("wrong", "also wrong", PASSPHRASE),
+                    (attempt, numDone, numTotal) -> {
+                        // the next attempt is running scrypt by now
+                        attemptMs[0] = attempt.durationMs;
+                        cancelledAt[0] = System.currentTimeMillis();
+                        decoder.cancel();
+                    });
+            fail();
+        } catch (final CancellationException x) {
+            // doesn't wait for the running attempt
+            assertTrue(System.currentTimeMillis() - cancelledAt[0] < attemptMs[0]);
+        }
+    }
+
+    @Test
+    public void verifyAddressHash() {
+        final ECKey key = ENCRYPTED_KEY.decrypt(PASSPHRASE);
+        assertTrue(BIP38Decoder.verifyAddressHash(ENCRYPTED_KEY, key));
+        assertFalse(BIP38Decoder.verifyAddressHash(ENCRYPTED_KEY, new ECKey()));
+    }
+}
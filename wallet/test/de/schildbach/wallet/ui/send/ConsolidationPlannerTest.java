@@ -0,0 +1,191 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import com.google.common.primitives.Ints;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ConsolidationPlannerTest {
+    private static final NetworkParameters PARAMS = TestNet3Params.get();
+    private static final Coin FEE_PER_KB = Coin.valueOf(1000);
+    private static final Coin FEE_CEILING_PER_KB = Coin.valueOf(5000);
+    private static final Coin SMALL = Coin.valueOf(10_000);
+    private static final Coin LARGE = Coin.COIN;
+
+    private int fundingCount = 0;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+    }
+
+    @Test
+    public void txVbytesFollowsOutputScriptType() {
+        assertEquals(11 + 10 * 68 + 31, ConsolidationPlanner.txVbytes(10 * 68, Script.ScriptType.P2WPKH));
+        assertEquals(11 + 10 * 68 + 34, ConsolidationPlanner.txVbytes(10 * 68, Script.ScriptType.P2PKH));
+    }
+
+    @Test
+    public void consolidatedCoinInputVbytes() {
+        assertEquals(68, ConsolidationPlanner.inputVbytes(Script.ScriptType.P2WPKH));
+        assertEquals(148, ConsolidationPlanner.inputVbytes(Script.ScriptType.P2PKH));
+    }
+
+    @Test
+    public void legacyWalletChangeIsP2PKH() {
+        final Wallet wallet = Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2PKH);
+        final Script.ScriptType changeScriptType = wallet.currentChangeAddress().getOutputScriptType();
+        assertEquals(Script.ScriptType.P2PKH, changeScriptType);
+        assertEquals(34, ConsolidationPlanner.outputVbytes(changeScriptType));
+    }
+
+    @Test
+    public void nothingToConsolidate() {
+        final Wallet wallet = Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH);
+        assertNull(ConsolidationPlanner.plan(wallet, Coin.valueOf(1000), Coin.valueOf(5000)));
+    }
+
+    @Test
+    public void consolidatesSmallCoins() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        fund(wallet, 20, SMALL);
+        fund(wallet, 2, LARGE);
+
+        final ConsolidationPlanner.Plan plan = ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB);
+        assertNotNull(plan);
+        assertEquals(20, plan.outputs.size());
+        for (final TransactionOutput output : plan.outputs)
+            assertEquals(SMALL, output.getValue());
+        assertEquals(wallet.currentChangeAddress(), plan.destination);
+        assertEquals(11 + 20 * 68 + 31, plan.vbytes);
+        assertEquals(Coin.valueOf(plan.vbytes), plan.fee);
+        assertEquals(SMALL.multiply(20).subtract(plan.fee), plan.value);
+        assertEquals(20 * 68 - 68, plan.vbytesSaved);
+    }
+
+    @Test
+    public void legacyWalletConsolidatesToP2PKH() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        fund(wallet, 12, SMALL);
+
+        final ConsolidationPlanner.Plan plan = ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB);
+        assertNotNull(plan);
+        assertEquals(12, plan.outputs.size());
+        assertEquals(11 + 12 * 148 + 34, plan.vbytes);
+        assertEquals(12 * 148 - 148, plan.vbytesSaved);
+    }
+
+    @Test
+    public void skipsCoinsEatenUpByFee() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        fund(wallet, 15, SMALL);
+        // spending a P2WPKH input costs 68 satoshis at this fee rate
+        fund(wallet, 5, Coin.valueOf(68));
+
+        final ConsolidationPlanner.Plan plan = ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB);
+        assertNotNull(plan);
+        assertEquals(15, plan.outputs.size());
+        for (final TransactionOutput output : plan.outputs)
+            assertEquals(SMALL, output.getValue());
+    }
+
+    @Test
+    public void tooFewSmallCoins() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        fund(wallet, 9, SMALL);
+        fund(wallet, 5, Coin.valueOf(50));
+        fund(wallet, 5, LARGE);
+        assertNull(ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB));
+
+        fund(wallet, 1, SMALL);
+        assertNotNull(ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB));
+    }
+
+    @Test
+    public void capsInputsAtSmallestCoins() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        for (int i = 0; i < 250; i++)
+            fund(wallet, 1, SMALL.add(Coin.valueOf(i)));
+
+        final ConsolidationPlanner.Plan plan = ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB);
+        assertNotNull(plan);
+        assertEquals(200, plan.outputs.size());
+        for (final TransactionOutput output : plan.outputs)
+            assertTrue(output.getValue().isLessThan(SMALL.add(Coin.valueOf(200))));
+        assertEquals(200 * 68 - 68, plan.vbytesSaved);
+    }
+
+    @Test
+    public void refusesAboveFeeCeiling() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        fund(wallet, 20, SMALL);
+        assertNull(ConsolidationPlanner.plan(wallet, FEE_CEILING_PER_KB.add(Coin.SATOSHI), FEE_CEILING_PER_KB));
+        assertNotNull(ConsolidationPlanner.plan(wallet, FEE_CEILING_PER_KB, FEE_CEILING_PER_KB));
+    }
+
+    @Test
+    public void skipsUnconfirmedCoins() {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        final Transaction tx = fundingTransaction(wallet, 20, SMALL);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING, tx));
+        assertNull(ConsolidationPlanner.plan(wallet, FEE_PER_KB, FEE_CEILING_PER_KB));
+    }
+
+    /**
+     * Adds a confirmed transaction paying the given number of coins of the given value to the wallet.
+     */
+    private void fund(final Wallet wallet, final int numCoins, final Coin value) {
+        final Transaction tx = fundingTransaction(wallet, numCoins, value);
+        tx.getConfidence().setAppearedAtChainHeight(100);
+        tx.getConfidence().setDepthInBlocks(1);
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+    }
+
+    private Transaction fundingTransaction(final Wallet wallet, final int numCoins, final Coin value) {
+        final Transaction tx = new Transaction(PARAMS);
+        // spend a made-up outpoint, so each transaction is unique
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0],
+                new TransactionOutPoint(PARAMS, 0, Sha256Hash.of(Ints.toByteArray(fundingCount++)))));
+        final Address address = wallet.currentReceiveAddress();
+        for (int i = 0; i < numCoins; i++)
+            tx.addOutput(value, address);
+        return tx;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.data.ElectrumServer;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for an Electrum server, speaking JSON-RPC over plain TCP or TLS on the loopback interface.
+ * It serves the outputs of a scripted set of transactions, and can be told to be slow or to misbehave.
+ *
+ * @author Andreas Schildbach
+ */
+final class LocalElectrumServer implements Closeable {
+    enum Behavior {
+        /** answers truthfully */
+        HONEST,
+        /** reports a higher value for every UTXO */
+        LIE_ABOUT_VALUE,
+        /** leaves out the first UTXO */
+        HIDE_UTXO,
+        /** closes the connection as soon as a request comes in */
+        DISCONNECT,
+        /** rejects JSON-RPC batches */
+        NO_BATCH
+    }
+
+    private static final String KEYSTORE = "local-electrum-server.p12";
+    private static final char[] KEYSTORE_PASSWORD = "password".toCharArray();
+    private static final int HEIGHT = 800000;
+
+    private final ServerSocket serverSocket;
+    private final ElectrumServer server;
+    private final Map<String, List<TransactionOutput>> outputsByScripthash = new HashMap<>();
+    private final Map<String, String> rawTransactions = new HashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final JsonAdapter<Object> jsonAdapter = new Moshi.Builder().build().adapter(Object.class);
+    private final AtomicInteger numConnections = new AtomicInteger();
+    private volatile Behavior behavior = Behavior.HONEST;
+    private volatile long latencyMs = 0;
+
+    static LocalElectrumServer tcp(final List<Transaction> transactions) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        return new LocalElectrumServer(serverSocket, new ElectrumServer("tcp",
+                serverSocket.getInetAddress().getHostAddress(), Integer.toString(serverSocket.getLocalPort()), null),
+                transactions);
+    }
+
+    static LocalElectrumServer tls(final List<Transaction> transactions) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (final InputStream is = LocalElectrumServer.class.getResourceAsStream(KEYSTORE)) {
+            keyStore.load(is, KEYSTORE_PASSWORD);
+        }
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory
+                .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), null, null);
+        final ServerSocket serverSocket = context.getServerSocketFactory().createServerSocket(0, 50,
+                InetAddress.getLoopbackAddress());
+        final String fingerprint = RequestWalletBalanceTask
+                .sslCertificateFingerprint(keyStore.getCertificate(keyStore.aliases().nextElement()));
+        return new LocalElectrumServer(serverSocket, new ElectrumServer("tls",
+                serverSocket.getInetAddress().getHostAddress(), Integer.toString(serverSocket.getLocalPort()),
+                fingerprint), transactions);
+    }
+
+    /**
+     * Scripts a UTXO set: one transaction per UTXO, paying to the given scripts in turn.
+     */
+    static List<Transaction> fundingTransactions(final List<Script> outputScripts, final int numUtxos,
+            final Random random) {
+        final List<Transaction> transactions = new ArrayList<>(numUtxos);
+        for (int i = 0; i < numUtxos; i++) {
+            final byte[] prevTxHash = new byte[32];
+            random.nextBytes(prevTxHash);
+            final Transaction tx = new Transaction(Constants.NETWORK_PARAMETERS);
+            tx.addInput(Sha256Hash.wrap(prevTxHash), 0, new ScriptBuilder().data(new byte[] { 1 }).build());
+            tx.addOutput(Coin.valueOf(10000 + random.nextInt(1000000)), outputScripts.get(i % outputScripts.size()));
+            transactions.add(tx);
+        }
+        return transactions;
+    }
+
+    /**
+     * @return the UTXOs as an honest server would report them
+     */
+    static Set<UTXO> utxos(final List<Transaction> transactions) {
+        final Set<UTXO> utxos = new HashSet<>();
+        for (final Transaction tx : transactions)
+            for (final TransactionOutput output : tx.getOutputs())
+                utxos.add(new UTXO(tx.getTxId(), output.getIndex(), output.getValue(), HEIGHT, false,
+                        output.getScriptPubKey()));
+        return utxos;
+    }
+
+    private LocalElectrumServer(final ServerSocket serverSocket, final ElectrumServer server,
+            final List<Transaction> transactions) {
+        this.serverSocket = serverSocket;
+        this.server = server;
+        for (final Transaction tx : transactions) {
+            rawTransactions.put(tx.getTxId().toString(), Constants.HEX.encode(tx.bitcoinSerialize()));
+            for (final TransactionOutput output : tx.getOutputs()) {
+                final String scripthash = Constants.HEX
+                        .encode(Sha256Hash.of(output.getScriptPubKey().getProgram()).getReversedBytes());
+                outputsByScripthash.computeIfAbsent(scripthash, k -> new ArrayList<>()).add(output);
+            }
+        }
+        executor.execute(this::accept);
+    }
+
+    /**
+     * @return descriptor to put into an {@link de.schildbach.wallet.data.ElectrumServerRegistry}
+     */
+    ElectrumServer server() {
+        return server;
+    }
+
+    LocalElectrumServer behavior(final Behavior behavior) {
+        this.behavior = behavior;
+        return this;
+    }
+
+    Behavior behavior() {
+        return behavior;
+    }
+
+    /**
+     * @param latencyMs
+     *            delay of every response
+     */
+    LocalElectrumServer latency(final long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    int numConnections() {
+        return numConnections.get();
+    }
+
+    private void accept() {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket = serverSocket.accept();
+                numConnections.incrementAndGet();
+                sockets.add(socket);
+                executor.execute(() -> serve(socket));
+            }
+        } catch (final IOException x) {
+            // closed
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try (final Socket s = socket;
+                final BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                final Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (behavior == Behavior.DISCONNECT)
+                    return;
+                final Object request = jsonAdapter.fromJson(line);
+                final Object response;
+                if (request instanceof List) {
+                    if (behavior == Behavior.NO_BATCH) {
+                        response = error(null, -32600, "batch requests not supported");
+                    } else {
+                        final List<Object> responses = new ArrayList<>();
+                        for (final Object r : (List<?>) request)
+                            responses.add(respond((Map<?, ?>) r));
+                        response = responses;
+                    }
+                } else {
+                    response = respond((Map<?, ?>) request);
+                }
+                if (latencyMs > 0)
+                    Thread.sleep(latencyMs);
+                writer.write(jsonAdapter.toJson(response));
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (final IOException | InterruptedException x) {
+            // connection gone
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private Map<String, Object> respond(final Map<?, ?> request) {
+        final Integer id = ((Number) request.get("id")).intValue();
+        final String method = (String) request.get("method");
+        final String param = (String) ((List<?>) request.get("params")).get(0);
+        if ("blockchain.scripthash.listunspent".equals(method)) {
+            final List<Map<String, Object>> utxos = new ArrayList<>();
+            for (final TransactionOutput output : outputsByScripthash.getOrDefault(param,
+                    Collections.emptyList())) {
+                final Map<String, Object> utxo = new LinkedHashMap<>();
+                utxo.put("tx_hash", output.getParentTransactionHash().toString());
+                utxo.put("tx_pos", output.getIndex());
+                utxo.put("value", output.getValue().value + (behavior == Behavior.LIE_ABOUT_VALUE ? 1000 : 0));
+                utxo.put("height", HEIGHT);
+                utxos.add(utxo);
+            }
+            if (behavior == Behavior.HIDE_UTXO && !utxos.isEmpty() && isFirstScripthash(param))
+                utxos.remove(0);
+            return result(id, utxos);
+        } else if ("blockchain.transaction.get".equals(method)) {
+            final String rawTransaction = rawTransactions.get(param);
+            if (rawTransaction == null)
+                return error(id, 2, "unknown transaction " + param);
+            return result(id, rawTransaction);
+        } else {
+            return error(id, -32601, "unknown method " + method);
+        }
+    }
+
+    private boolean isFirstScripthash(final String scripthash) {
+        return scripthash.equals(outputsByScripthash.keySet().stream().sorted().findFirst().orElse(null));
+    }
+
+    private static Map<String, Object> result(final Integer id, final Object result) {
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("result", result);
+        return response;
+    }
+
+    private static Map<String, Object> error(final Integer id, final int code, final String message) {
+        final Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("error", error);
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (final Socket socket : sockets)
+            socket.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import org.bitcoinj.core.DumpedPrivateKey;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PrefixedChecksummedBytes;
+import org.bitcoinj.crypto.BIP38PrivateKey;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class PrivateKeyListParserTest {
+    private static final NetworkParameters MAINNET = MainNetParams.get();
+    // test vector from BIP38, no compression, no EC multiply
+    private static final String BIP38 = "6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg";
+
+    @Test
+    public void mixed() {
+        final String wif1 = new ECKey().getPrivateKeyAsWiF(MAINNET);
+        final String wif2 = new ECKey().getPrivateKeyAsWiF(MAINNET);
+        final List<PrefixedChecksummedBytes> keys = PrivateKeyListParser.parse(MAINNET,
+                wif1 + "\r\n" + BIP38 + ", garbage;\t" + wif2 + "\n" + wif1 + "\n\n");
+        assertEquals(3, keys.size());
+        assertTrue(keys.get(0) instanceof DumpedPrivateKey);
+        assertEquals(wif1, keys.get(0).toBase58());
+        assertTrue(keys.get(1) instanceof BIP38PrivateKey);
+        assertEquals(wif2, keys.get(2).toBase58());
+    }
+
+    @Test
+    public void empty() {
+        assertTrue(PrivateKeyListParser.parse(MAINNET, " \n").isEmpty());
+    }
+}
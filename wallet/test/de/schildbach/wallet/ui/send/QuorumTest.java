@@ -0,0 +1,79 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class QuorumTest {
+    @Test
+    public void reachedEarly() {
+        final Quorum<String> quorum = new Quorum<>(6, 3);
+        quorum.add(ImmutableSet.of("a", "b"));
+        quorum.add(null);
+        quorum.add(ImmutableSet.of("a"));
+        assertFalse(quorum.isDecided());
+        quorum.add(ImmutableSet.of("a", "b"));
+        assertFalse(quorum.isDecided());
+        quorum.add(ImmutableSet.of("a", "b"));
+        assertTrue(quorum.isReached());
+        assertTrue(quorum.isDecided());
+        assertEquals(1, quorum.numPending());
+        assertEquals(ImmutableSet.of("a", "b"), quorum.result());
+    }
+
+    @Test
+    public void impossible() {
+        final Quorum<String> quorum = new Quorum<>(4, 2);
+        quorum.add(null);
+        quorum.add(null);
+        assertFalse(quorum.isDecided());
+        quorum.add(null);
+        assertTrue(quorum.isImpossible());
+        assertTrue(quorum.isDecided());
+        assertFalse(quorum.isReached());
+    }
+
+    @Test
+    public void countedWhenNoAgreement() {
+        final Quorum<String> quorum = new Quorum<>(3, 2);
+        quorum.add(ImmutableSet.of("a", "b"));
+        quorum.add(ImmutableSet.of("a", "c"));
+        assertFalse(quorum.isReached());
+        quorum.add(ImmutableSet.of("d"));
+        assertTrue(quorum.isDecided());
+        assertFalse(quorum.isReached());
+        assertEquals(ImmutableSet.of("a"), quorum.result());
+    }
+
+    @Test
+    public void agreeOnEmpty() {
+        final Quorum<String> quorum = new Quorum<>(4, 2);
+        quorum.add(ImmutableSet.of());
+        quorum.add(ImmutableSet.of());
+        assertTrue(quorum.isReached());
+        assertTrue(quorum.result().isEmpty());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.data.ElectrumServer;
+import de.schildbach.wallet.data.ElectrumServerRegistry;
+import de.schildbach.wallet.ui.send.LocalElectrumServer.Behavior;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class RequestWalletBalanceTaskTest {
+    private final Random random = new Random(0);
+    private final List<Script> outputScripts = new ArrayList<>();
+    private final List<LocalElectrumServer> servers = new ArrayList<>();
+    private List<Transaction> transactions;
+
+    @Before
+    public void setUp() {
+        Context.propagate(Constants.CONTEXT);
+        for (int i = 0; i < 3; i++)
+            outputScripts.add(ScriptBuilder.createP2PKHOutputScript(
+                    LegacyAddress.fromKey(Constants.NETWORK_PARAMETERS, new ECKey()).getHash()));
+        transactions = LocalElectrumServer.fundingTransactions(outputScripts, 5, random);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (final LocalElectrumServer server : servers)
+            server.close();
+    }
+
+    @Test
+    public void tcpAndTls() throws Exception {
+        final Quorum<UTXO> quorum = query(registry(tcp(), tls(), tcp()));
+        assertTrue(quorum.isReached());
+        assertEquals(LocalElectrumServer.utxos(transactions), quorum.result());
+    }
+
+    @Test
+    public void liarsAreOutvoted() throws Exception {
+        final LocalElectrumServer liar = tcp().behavior(Behavior.LIE_ABOUT_VALUE);
+        // honest servers are slow, so the liar is sure to be heard
+        final ElectrumServerRegistry registry = registry(liar, tcp().behavior(Behavior.HIDE_UTXO),
+                tls().latency(200), tcp().latency(200), tls().latency(200));
+        final Quorum<UTXO> quorum = query(registry);
+        assertTrue(quorum.isReached());
+        assertEquals(LocalElectrumServer.utxos(transactions), quorum.result());
+        // caught lying, so it sits out
+        assertFalse(registry.serversToQuery().contains(liar.server()));
+    }
+
+    @Test
+    public void disconnectingServersAreReplaced() throws Exception {
+        final Quorum<UTXO> quorum = query(registry(tcp().behavior(Behavior.DISCONNECT),
+                tls().behavior(Behavior.DISCONNECT), tcp(), tls()));
+        assertTrue(quorum.isReached());
+        assertEquals(LocalElectrumServer.utxos(transactions), quorum.result());
+    }
+
+    @Test
+    public void noQuorumIfAllDisconnect() throws Exception {
+        final Quorum<UTXO> quorum = query(registry(tcp().behavior(Behavior.DISCONNECT),
+                tcp().behavior(Behavior.DISCONNECT), tcp().behavior(Behavior.DISCONNECT)));
+        assertFalse(quorum.isReached());
+        assertTrue(quorum.numSuccess() < quorum.threshold());
+    }
+
+    @Test
+    public void thresholdCountsServersThatSitOut() throws Exception {
+        final LocalElectrumServer liar1 = tcp(), liar2 = tcp();
+        final ElectrumServerRegistry registry = registry(liar1, liar2, tcp(), tls());
+        registry.recordLie(liar1.server());
+        registry.recordLie(liar2.server());
+        assertEquals(2, registry.serversToQuery().size());
+        final Quorum<UTXO> quorum = query(registry);
+        // a single eligible server must not be enough
+        assertEquals(2, quorum.threshold());
+        assertTrue(quorum.isReached());
+    }
+
+    @Test
+    public void batchesRefused() throws Exception {
+        final Quorum<UTXO> quorum = query(registry(tcp().behavior(Behavior.NO_BATCH),
+                tls().behavior(Behavior.NO_BATCH)));
+        assertTrue(quorum.isReached());
+        assertEquals(LocalElectrumServer.utxos(transactions), quorum.result());
+    }
+
+    @Test
+    public void manyUtxos() throws Exception {
+        // more than one batch worth of transactions
+        transactions = LocalElectrumServer.fundingTransactions(outputScripts, 250, random);
+        final Quorum<UTXO> quorum = query(registry(tcp(), tls()));
+        assertTrue(quorum.isReached());
+        final Set<UTXO> utxos = quorum.result();
+        assertEquals(250, utxos.size());
+        assertEquals(LocalElectrumServer.utxos(transactions), utxos);
+    }
+
+    private Quorum<UTXO> query(final ElectrumServerRegistry registry) {
+        return RequestWalletBalanceTask.queryServers(registry, outputScripts);
+    }
+
+    private ElectrumServerRegistry registry(final LocalElectrumServer... servers) {
+        final List<ElectrumServer> descriptors = new ArrayList<>(servers.length);
+        for (final LocalElectrumServer server : servers)
+            descriptors.add(server.server());
+        return new ElectrumServerRegistry(descriptors, null);
+    }
+
+    private LocalElectrumServer tcp() throws IOException {
+        final LocalElectrumServer server = LocalElectrumServer.tcp(transactions);
+        servers.add(server);
+        return server;
+    }
+
+    private LocalElectrumServer tls() throws Exception {
+        final LocalElectrumServer server = LocalElectrumServer.tls(transactions);
+        servers.add(server);
+        return server;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui.send;
+
+import com.google.common.base.Stopwatch;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.data.ElectrumServer;
+import de.schildbach.wallet.data.ElectrumServerRegistry;
+import de.schildbach.wallet.ui.send.LocalElectrumServer.Behavior;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long looking up the balance of a paper wallet takes, and whether the quorum picks the right UTXOs,
+ * as the number of servers, the number of UTXOs and the share of misbehaving servers vary. All servers are local,
+ * with a random latency of up to {@link #MAX_LATENCY_MS} each.
+ *
+ * <p>
+ * This is a benchmark that runs for minutes, so it's not part of the unit tests. Remove {@link Ignore} to run it.
+ *
+ * @author Andreas Schildbach
+ */
+@Ignore("benchmark, run manually")
+public class SweepLoadTest {
+    private static final int[] NUM_SERVERS = { 3, 5, 8 };
+    private static final int[] NUM_UTXOS = { 1, 250 };
+    private static final double[] FAILURE_RATES = { 0, 0.25, 0.5 };
+    /** failing servers misbehave in turn like this */
+    private static final Behavior[] FAILURES = { Behavior.DISCONNECT, Behavior.HIDE_UTXO,
+            Behavior.LIE_ABOUT_VALUE };
+    private static final int NUM_KEYS = 10;
+    private static final int MAX_LATENCY_MS = 100;
+
+    private static final Logger log = LoggerFactory.getLogger(SweepLoadTest.class);
+
+    private final Random random = new Random(0);
+    private final List<Script> outputScripts = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context.propagate(Constants.CONTEXT);
+        for (int i = 0; i < NUM_KEYS; i++)
+            outputScripts.add(ScriptBuilder.createP2PKHOutputScript(
+                    LegacyAddress.fromKey(Constants.NETWORK_PARAMETERS, new ECKey()).getHash()));
+    }
+
+    @Test
+    public void sweep() throws Exception {
+        log.info("servers  utxos  failing  liars  threshold  latency  connections  quorum       correct");
+        for (final int numServers : NUM_SERVERS)
+            for (final int numUtxos : NUM_UTXOS)
+                for (final double failureRate : FAILURE_RATES)
+                    run(numServers, numUtxos, (int) Math.round(numServers * failureRate));
+    }
+
+    private void run(final int numServers, final int numUtxos, final int numFailing) throws Exception {
+        final List<Transaction> transactions = LocalElectrumServer.fundingTransactions(outputScripts, numUtxos,
+                random);
+        final Set<UTXO> expectedUtxos = LocalElectrumServer.utxos(transactions);
+        final List<LocalElectrumServer> servers = new ArrayList<>(numServers);
+        final List<ElectrumServer> descriptors = new ArrayList<>(numServers);
+        int numLiars = 0;
+        try {
+            for (int i = 0; i < numServers; i++) {
+                final LocalElectrumServer server = i % 2 == 0 ? LocalElectrumServer.tcp(transactions) :
+                        LocalElectrumServer.tls(transactions);
+                server.latency(random.nextInt(MAX_LATENCY_MS + 1));
+                // spread failing servers over the ranking
+                if (i * numFailing / numServers != (i + 1) * numFailing / numServers) {
+                    final Behavior behavior = FAILURES[(i * numFailing / numServers) % FAILURES.length];
+                    server.behavior(behavior);
+                    // Liars don't necessarily tell the same lie, but to be on the safe side assume they
+                    // could agree on a result.
+                    if (behavior != Behavior.DISCONNECT)
+                        numLiars++;
+                }
+                servers.add(server);
+                descriptors.add(server.server());
+            }
+            final ElectrumServerRegistry registry = new ElectrumServerRegistry(descriptors, null);
+
+            final Stopwatch watch = Stopwatch.createStarted();
+            final Quorum<UTXO> quorum = RequestWalletBalanceTask.queryServers(registry, outputScripts);
+            final long latencyMs = watch.elapsed(TimeUnit.MILLISECONDS);
+            int numConnections = 0;
+            for (final LocalElectrumServer server : servers)
+                numConnections += server.numConnections();
+
+            final int threshold = quorum.threshold();
+            final boolean correct = quorum.isReached() && expectedUtxos.equals(quorum.result());
+            log.info(String.format(Locale.US, "%7d  %5d  %7d  %5d  %9d  %5d ms  %11d  %-12s %s",
+                    numServers, numUtxos, numFailing, numLiars, threshold, latencyMs, numConnections,
+                    quorum.isReached() ? "reached" : "not reached", correct));
+
+            final int numHonest = numServers - numFailing;
+            if (numLiars < threshold) {
+                // liars alone cannot reach the quorum
+                if (quorum.isReached())
+                    assertEquals(expectedUtxos, quorum.result());
+                // honest servers are asked until they reach the quorum
+                if (numHonest >= threshold)
+                    assertTrue(correct);
+            }
+        } finally {
+            for (final LocalElectrumServer server : servers)
+                server.close();
+        }
+    }
+}
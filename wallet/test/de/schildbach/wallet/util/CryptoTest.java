@@ -17,6 +17,8 @@
 
 package de.schildbach.wallet.util;
 
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import org.bitcoinj.wallet.WalletProtobufSerializer;
 import org.junit.Test;
@@ -25,12 +27,19 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Andreas Schildbach
@@ -88,6 +97,66 @@ public class CryptoTest {
         }
     }
 
+    @Test
+    public void roundtripStreamDifferentByteSizes() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream(4096);
+        while (stream.size() < 4096) {
+            final byte[] plainBytes = stream.toByteArray();
+            assertArrayEquals(plainBytes, decryptStream(encryptStream(plainBytes, PASSWORD), PASSWORD));
+
+            stream.write(42);
+        }
+    }
+
+    @Test
+    public void streamCompatibility() throws Exception {
+        final byte[] plainBytes = new byte[10000];
+        for (int i = 0; i < plainBytes.length; i++)
+            plainBytes[i] = (byte) i;
+        final String cipherText = encryptStream(plainBytes, PASSWORD);
+        assertTrue(cipherText.startsWith("U2FsdGVkX1"));
+        assertArrayEquals(plainBytes, Crypto.decryptBytes(cipherText, PASSWORD));
+        assertArrayEquals(plainBytes, decryptStream(Crypto.encrypt(plainBytes, PASSWORD), PASSWORD));
+    }
+
+    @Test
+    public void streamWrongPassword() throws Exception {
+        final String cipherText = encryptStream(PLAIN_BYTES, PASSWORD);
+        try {
+            final byte[] plainBytes = decryptStream(cipherText, "wrong".toCharArray());
+            // with a probability of about 1/256, the padding of a wrong password checks out
+            assertFalse(Arrays.equals(PLAIN_BYTES, plainBytes));
+        } catch (final IOException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void streamNotSalted() throws Exception {
+        try {
+            decryptStream(BaseEncoding.base64().encode(new byte[32]), PASSWORD);
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+        try {
+            decryptStream("", PASSWORD);
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void backupsStream() throws Exception {
+        final byte[] backup = decryptStream(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50"), PASSWORD);
+        assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backup)));
+
+        final byte[] backupCrLf = decryptStream(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50-crlf"),
+                PASSWORD);
+        assertArrayEquals(backup, backupCrLf);
+    }
+
     @Test
     public void backups() throws Exception {
         final byte[] backup = Crypto.decryptBytes(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50"),
@@ -99,6 +168,20 @@ public class CryptoTest {
         assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backupCrLf)));
     }
 
+    private String encryptStream(final byte[] plainBytes, final char[] password) throws IOException {
+        final StringWriter cipherText = new StringWriter();
+        try (final OutputStream plainOut = Crypto.encryptingOutputStream(cipherText, password)) {
+            plainOut.write(plainBytes);
+        }
+        return cipherText.toString();
+    }
+
+    private byte[] decryptStream(final String cipherText, final char[] password) throws IOException {
+        try (final InputStream plainIn = Crypto.decryptingInputStream(new StringReader(cipherText), password)) {
+            return ByteStreams.toByteArray(plainIn);
+        }
+    }
+
     private String readBackupFromResource(final String filename) throws IOException {
         final BufferedReader reader = new BufferedReader(
                 new InputStreamReader(getClass().getResourceAsStream(filename), StandardCharsets.UTF_8));
@@ -0,0 +1,49 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class KeyDerivationTest {
+    @Test
+    public void scryptMemory() {
+        assertEquals(16L * 1024 * 1024, KeyDerivation.scryptMemory(new KeyCrypterScrypt(16384)));
+        assertEquals(64L * 1024 * 1024, KeyDerivation.scryptMemory(new KeyCrypterScrypt(65536)));
+        assertEquals(0, KeyDerivation.scryptMemory(null));
+    }
+
+    @Test
+    public void fitsInParallel() {
+        final long heapKiB = Runtime.getRuntime().maxMemory() / 1024;
+        // budget is a quarter of the heap: two halves of it fit on their own, but not together
+        final KeyCrypterScrypt half = new KeyCrypterScrypt(Long.highestOneBit(heapKiB / 4));
+        final KeyCrypterScrypt quarter = new KeyCrypterScrypt(Long.highestOneBit(heapKiB / 8));
+        assertTrue(KeyDerivation.fitsInParallel(half));
+        assertTrue(KeyDerivation.fitsInParallel(quarter, quarter));
+        assertFalse(KeyDerivation.fitsInParallel(half, half));
+        assertTrue(KeyDerivation.fitsInParallel(quarter, null));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ScryptCalibrationTest {
+    @Test
+    public void largestThatFits() {
+        // latency scales roughly linearly
+        final ScryptCalibration.Result result = ScryptCalibration.calibrate(16384, 131072, 1000,
+                iterations -> iterations / 64 - 30, () -> false);
+        assertEquals(65536, result.iterations);
+        assertEquals(994, result.latencyMs);
+    }
+
+    @Test
+    public void limitedByMemory() {
+        final ScryptCalibration.Result result = ScryptCalibration.calibrate(16384, 32768, 1000, iterations -> 10,
+                () -> false);
+        assertEquals(32768, result.iterations);
+    }
+
+    @Test
+    public void slowDevice() {
+        final ScryptCalibration.Result result = ScryptCalibration.calibrate(16384, 131072, 1000,
+                iterations -> 3000, () -> false);
+        assertEquals(16384, result.iterations);
+        assertEquals(3000, result.latencyMs);
+    }
+
+    @Test
+    public void slowDeviceNeverBelowMinimum() {
+        final ScryptCalibration.Result result = ScryptCalibration.calibrate(32768, 131072, 1000,
+                iterations -> 3000, () -> false);
+        assertEquals(32768, result.iterations);
+    }
+
+    @Test
+    public void cancelled() {
+        final int[] measurements = new int[1];
+        final ScryptCalibration.Result result = ScryptCalibration.calibrate(16384, 131072, 1000, iterations -> {
+            measurements[0]++;
+            return 10;
+        }, () -> measurements[0] >= 2);
+        assertNull(result);
+        assertEquals(2, measurements[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxBelowMin() {
+        ScryptCalibration.calibrate(32768, 16384, 1000, iterations -> 10, () -> false);
+    }
+}
@@ -17,16 +17,41 @@
 
 package de.schildbach.wallet.util;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.protobuf.ByteString;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Andreas Schildbach
  */
 public class WalletUtilsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void restoreWalletFromProtobufOrBase58() throws Exception {
         WalletUtils.restoreWalletFromProtobuf(getClass().getResourceAsStream("backup-protobuf-testnet"),
@@ -38,4 +63,157 @@ public class WalletUtilsTest {
         WalletUtils.restoreWalletFromProtobuf(getClass().getResourceAsStream("backup-protobuf-testnet"),
                 MainNetParams.get());
     }
+
+    @Test
+    public void sniffBackupFormat() throws Exception {
+        assertEquals(WalletUtils.BackupFormat.ENCRYPTED, sniffResource("bitcoin-wallet-backup-testnet-3.50"));
+        assertEquals(WalletUtils.BackupFormat.ENCRYPTED, sniffResource("bitcoin-wallet-backup-testnet-3.50-crlf"));
+        assertEquals(WalletUtils.BackupFormat.PROTOBUF, sniffResource("backup-protobuf-testnet"));
+        assertEquals(WalletUtils.BackupFormat.BASE58, sniff("# KEEP YOUR PRIVATE KEYS SAFE!\n"));
+        assertEquals(WalletUtils.BackupFormat.BASE58, sniff("cN4jDbPS6ZQNyfxsR6EnWJHxUAdLLBh2JpkWiNTGHuBHs2eL2Sas"));
+        assertNull(sniff("{\"type\":\"addr\"}"));
+        assertNull(sniff(""));
+    }
+
+    @Test
+    public void sniffBackupFormatResetsStream() throws Exception {
+        final BufferedInputStream is = new BufferedInputStream(
+                getClass().getResourceAsStream("backup-protobuf-testnet"));
+        WalletUtils.sniffBackupFormat(is);
+        final byte[] expected = ByteStreams.toByteArray(getClass().getResourceAsStream("backup-protobuf-testnet"));
+        assertEquals(expected.length, ByteStreams.toByteArray(is).length);
+    }
+
+    @Test
+    public void restoreWalletFromBackup() throws Exception {
+        final char[] password = "password".toCharArray();
+        final Wallet wallet = restoreResource("bitcoin-wallet-backup-testnet-3.50", password);
+        final Wallet walletCrLf = restoreResource("bitcoin-wallet-backup-testnet-3.50-crlf", password);
+        assertEquals(wallet.getKeyChainGroupSize(), walletCrLf.getKeyChainGroupSize());
+        assertEquals(wallet.getEarliestKeyCreationTime(), walletCrLf.getEarliestKeyCreationTime());
+        restoreResource("backup-protobuf-testnet", null);
+    }
+
+    @Test(expected = IOException.class)
+    public void restoreWalletFromBackup_wrongPassword() throws Exception {
+        restoreResource("bitcoin-wallet-backup-testnet-3.50", "wrong".toCharArray());
+    }
+
+    @Test
+    public void restoreWalletFromBackup_base58() throws Exception {
+        final ECKey key = new ECKey();
+        final String keys = "# KEEP YOUR PRIVATE KEYS SAFE!\n\n" + key.getPrivateKeyAsWiF(TestNet3Params.get())
+                + " 2014-01-01T00:00:00Z\n";
+        final Wallet wallet = WalletUtils.restoreWalletFromBackup(
+                new ByteArrayInputStream(keys.getBytes(StandardCharsets.UTF_8)), null, TestNet3Params.get());
+        assertEquals(1, wallet.getImportedKeys().size());
+        assertEquals(key.getPubKeyPoint(), wallet.getImportedKeys().get(0).getPubKeyPoint());
+        assertEquals(1388534400, wallet.getImportedKeys().get(0).getCreationTimeSeconds());
+
+        final char[] password = "password".toCharArray();
+        final Wallet encryptedWallet = WalletUtils.restoreWalletFromBackup(
+                new ByteArrayInputStream(Crypto.encrypt(keys, password).getBytes(StandardCharsets.UTF_8)), password,
+                TestNet3Params.get());
+        assertEquals(1, encryptedWallet.getImportedKeys().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void restoreWalletFromBackup_base58WrongNetwork() throws Exception {
+        final String keys = new ECKey().getPrivateKeyAsWiF(MainNetParams.get()) + "\n";
+        WalletUtils.restoreWalletFromBackup(new ByteArrayInputStream(keys.getBytes(StandardCharsets.UTF_8)), null,
+                TestNet3Params.get());
+    }
+
+    @Test
+    public void walletToKeyBackupProto() throws Exception {
+        final Wallet wallet = Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH);
+        wallet.importKey(new ECKey());
+        wallet.freshReceiveAddress();
+        wallet.setDescription("description");
+
+        // same as serializing everything, then stripping
+        final Protos.Wallet.Builder stripped = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
+        stripped.clearTransaction();
+        stripped.clearLastSeenBlockHash();
+        stripped.setLastSeenBlockHeight(-1);
+        stripped.clearLastSeenBlockTimeSecs();
+        final Protos.Wallet keyBackup = WalletUtils.walletToKeyBackupProto(wallet);
+        assertEquals(stripped.build(), keyBackup);
+
+        final Wallet restoredWallet = new WalletProtobufSerializer().readWallet(
+                new ByteArrayInputStream(keyBackup.toByteArray()), true, null);
+        assertEquals(wallet.getKeyChainSeed(), restoredWallet.getKeyChainSeed());
+        assertEquals(wallet.currentReceiveAddress(), restoredWallet.currentReceiveAddress());
+        assertEquals(1, restoredWallet.getImportedKeys().size());
+    }
+
+    @Test
+    public void encryptedWalletToKeyBackupProto() throws Exception {
+        final Wallet wallet = Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH);
+        wallet.importKey(new ECKey());
+        final KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(2);
+        wallet.encrypt(keyCrypter, keyCrypter.deriveKey("pin"));
+
+        final Protos.Wallet keyBackup = WalletUtils.walletToKeyBackupProto(wallet);
+        assertEquals(Protos.Wallet.EncryptionType.ENCRYPTED_SCRYPT_AES, keyBackup.getEncryptionType());
+        assertTrue(WalletUtils.isConsistentKeyBackup(keyBackup));
+        final Wallet restoredWallet = new WalletProtobufSerializer().readWallet(
+                new ByteArrayInputStream(keyBackup.toByteArray()), true, null);
+        assertTrue(restoredWallet.isEncrypted());
+        assertTrue(restoredWallet.checkPassword("pin"));
+    }
+
+    @Test
+    public void inconsistentKeyBackup() throws Exception {
+        final Wallet wallet = Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH);
+        wallet.importKey(new ECKey());
+        final Protos.Wallet keyBackup = WalletUtils.walletToKeyBackupProto(wallet);
+        assertTrue(WalletUtils.isConsistentKeyBackup(keyBackup));
+
+        // plain private keys claiming to be encrypted
+        assertFalse(WalletUtils.isConsistentKeyBackup(keyBackup.toBuilder()
+                .setEncryptionType(Protos.Wallet.EncryptionType.ENCRYPTED_SCRYPT_AES).build()));
+
+        // encrypted private keys claiming to be unencrypted
+        final Protos.Wallet.Builder encryptedKey = keyBackup.toBuilder();
+        encryptedKey.setKey(0, encryptedKey.getKey(0).toBuilder().clearSecretBytes()
+                .setEncryptedData(Protos.EncryptedData.newBuilder().setInitialisationVector(ByteString.EMPTY)
+                        .setEncryptedPrivateKey(ByteString.EMPTY)));
+        assertFalse(WalletUtils.isConsistentKeyBackup(encryptedKey.build()));
+    }
+
+    @Test
+    public void writeKeyBackup() throws Exception {
+        final File file = new File(folder.getRoot(), "key-backup");
+        final byte[] keyBackup = WalletUtils.walletToKeyBackupProto(
+                Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH)).toByteArray();
+        assertTrue(WalletUtils.writeKeyBackup(file, keyBackup));
+        assertArrayEquals(keyBackup, Files.toByteArray(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // unchanged
+        assertFalse(WalletUtils.writeKeyBackup(file, keyBackup.clone()));
+
+        // changed
+        final byte[] otherKeyBackup = WalletUtils.walletToKeyBackupProto(
+                Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH)).toByteArray();
+        assertTrue(WalletUtils.writeKeyBackup(file, otherKeyBackup));
+        assertArrayEquals(otherKeyBackup, Files.toByteArray(file));
+    }
+
+    private WalletUtils.BackupFormat sniffResource(final String filename) throws IOException {
+        try (final InputStream is = new BufferedInputStream(getClass().getResourceAsStream(filename))) {
+            return WalletUtils.sniffBackupFormat(is);
+        }
+    }
+
+    private WalletUtils.BackupFormat sniff(final String text) throws IOException {
+        return WalletUtils.sniffBackupFormat(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Wallet restoreResource(final String filename, final char[] password) throws IOException {
+        try (final InputStream is = getClass().getResourceAsStream(filename)) {
+            return WalletUtils.restoreWalletFromBackup(is, password, TestNet3Params.get());
+        }
+    }
 }